@@ -0,0 +1,82 @@
+package com.library;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Login (full password hash) versus session-validated request throughput from 1..N threads.
+ * Usage: AuthBenchmark [users, default 10000] [secondsPerRun, default 3]
+ *   -Dlibrary.passwordIterations=N   hash cost to measure with
+ */
+public class AuthBenchmark {
+    private static final int SESSIONS = 10_000;
+
+    interface Operation {
+        void run(ThreadLocalRandom random);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ConnectionProvider offline = new OfflineConnectionProvider();
+        WriteBehindJournal journal = new WriteBehindJournal(offline, Integer.MAX_VALUE, Long.MAX_VALUE);
+        UserRegistrationAndLogin userManagement = new UserRegistrationAndLogin(offline, journal);
+        String passwordHash = PasswordHasher.hash("secret");
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            users.add(new User("patron" + i, passwordHash));
+        }
+        userManagement.applyLoadedPage(users);
+        userManagement.markLoaded();
+        String[] tokens = new String[Math.min(SESSIONS, userCount)];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = userManagement.sessions().create(users.get(i));
+        }
+        System.setOut(console);
+        System.out.println("PBKDF2 iterations: " + PasswordHasher.ITERATIONS);
+
+        run("login", seconds, random -> {
+            if (userManagement.authenticate("patron" + random.nextInt(userCount), "secret") == null) {
+                throw new IllegalStateException("login failed");
+            }
+        });
+        run("validateSession", seconds, random -> {
+            if (userManagement.validateSession(tokens[random.nextInt(tokens.length)]) == null) {
+                throw new IllegalStateException("session rejected");
+            }
+        });
+        System.exit(0);
+    }
+
+    private static void run(String name, int seconds, Operation operation) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        double singleThreaded = 0;
+        for (int threads = 1; threads <= cores * 2; threads *= 2) {
+            LongAdder operations = new LongAdder();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        operation.run(random);
+                        operations.increment();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(seconds + 30, TimeUnit.SECONDS);
+
+            double opsPerSecond = operations.sum() / (double) seconds;
+            if (threads == 1) {
+                singleThreaded = opsPerSecond;
+            }
+            System.out.printf("%-16s threads=%-3d %,14.0f ops/s  speedup %.2fx%n", name, threads, opsPerSecond, opsPerSecond / singleThreaded);
+        }
+    }
+}
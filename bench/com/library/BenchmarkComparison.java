@@ -0,0 +1,108 @@
+package com.library;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares a JMH CSV result file (-rf csv) against the committed baseline and exits 1 if any
+ * benchmark present in both is more than 10% (-Dbench.regressionThreshold) worse. Scores are
+ * matched on benchmark name plus parameters; for throughput higher is better, for the time
+ * modes lower is.
+ * Usage: BenchmarkComparison baseline.csv latest.csv
+ */
+public class BenchmarkComparison {
+    private static final double THRESHOLD = Double.parseDouble(System.getProperty("bench.regressionThreshold", "0.10"));
+
+    static class Score {
+        final String key;
+        final String mode;
+        final double value;
+        final String unit;
+
+        Score(String key, String mode, double value, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.value = value;
+            this.unit = unit;
+        }
+
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path baselineFile = Paths.get(args[0]);
+        Path latestFile = Paths.get(args[1]);
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline at " + baselineFile + "; copy " + latestFile + " there to start tracking.");
+            return;
+        }
+        Map<String, Score> baseline = read(baselineFile);
+        int regressions = 0;
+        for (Score latest : read(latestFile).values()) {
+            Score before = baseline.get(latest.key);
+            if (before == null || !before.unit.equals(latest.unit)) {
+                System.out.printf("%-70s %14.1f %s (no baseline)%n", latest.key, latest.value, latest.unit);
+                continue;
+            }
+            double change = (latest.value - before.value) / before.value;
+            boolean regressed = latest.higherIsBetter() ? change < -THRESHOLD : change > THRESHOLD;
+            System.out.printf("%-70s %14.1f -> %14.1f %s %+7.1f%%%s%n", latest.key, before.value, latest.value, latest.unit,
+                    100 * change, regressed ? "  REGRESSION" : "");
+            if (regressed) {
+                regressions++;
+            }
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmarks regressed by more than " + Math.round(THRESHOLD * 100) + "% against " + baselineFile + ".");
+            System.exit(1);
+        }
+        System.out.println("No regressions against " + baselineFile + ".");
+    }
+
+    static Map<String, Score> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        List<String> header = fields(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> row = fields(line);
+            StringBuilder key = new StringBuilder(row.get(benchmark));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < row.size() && !row.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(row.get(i));
+                }
+            }
+            scores.put(key.toString(), new Score(key.toString(), row.get(mode), Double.parseDouble(row.get(score)), row.get(unit)));
+        }
+        return scores;
+    }
+
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,63 @@
+package com.library;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Imports a generated CSV file (one record in ten repeats an earlier one) with 1..N parser
+ * threads, then exports the catalog as CSV and MARC and re-imports both to check that every
+ * record is recognised as a duplicate. Runs without a database, so the journal only queues rows.
+ * Usage: BulkImportBenchmark [records, default 200000]
+ */
+public class BulkImportBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path csv = Files.createTempFile("catalog", ".csv");
+        Path exportedCsv = Files.createTempFile("export", ".csv");
+        Path exportedMarc = Files.createTempFile("export", ".mrk");
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                writer.write("title,author\n");
+                for (int i = 1; i <= records; i++) {
+                    int id = i % 10 == 0 ? i / 2 : i;
+                    writer.write("\"" + SyntheticCatalog.title(id) + ", revised\"," + SyntheticCatalog.author(id) + "\n");
+                }
+            }
+            ConnectionProvider offline = new OfflineConnectionProvider();
+            int cores = Runtime.getRuntime().availableProcessors();
+            BookSearch bookSearch = null;
+            WriteBehindJournal journal = null;
+            for (int workers = 1; workers <= cores * 2; workers *= 2) {
+                journal = new WriteBehindJournal(offline, Integer.MAX_VALUE, Long.MAX_VALUE);
+                bookSearch = new BookSearch(offline, journal, LoadMode.EAGER, new ReportCounters());
+                bookSearch.markLoaded();
+                CatalogTransfer transfer = new CatalogTransfer(bookSearch, journal, workers, CatalogTransfer.DEFAULT_CHUNK_RECORDS, Integer.MAX_VALUE);
+                System.gc();
+                CatalogTransfer.Result result = transfer.importFile(csv);
+                console.printf("workers=%-3d %,10.0f records/s  %s%n", workers, result.records * 1000.0 / Math.max(1, result.millis), result);
+            }
+
+            CatalogTransfer transfer = new CatalogTransfer(bookSearch, journal, cores, CatalogTransfer.DEFAULT_CHUNK_RECORDS, Integer.MAX_VALUE);
+            long start = System.nanoTime();
+            long exported = transfer.exportFile(exportedCsv);
+            transfer.exportFile(exportedMarc);
+            console.printf("exported %d books as CSV and MARC in %d ms (%,d and %,d bytes)%n", exported,
+                    (System.nanoTime() - start) / 1_000_000, Files.size(exportedCsv), Files.size(exportedMarc));
+            for (Path file : new Path[] { exportedCsv, exportedMarc }) {
+                CatalogTransfer.Result again = transfer.importFile(file);
+                console.println("re-import " + file.getFileName() + ": " + again);
+                if (again.added != 0 || again.duplicates != exported) {
+                    throw new IllegalStateException("Round trip through " + file + " was not lossless");
+                }
+            }
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(exportedCsv);
+            Files.deleteIfExists(exportedMarc);
+        }
+        System.exit(0);
+    }
+}
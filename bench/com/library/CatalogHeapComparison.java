@@ -0,0 +1,94 @@
+package com.library;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Loads the same synthetic catalog into a BookSearch in EAGER mode (a Book object per title plus
+ * the trigram index) and in COMPACT mode (a CompactBookStore), and prints the retained heap of
+ * each with the time of a substring search and of the report totals. Lookups on the compact
+ * catalog materialize books on demand, so a run of getBook calls is timed for both as well.
+ * Usage: CatalogHeapComparison [titles, default 1000000]
+ */
+public class CatalogHeapComparison {
+    private static final PrintStream CONSOLE = System.out;
+    private static final int LOOKUPS = 1_000_000;
+
+    public static void main(String[] args) {
+        int titles = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        CONSOLE.println("Titles: " + titles);
+        long eagerHeap = measure("EAGER", LoadMode.EAGER, titles);
+        long compactHeap = measure("COMPACT", LoadMode.COMPACT, titles);
+        CONSOLE.printf("Heap reduction: %.1f%%%n", 100.0 * (eagerHeap - compactHeap) / eagerHeap);
+        Log.flush();
+        System.exit(0);
+    }
+
+    private static long measure(String name, LoadMode loadMode, int titles) {
+        long baseline = usedHeap();
+        ConnectionProvider offline = new OfflineConnectionProvider();
+        WriteBehindJournal journal = new WriteBehindJournal(offline, Integer.MAX_VALUE, Long.MAX_VALUE);
+        ReportCounters counters = new ReportCounters();
+        BookSearch bookSearch = new BookSearch(offline, journal, loadMode, counters);
+        List<Book> page = new ArrayList<>(StreamingLoader.DEFAULT_PAGE_SIZE);
+        for (int id = 1; id <= titles; id++) {
+            Book book = new Book(id, SyntheticCatalog.title(id), SyntheticCatalog.author(id));
+            book.isAvailable = id % 7 != 0;
+            page.add(book);
+            if (page.size() == StreamingLoader.DEFAULT_PAGE_SIZE || id == titles) {
+                bookSearch.applyLoadedPage(page);
+                page = new ArrayList<>(StreamingLoader.DEFAULT_PAGE_SIZE);
+            }
+        }
+        bookSearch.markLoaded();
+        long heap = usedHeap() - baseline;
+
+        long start = System.nanoTime();
+        int matches = bookSearch.find("silent garden").size();
+        long searchMillis = (System.nanoTime() - start) / 1_000_000;
+        start = System.nanoTime();
+        long available;
+        CompactBookStore store = bookSearch.compactStore();
+        if (store != null) {
+            available = store.availableCount();
+            new GenerateReports().generateReports(store);
+        } else {
+            List<Book> books = bookSearch.allBooks();
+            available = books.stream().filter(book -> book.isAvailable).count();
+            new GenerateReports().generateReports(books);
+        }
+        long reportMillis = (System.nanoTime() - start) / 1_000_000;
+        Random random = new Random(42);
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (bookSearch.getBook(1 + random.nextInt(titles)) == null) {
+                throw new IllegalStateException("Lost a title");
+            }
+        }
+        long lookupMillis = (System.nanoTime() - start) / 1_000_000;
+
+        CONSOLE.printf("%-8s %,d bytes (%.1f per title), search %d ms (%d matches), report %d ms (%d available), "
+                        + "%,d lookups %d ms%n", name, heap, (double) heap / titles, searchMillis, matches, reportMillis,
+                available, LOOKUPS, lookupMillis);
+        if (counters.snapshot().totalBooks != titles) {
+            throw new IllegalStateException(name + " counted " + counters.snapshot().totalBooks + " titles");
+        }
+        journal.close();
+        return heap;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
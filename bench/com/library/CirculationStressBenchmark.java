@@ -0,0 +1,68 @@
+package com.library;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Hammers CirculationEngine with checkout/return pairs from 1..N threads, reports throughput
+ * per thread count and fails if any copy is ever held by two patrons at once.
+ * Usage: CirculationStressBenchmark [books] [secondsPerRun]
+ */
+public class CirculationStressBenchmark {
+    public static void main(String[] args) throws Exception {
+        int bookCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // Never flushed: coalescing keeps at most one pending row per book and loan.
+        WriteBehindJournal journal = new WriteBehindJournal(null, Integer.MAX_VALUE, Long.MAX_VALUE);
+        Book[] books = new Book[bookCount];
+        for (int i = 0; i < bookCount; i++) {
+            books[i] = new Book(i + 1, "Title " + (i + 1), "Author " + (i % 100));
+        }
+        HoldQueue holds = new HoldQueue(journal, HoldQueue.DEFAULT_WAIT_LIMIT, HoldQueue.DEFAULT_PICKUP_WINDOW);
+        CirculationEngine engine = new CirculationEngine(journal, holds, id -> books[id - 1], new ReportCounters(), CirculationEngine.DEFAULT_LOAN_DAYS);
+        AtomicIntegerArray holders = new AtomicIntegerArray(bookCount);
+        AtomicLong violations = new AtomicLong();
+
+        double singleThreaded = 0;
+        for (int threads = 1; threads <= cores * 2; threads *= 2) {
+            LongAdder operations = new LongAdder();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            for (int t = 0; t < threads; t++) {
+                User patron = new User("patron" + t, "secret");
+                pool.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        int index = random.nextInt(bookCount);
+                        Book book = books[index];
+                        if (engine.checkout(book, patron) != null) {
+                            if (holders.incrementAndGet(index) != 1) {
+                                violations.incrementAndGet();
+                            }
+                            holders.decrementAndGet(index);
+                            engine.returnBook(book);
+                        }
+                        operations.increment();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(seconds + 30, TimeUnit.SECONDS);
+
+            double opsPerSecond = operations.sum() / (double) seconds;
+            if (threads == 1) {
+                singleThreaded = opsPerSecond;
+            }
+            System.out.printf("threads=%-3d %,14.0f ops/s  speedup %.2fx%n", threads, opsPerSecond, opsPerSecond / singleThreaded);
+        }
+
+        if (violations.get() > 0 || engine.activeLoans() != 0) {
+            throw new IllegalStateException(violations.get() + " double checkouts, " + engine.activeLoans() + " leaked loans");
+        }
+        System.out.println("No double checkouts detected.");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,136 @@
+package com.library;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads N copies into Holdings, eight per title spread over three branches, and reports the
+ * heap they take; then times branch availability lookups and checkout/check-in churn on a hot
+ * set of titles, and finally recounts every copy to check the maintained shelf and branch counts.
+ * Usage: HoldingsBenchmark [copies, default 10000000] [branches, default 20] [secondsPerRun, default 3]
+ */
+public class HoldingsBenchmark {
+    private static final int COPIES_PER_TITLE = 8;
+    private static final int BRANCHES_PER_TITLE = 3;
+    private static final int HOT_TITLES = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        int copyCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int branchCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int titleCount = Math.max(1, copyCount / COPIES_PER_TITLE);
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+
+        WriteBehindJournal journal = new WriteBehindJournal(null, Integer.MAX_VALUE, Long.MAX_VALUE);
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        Holdings holdings = new Holdings(journal);
+        for (int b = 1; b <= branchCount; b++) {
+            holdings.addBranch("Branch " + b);
+        }
+        Random random = new Random(42);
+        List<int[]> page = new ArrayList<>(StreamingLoader.DEFAULT_PAGE_SIZE);
+        for (int id = 1; id <= copyCount; id++) {
+            int status = random.nextInt(4) == 0 ? Holdings.Status.ON_LOAN.ordinal() : Holdings.Status.AVAILABLE.ordinal();
+            int bookId = 1 + (id - 1) % titleCount;
+            int branchId = 1 + (bookId * 7 + random.nextInt(BRANCHES_PER_TITLE)) % branchCount;
+            page.add(new int[] { id, bookId, branchId, status });
+            if (page.size() == StreamingLoader.DEFAULT_PAGE_SIZE) {
+                holdings.applyLoadedPage(page);
+                page.clear();
+            }
+        }
+        holdings.applyLoadedPage(page);
+        page = null;
+        long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long heapAfter = usedHeap();
+        System.out.printf("loaded %,d copies of %,d titles at %d branches in %,d ms; %,d MB heap (%.1f bytes a copy)%n",
+                holdings.size(), titleCount, branchCount, loadMillis, (heapAfter - heapBefore) >> 20,
+                (double) (heapAfter - heapBefore) / copyCount);
+
+        int hotTitles = Math.min(HOT_TITLES, titleCount);
+        run("availability lookups", threads, seconds, rnd -> holdings.available(1 + rnd.nextInt(titleCount), 1 + rnd.nextInt(branchCount)));
+        run("checkout/check-in", threads, seconds, rnd -> {
+            int bookId = 1 + rnd.nextInt(hotTitles);
+            int copyId = holdings.restatusCopy(bookId, Holdings.Status.AVAILABLE, Holdings.Status.ON_LOAN);
+            if (copyId != 0) {
+                // Returned to a branch of the patron's choosing, which then owns the copy.
+                holdings.transfer(copyId, 1 + rnd.nextInt(branchCount));
+                holdings.setStatus(copyId, Holdings.Status.AVAILABLE);
+            }
+        });
+
+        start = System.nanoTime();
+        int[] copiesAt = new int[branchCount + 1];
+        int[] availableAt = new int[branchCount + 1];
+        int mismatches = 0;
+        for (int bookId = 1; bookId <= titleCount; bookId++) {
+            int[] copies = new int[branchCount + 1];
+            int[] available = new int[branchCount + 1];
+            for (Holdings.Copy copy : holdings.copiesOf(bookId)) {
+                copies[copy.branchId]++;
+                if (copy.status == Holdings.Status.AVAILABLE) {
+                    available[copy.branchId]++;
+                }
+            }
+            int total = 0;
+            int totalAvailable = 0;
+            for (int b = 1; b <= branchCount; b++) {
+                if (copies[b] != holdings.copies(bookId, b) || available[b] != holdings.available(bookId, b)) {
+                    mismatches++;
+                }
+                total += copies[b];
+                totalAvailable += available[b];
+                copiesAt[b] += copies[b];
+                availableAt[b] += available[b];
+            }
+            if (total != holdings.copies(bookId) || totalAvailable != holdings.available(bookId)) {
+                mismatches++;
+            }
+        }
+        for (int b = 1; b <= branchCount; b++) {
+            if (copiesAt[b] != holdings.copiesAtBranch(b) || availableAt[b] != holdings.availableAtBranch(b)) {
+                mismatches++;
+            }
+        }
+        System.out.printf("recounted every copy in %,d ms: %d mismatched counts%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), mismatches);
+        if (mismatches != 0) {
+            throw new IllegalStateException("Maintained counts disagree with the copies");
+        }
+        System.exit(0);
+    }
+
+    interface Operation {
+        void run(ThreadLocalRandom random);
+    }
+
+    private static void run(String name, int threads, int seconds, Operation operation) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+                while (System.nanoTime() < deadline) {
+                    operation.run(random);
+                    done++;
+                }
+                operations.add(done);
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        System.out.printf("%-22s %,12d ops/s with %d threads%n", name, operations.sum() / seconds, threads);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,183 @@
+package com.library;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator for the HTTP API: N concurrent clients each log in, then issue a
+ * mix of searches, lookups, checkout/return pairs and logins until the deadline, and the run
+ * reports throughput plus p50/p99/max latency. Without a URL it starts an in-process server over
+ * a synthetic catalog, so nothing but a JDK is needed.
+ * Usage: HttpLoadGenerator [baseUrl|-] [clients, default 1000] [seconds, default 10] [books, default 100000]
+ */
+public class HttpLoadGenerator {
+    private static final int USERS = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 && !args[0].equals("-") ? args[0] : null;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int bookCount = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+
+        LibraryHttpServer server = null;
+        if (baseUrl == null) {
+            server = startInProcess(bookCount);
+            baseUrl = "http://localhost:" + server.port();
+        }
+        String base = baseUrl.replaceAll("/+$", "");
+
+        // Every client blocks on its own request, so the client side needs a thread per client.
+        ExecutorService clientThreads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "load-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10)).executor(clientThreads).build();
+        long[][] latencies = new long[clients][];
+        LongAdder errors = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] window = new long[2];
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            futures.add(clientThreads.submit(() -> {
+                String username = "patron" + (client % USERS);
+                String credentials = "{\"username\":" + Json.quote(username) + ",\"password\":\"secret\"}";
+                String token = login(http, base, credentials);
+                ready.countDown();
+                go.await();
+                long[] samples = new long[1024];
+                int count = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < window[1]) {
+                    int roll = random.nextInt(100);
+                    int bookId = 1 + random.nextInt(bookCount);
+                    long start = System.nanoTime();
+                    int status;
+                    if (roll < 60) {
+                        status = send(http, get(base + "/books/search?q=" + (roll < 50 ? "volume+" + bookId : "garden") + "&size=20"));
+                    } else if (roll < 75) {
+                        status = send(http, get(base + "/books/" + bookId));
+                    } else if (roll < 95) {
+                        status = send(http, post(base + "/books/" + bookId + "/checkout", token, ""));
+                        if (status == 201) {
+                            status = send(http, post(base + "/books/" + bookId + "/return", token, ""));
+                        } else if (status == 409) {
+                            status = 200;
+                        }
+                    } else {
+                        status = send(http, post(base + "/users/login", null, credentials));
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    if (status >= 400) {
+                        errors.increment();
+                    }
+                    if (count == samples.length) {
+                        samples = Arrays.copyOf(samples, count * 2);
+                    }
+                    samples[count++] = elapsed;
+                }
+                latencies[client] = Arrays.copyOf(samples, count);
+                return null;
+            }));
+        }
+        ready.await();
+        window[0] = System.nanoTime();
+        window[1] = window[0] + TimeUnit.SECONDS.toNanos(seconds);
+        go.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsedNanos = System.nanoTime() - window[0];
+        clientThreads.shutdown();
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("clients=%d  requests=%,d  errors=%,d  throughput=%,.0f req/s%n",
+                clients, all.length, errors.sum(), all.length / (elapsedNanos / 1e9));
+        System.out.printf("latency p50=%.2f ms  p99=%.2f ms  max=%.2f ms%n",
+                percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+        if (server != null) {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    private static LibraryHttpServer startInProcess(int bookCount) throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ConnectionProvider offline = new OfflineConnectionProvider();
+        WriteBehindJournal journal = new WriteBehindJournal(offline, Integer.MAX_VALUE, Long.MAX_VALUE);
+        ReportCounters counters = new ReportCounters();
+        BookSearch bookSearch = new BookSearch(offline, journal, LoadMode.EAGER, counters);
+        List<Book> page = new ArrayList<>();
+        for (int id = 1; id <= bookCount; id++) {
+            page.add(new Book(id, SyntheticCatalog.title(id), SyntheticCatalog.author(id)));
+        }
+        bookSearch.applyLoadedPage(page);
+        bookSearch.markLoaded();
+        UserRegistrationAndLogin users = new UserRegistrationAndLogin(offline, journal);
+        String passwordHash = PasswordHasher.hash("secret");
+        List<User> patrons = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            patrons.add(new User("patron" + i, passwordHash));
+        }
+        users.applyLoadedPage(patrons);
+        users.markLoaded();
+        HoldQueue holds = new HoldQueue(journal, HoldQueue.DEFAULT_WAIT_LIMIT, HoldQueue.DEFAULT_PICKUP_WINDOW);
+        CirculationEngine circulation = new CirculationEngine(journal, holds, bookSearch::getBook, counters, CirculationEngine.DEFAULT_LOAN_DAYS);
+        LibraryHttpServer server = new LibraryHttpServer(new LibraryService(users, bookSearch, new Holdings(journal), circulation, counters), 0);
+        server.start();
+        System.setOut(console);
+        System.out.println("In-process server on port " + server.port() + " with " + bookCount + " books and " + USERS + " patrons.");
+        return server;
+    }
+
+    private static String login(HttpClient http, String base, String credentials) throws Exception {
+        HttpResponse<String> response = http.send(post(base + "/users/login", null, credentials), HttpResponse.BodyHandlers.ofString());
+        while (response.statusCode() == 503) {
+            // The server's worker pool is full; back off before logging in again.
+            Thread.sleep(100);
+            response = http.send(post(base + "/users/login", null, credentials), HttpResponse.BodyHandlers.ofString());
+        }
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Login failed: " + response.statusCode() + " " + response.body());
+        }
+        return Json.parseObject(response.body()).get("token");
+    }
+
+    private static int send(HttpClient http, HttpRequest request) {
+        try {
+            return http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return 599;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 599;
+        }
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET().build();
+    }
+
+    private static HttpRequest post(String url, String token, String json) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return request.build();
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+}
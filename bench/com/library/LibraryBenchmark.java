@@ -0,0 +1,127 @@
+package com.library;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH throughput benchmarks for the search, mutation, login and report hot paths over synthetic
+ * catalogs of 10k, 1M and 10M titles, held in memory with no database behind them (see
+ * PersistenceBenchmark for the paths that write to one). Console output is discarded while
+ * measuring. A 10M-title catalog needs a heap in the tens of gigabytes: pass
+ * -jvmArgsAppend -Xmx24g or run with -p size=10000,1000000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryBenchmark {
+    private static final int MAX_USERS = 100_000;
+    private static final int SESSIONS = 1_000;
+    private static final PrintStream CONSOLE = System.out;
+
+    @Param({ "10000", "1000000", "10000000" })
+    int size;
+
+    private ReportCounters counters;
+    private BookSearch bookSearch;
+    private UserRegistrationAndLogin userManagement;
+    private GenerateReports reports;
+    private String[] sessions;
+    private int userCount;
+    private long invocation;
+
+    @Setup(Level.Trial)
+    public void buildCatalog() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ConnectionProvider offline = new OfflineConnectionProvider();
+        WriteBehindJournal journal = new WriteBehindJournal(offline, Integer.MAX_VALUE, Long.MAX_VALUE);
+        counters = new ReportCounters();
+        bookSearch = new BookSearch(offline, journal, LoadMode.EAGER, counters);
+        List<Book> page = new ArrayList<>();
+        for (int id = 1; id <= size; id++) {
+            page.add(new Book(id, SyntheticCatalog.title(id), SyntheticCatalog.author(id)));
+            if (page.size() == StreamingLoader.DEFAULT_PAGE_SIZE || id == size) {
+                bookSearch.applyLoadedPage(page);
+                page = new ArrayList<>();
+            }
+        }
+        bookSearch.markLoaded();
+        userCount = Math.min(size, MAX_USERS);
+        userManagement = new UserRegistrationAndLogin(offline, journal);
+        // One shared hash keeps setup cheap; every login still pays the full key derivation.
+        String passwordHash = PasswordHasher.hash("secret");
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            users.add(new User("patron" + i, passwordHash));
+        }
+        userManagement.applyLoadedPage(users);
+        userManagement.markLoaded();
+        sessions = new String[Math.min(userCount, SESSIONS)];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = userManagement.sessions().create(users.get(i));
+        }
+        reports = new GenerateReports();
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreConsole() {
+        System.setOut(CONSOLE);
+    }
+
+    private int nextId() {
+        return (int) (1 + invocation++ % size);
+    }
+
+    @Benchmark
+    public List<Book> searchBooksSelective() {
+        return bookSearch.searchBooks("volume " + nextId(), 1, 20);
+    }
+
+    @Benchmark
+    public List<Book> searchBooksBroad() {
+        return bookSearch.searchBooks("garden", 1, 20);
+    }
+
+    @Benchmark
+    public boolean updateBook() {
+        int id = nextId();
+        return bookSearch.updateBook(id, SyntheticCatalog.title(id) + (invocation % 2 == 0 ? " (revised)" : ""),
+                SyntheticCatalog.author(id));
+    }
+
+    /** Deletes a book and puts it back, so the catalog keeps its size. */
+    @Benchmark
+    public Book deleteBook() {
+        Book book = bookSearch.getBook(nextId());
+        bookSearch.deleteBook(book.id);
+        bookSearch.applyLoadedPage(Collections.singletonList(book));
+        return book;
+    }
+
+    @Benchmark
+    public User loginUser() {
+        return userManagement.loginUser("patron" + invocation++ % userCount, "secret");
+    }
+
+    @Benchmark
+    public User validateSession() {
+        return userManagement.validateSession(sessions[(int) (invocation++ % sessions.length)]);
+    }
+
+    @Benchmark
+    public ReportCounters generateReportsFromCounters() {
+        reports.generateReports(counters);
+        return counters;
+    }
+
+    @Benchmark
+    public BookSearch generateReportsByScan() {
+        reports.generateReports(bookSearch.books.values());
+        return bookSearch;
+    }
+}
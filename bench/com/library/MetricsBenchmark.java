@@ -0,0 +1,78 @@
+package com.library;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-call cost of a Metrics timer, a counter, a filtered debug line and an async info line,
+ * each hammered from several threads; then checks the histogram's quantiles against exact
+ * ones computed from the same random latencies.
+ * Usage: MetricsBenchmark [secondsPerRun, default 2]
+ */
+public class MetricsBenchmark {
+    private static final PrintStream CONSOLE = System.out;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+
+        Metrics.Timer timer = Metrics.timer("bench.timer");
+        Metrics.Counter counter = Metrics.counter("bench.counter");
+        run("baseline", threads, seconds, () -> { });
+        run("timer", threads, seconds, () -> timer.stop(System.nanoTime()));
+        run("counter", threads, seconds, counter::increment);
+        Log.setLevel(Log.Level.INFO);
+        run("filtered debug", threads, seconds, () -> Log.debug(() -> "not formatted " + System.nanoTime()));
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        run("async info", threads, seconds, () -> Log.info("request handled"));
+        Log.flush();
+        System.setOut(CONSOLE);
+        System.out.printf("log: %,d lines dropped on a full queue%n", Log.dropped());
+
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        Random random = new Random(42);
+        long[] samples = new long[1_000_000];
+        for (int i = 0; i < samples.length; i++) {
+            // Log-normal around 200 us with a long tail, like request latencies.
+            samples[i] = (long) Math.exp(12.2 + 1.2 * random.nextGaussian());
+            histogram.record(samples[i]);
+        }
+        Arrays.sort(samples);
+        for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+            long exact = samples[(int) Math.ceil(q * samples.length) - 1];
+            long reported = histogram.quantileNanos(q);
+            double error = Math.abs(reported - exact) / (double) exact;
+            System.out.printf("p%-5s exact %,12d ns  reported %,12d ns  error %.2f%%%n", q * 100, exact, reported, 100 * error);
+            if (error > 0.02) {
+                throw new IllegalStateException("Histogram quantile off by more than 2%");
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, int threads, int seconds, Runnable operation) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                long done = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 1_000; i++) {
+                        operation.run();
+                    }
+                    done += 1_000;
+                }
+                operations.add(done);
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        long total = operations.sum();
+        CONSOLE.printf("%-15s %,14d ops  %8.1f ns/op per thread%n", name, total,
+                (double) TimeUnit.SECONDS.toNanos(seconds) * threads / total);
+    }
+}
@@ -0,0 +1,247 @@
+package com.library;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs several nodes in one process against one database, each with its own journal, stores,
+ * circulation engine and change feed, and has every node rename books, check them out and in,
+ * add books and change passwords at random for a while. Once all journals are flushed and all
+ * feeds have caught up, every node's books, users and loans must match the database, and no two
+ * added books may share an id. Finally times how long a rename on one node takes to show up on
+ * another, against the poll interval. Drops and recreates the books, users, loans, holds,
+ * catalog_changes and id_blocks tables.
+ * Usage: MultiNodeBenchmark jdbcUrl [nodes, default 3] [seconds, default 5] [pollMillis, default 100]
+ * Run with a low -Dlibrary.passwordIterations so password changes do not dominate.
+ */
+public class MultiNodeBenchmark {
+    private static final PrintStream CONSOLE = System.out;
+    private static final int BOOKS = 200;
+    private static final int USERS = 20;
+    private static final int VISIBILITY_SAMPLES = 50;
+
+    private static final class Node {
+        final WriteBehindJournal journal;
+        final UserRegistrationAndLogin users;
+        final BookSearch books;
+        final HoldQueue holds;
+        final CirculationEngine circulation;
+        final ChangeFeed feed;
+
+        Node(ConnectionPool pool, String nodeId, long pollMillis) throws SQLException {
+            journal = new WriteBehindJournal(pool, WriteBehindJournal.DEFAULT_BATCH_SIZE, 20, nodeId);
+            feed = new ChangeFeed(pool, journal, WriteBehindJournal.latestChangeSeq(pool));
+            users = new UserRegistrationAndLogin(pool, journal, LoadMode.EAGER);
+            books = new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters());
+            books.setIdBlocks(new IdBlocks(pool, "books", 100));
+            holds = new HoldQueue(pool, journal);
+            circulation = new CirculationEngine(pool, journal, holds, books::getBook, new ReportCounters());
+            feed.subscribe(UserRegistrationAndLogin.USERS_TABLE, users::reload);
+            journal.onRejected(BookSearch.BOOKS_TABLE, id -> circulation.reload((Integer) id, books::reload));
+            journal.onRejected(CirculationEngine.LOANS_TABLE, id -> circulation.reload((Integer) id, books::reload));
+            feed.subscribe(BookSearch.BOOKS_TABLE, id -> circulation.reload(Integer.parseInt(id), books::reload));
+            feed.subscribe(CirculationEngine.LOANS_TABLE, id -> circulation.reload(Integer.parseInt(id), books::reload));
+            feed.start(pollMillis);
+        }
+
+        void close() {
+            feed.close();
+            holds.close();
+            journal.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String jdbcUrl = args[0];
+        int nodeCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long pollMillis = args.length > 3 ? Long.parseLong(args[3]) : 100;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try (ConnectionPool pool = new ConnectionPool(jdbcUrl, System.getProperty("bench.jdbcUser", "sa"),
+                System.getProperty("bench.jdbcPassword", ""), nodeCount * 3 + 2)) {
+            createTables(pool);
+            List<Node> nodes = new ArrayList<>();
+            for (int n = 0; n < nodeCount; n++) {
+                nodes.add(new Node(pool, "node-" + n, pollMillis));
+            }
+            int added = run(nodes, seconds);
+
+            long start = System.nanoTime();
+            for (Node node : nodes) {
+                node.journal.awaitFlush();
+            }
+            for (Node node : nodes) {
+                node.feed.poll();
+            }
+            CONSOLE.printf("flushed and caught up in %,d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            int mismatches = verify(pool, nodes, added);
+            if (mismatches == 0) {
+                visibility(nodes.get(0), nodes.get(nodes.size() - 1), pollMillis);
+            }
+            nodes.forEach(Node::close);
+            if (mismatches != 0) {
+                throw new IllegalStateException(mismatches + " rows differ between a node and the database");
+            }
+        }
+        Log.flush();
+        System.exit(0);
+    }
+
+    /** Runs one writer per node until the deadline; returns the number of books added. */
+    private static int run(List<Node> nodes, int seconds) throws Exception {
+        LongAdder operations = new LongAdder();
+        LongAdder conflicts = new LongAdder();
+        LongAdder added = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(nodes.size());
+        List<Future<?>> writers = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int n = 0; n < nodes.size(); n++) {
+            Node node = nodes.get(n);
+            int nodeIndex = n;
+            writers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                User patron = new User("patron" + nodeIndex, "x");
+                int adds = 0;
+                while (System.nanoTime() < deadline) {
+                    int choice = random.nextInt(100);
+                    Book book = node.books.getBook(1 + random.nextInt(BOOKS));
+                    if (choice < 45) {
+                        try {
+                            node.books.updateBook(book.id, "Title " + random.nextInt(1_000_000), book.author, book.version);
+                        } catch (ConcurrentModificationException e) {
+                            conflicts.increment();
+                        }
+                    } else if (choice < 90) {
+                        if (node.circulation.checkout(book, patron) == null) {
+                            node.circulation.returnBook(book);
+                        }
+                    } else if (choice < 97) {
+                        node.books.addBook("Added " + nodeIndex + "-" + adds++, "Author");
+                        added.increment();
+                    } else {
+                        node.users.changePassword("user" + random.nextInt(USERS), "password" + random.nextInt(100));
+                    }
+                    operations.increment();
+                    if (random.nextInt(20) == 0) {
+                        // Let other nodes' changes land mid-run, not only at the end.
+                        Thread.sleep(1);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        executor.shutdown();
+        long rejected = nodes.stream().mapToLong(node -> node.journal.rejectedCount()).sum();
+        CONSOLE.printf("%d nodes: %,d operations (%,d/s), %,d books added, %,d stale local updates refused, "
+                + "%,d writes rejected by the database%n", nodes.size(), operations.sum(), operations.sum() / seconds,
+                added.sum(), conflicts.sum(), rejected);
+        return added.intValue();
+    }
+
+    private static int verify(ConnectionPool pool, List<Node> nodes, int added) throws SQLException {
+        Map<Integer, String> books = new HashMap<>();
+        Map<String, String> users = new HashMap<>();
+        Map<Integer, String> loans = new HashMap<>();
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            try (ResultSet rows = statement.executeQuery("SELECT id, title, author, is_available, version FROM books")) {
+                while (rows.next()) {
+                    books.put(rows.getInt(1), rows.getString(2) + "|" + rows.getString(3) + "|" + rows.getBoolean(4) + "|" + rows.getInt(5));
+                }
+            }
+            try (ResultSet rows = statement.executeQuery("SELECT username, password, version FROM users")) {
+                while (rows.next()) {
+                    users.put(rows.getString(1), rows.getString(2) + "|" + rows.getInt(3));
+                }
+            }
+            try (ResultSet rows = statement.executeQuery("SELECT book_id, username FROM loans")) {
+                while (rows.next()) {
+                    loans.put(rows.getInt(1), rows.getString(2));
+                }
+            }
+        }
+
+        int mismatches = 0;
+        if (books.size() != BOOKS + added) {
+            CONSOLE.printf("expected %,d books in the database but found %,d: added books were lost or shared ids%n", BOOKS + added, books.size());
+            mismatches++;
+        }
+        for (int n = 0; n < nodes.size(); n++) {
+            Node node = nodes.get(n);
+            int differing = 0;
+            List<Book> inMemory = node.books.allBooks();
+            for (Book book : inMemory) {
+                String row = book.title + "|" + book.author + "|" + book.isAvailable + "|" + book.version;
+                if (!row.equals(books.get(book.id))) {
+                    differing++;
+                }
+            }
+            differing += Math.abs(books.size() - inMemory.size());
+            for (Map.Entry<String, String> row : users.entrySet()) {
+                User user = node.users.findUser(row.getKey());
+                if (user == null || !row.getValue().equals(user.password + "|" + user.version)) {
+                    differing++;
+                }
+            }
+            for (int id : books.keySet()) {
+                CirculationEngine.Loan loan = node.circulation.loanFor(id);
+                if (!Objects.equals(loans.get(id), loan == null ? null : loan.username)) {
+                    differing++;
+                }
+            }
+            CONSOLE.printf("node %d: %,d books, %,d loans; %d rows differ from the database%n",
+                    n, inMemory.size(), node.circulation.activeLoans(), differing);
+            mismatches += differing;
+        }
+        return mismatches;
+    }
+
+    private static void visibility(Node writer, Node reader, long pollMillis) throws SQLException, InterruptedException {
+        long[] millis = new long[VISIBILITY_SAMPLES];
+        for (int i = 0; i < VISIBILITY_SAMPLES; i++) {
+            int id = 1 + i % BOOKS;
+            Book book = writer.books.getBook(id);
+            String title = "Visible " + i;
+            writer.books.updateBook(id, title, book.author, book.version);
+            writer.journal.awaitFlush();
+            long start = System.nanoTime();
+            while (!reader.books.getBook(id).title.equals(title)) {
+                Thread.sleep(1);
+            }
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        Arrays.sort(millis);
+        CONSOLE.printf("a committed rename shows up on another node after %d ms median, %d ms max (poll interval %d ms)%n",
+                millis[VISIBILITY_SAMPLES / 2], millis[VISIBILITY_SAMPLES - 1], pollMillis);
+    }
+
+    private static void createTables(ConnectionPool pool) throws SQLException {
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            for (String table : new String[] { "books", "users", "loans", "holds", "catalog_changes", "id_blocks" }) {
+                statement.execute("DROP TABLE IF EXISTS " + table);
+            }
+            statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255), version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE loans (book_id INT PRIMARY KEY, username VARCHAR(255), checkout_date DATE, due_date DATE)");
+            statement.execute("CREATE TABLE holds (id BIGINT PRIMARY KEY, book_id INT, username VARCHAR(255), priority INT, "
+                    + "status VARCHAR(16), placed_at TIMESTAMP, expires_at TIMESTAMP)");
+            statement.execute("CREATE TABLE catalog_changes (seq BIGINT AUTO_INCREMENT PRIMARY KEY, table_name VARCHAR(64) NOT NULL, "
+                    + "row_key VARCHAR(255) NOT NULL, kind VARCHAR(8) NOT NULL, node_id VARCHAR(64))");
+            statement.execute("CREATE TABLE id_blocks (name VARCHAR(64) PRIMARY KEY, next_id BIGINT NOT NULL)");
+            for (int id = 1; id <= BOOKS; id++) {
+                statement.execute("INSERT INTO books (id, title, author, is_available) VALUES (" + id + ", 'Title " + id + "', 'Author', TRUE)");
+            }
+            for (int u = 0; u < USERS; u++) {
+                statement.execute("INSERT INTO users (username, password) VALUES ('user" + u + "', '" + PasswordHasher.hash("password") + "')");
+            }
+        }
+    }
+}
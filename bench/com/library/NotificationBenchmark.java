@@ -0,0 +1,99 @@
+package com.library;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checkout/return throughput with no notifications versus a slow sink that fails every tenth
+ * batch, to show that circulation does not wait on delivery; then checks that due-soon and
+ * overdue scans notify every open loan exactly once.
+ * Usage: NotificationBenchmark [books, default 10000] [secondsPerRun, default 3]
+ */
+public class NotificationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int bookCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+
+        WriteBehindJournal journal = new WriteBehindJournal(null, Integer.MAX_VALUE, Long.MAX_VALUE);
+        Book[] books = new Book[bookCount];
+        for (int i = 0; i < bookCount; i++) {
+            books[i] = new Book(i + 1, "Title " + (i + 1), "Author " + (i % 100));
+        }
+        HoldQueue holds = new HoldQueue(journal, HoldQueue.DEFAULT_WAIT_LIMIT, HoldQueue.DEFAULT_PICKUP_WINDOW);
+        CirculationEngine engine = new CirculationEngine(journal, holds, id -> books[id - 1], new ReportCounters(), 1);
+
+        run("no notifications", engine, books, threads, seconds);
+        NotificationSink.InMemory slow = new NotificationSink.InMemory() {
+            private int batches;
+
+            @Override
+            public synchronized void deliver(List<NotificationSystem.Notification> batch) throws IOException {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (++batches % 10 == 0) {
+                    throw new IOException("flaky sink");
+                }
+                super.deliver(batch);
+            }
+        };
+        NotificationSystem notifications = new NotificationSystem(Collections.singletonList(slow),
+                NotificationSystem.DEFAULT_QUEUE_CAPACITY, NotificationSystem.DEFAULT_BATCH_SIZE, NotificationSystem.DEFAULT_MAX_ATTEMPTS, 10);
+        engine.setNotifications(notifications);
+        run("slow flaky sink", engine, books, threads, seconds);
+        notifications.awaitIdle(60_000);
+        System.out.printf("sink: %,d delivered, %,d dropped on a full queue, %,d retries, %,d given up%n",
+                notifications.delivered(), notifications.dropped(), notifications.retries(), notifications.failed());
+        notifications.close();
+
+        NotificationSink.InMemory sink = new NotificationSink.InMemory();
+        NotificationSystem reminders = new NotificationSystem(Collections.singletonList(sink));
+        engine.setNotifications(null);
+        User patron = new User("patron", "secret");
+        for (Book book : books) {
+            engine.checkout(book, patron);
+        }
+        DueDateReminders scanner = new DueDateReminders(engine, reminders, DueDateReminders.DEFAULT_DUE_SOON_DAYS);
+        LocalDate today = LocalDate.now();
+        long start = System.nanoTime();
+        int dueSoon = scanner.scan(today);
+        int repeat = scanner.scan(today);
+        int overdue = scanner.scan(today.plusDays(2));
+        long scanMicros = (System.nanoTime() - start) / 1_000;
+        reminders.awaitIdle(60_000);
+        System.out.printf("reminders: %,d due soon, %,d on rescan, %,d overdue in %,d us; %,d delivered%n",
+                dueSoon, repeat, overdue, scanMicros, sink.delivered().size());
+        if (dueSoon != bookCount || repeat != 0 || overdue != bookCount || sink.delivered().size() != 2 * bookCount) {
+            throw new IllegalStateException("Every loan should get exactly one due-soon and one overdue notice");
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, CirculationEngine engine, Book[] books, int threads, int seconds) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int t = 0; t < threads; t++) {
+            User patron = new User("patron" + t, "secret");
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    Book book = books[random.nextInt(books.length)];
+                    if (engine.checkout(book, patron) != null) {
+                        engine.returnBook(book);
+                    }
+                    operations.increment();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 30, TimeUnit.SECONDS);
+        System.out.printf("%-18s threads=%-3d %,14.0f ops/s%n", name, threads, operations.sum() / (double) seconds);
+    }
+}
@@ -0,0 +1,15 @@
+package com.library;
+
+import java.sql.SQLException;
+
+/** Provider for benchmarks that run without a database; every acquire fails. */
+class OfflineConnectionProvider implements ConnectionProvider {
+    @Override
+    public PooledConnection acquire() throws SQLException {
+        throw new SQLException("offline");
+    }
+
+    @Override
+    public void close() {
+    }
+}
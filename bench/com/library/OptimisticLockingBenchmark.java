@@ -0,0 +1,219 @@
+package com.library;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Many writers increment a counter kept in the titles of a few hot books, each reading the book's
+ * version and renaming it conditionally on that version, retrying on a conflict, while checkouts
+ * and returns on the same books bump their versions too. Every successful update must show up
+ * in the final counts. Given a JDBC URL it then runs one writer per node for several nodes that
+ * share the database, so conflicts are caught by the versioned UPDATE instead, and checks that a
+ * checkout whose book row was changed by another node leaves neither its loan nor its
+ * availability change behind. Drops and recreates the books, loans and holds tables there.
+ * Usage: OptimisticLockingBenchmark [secondsPerRun, default 3] [jdbcUrl] [nodes, default 4]
+ */
+public class OptimisticLockingBenchmark {
+    private static final PrintStream CONSOLE = System.out;
+    private static final int HOT_BOOKS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        String jdbcUrl = args.length > 1 ? args[1] : null;
+        int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        inMemory(seconds, Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        if (jdbcUrl != null) {
+            try (ConnectionPool pool = new ConnectionPool(jdbcUrl, System.getProperty("bench.jdbcUser", "sa"),
+                    System.getProperty("bench.jdbcPassword", ""), nodes + 2)) {
+                createTables(pool);
+                sharedDatabase(pool, seconds, nodes);
+                groupedCheckout(pool);
+            }
+        }
+        Log.flush();
+        System.exit(0);
+    }
+
+    private static void inMemory(int seconds, int threads) throws InterruptedException {
+        ConnectionProvider offline = new OfflineConnectionProvider();
+        WriteBehindJournal journal = new WriteBehindJournal(offline, Integer.MAX_VALUE, Long.MAX_VALUE);
+        BookSearch bookSearch = new BookSearch(offline, journal, LoadMode.EAGER, new ReportCounters());
+        List<Book> page = new ArrayList<>();
+        for (int id = 1; id <= HOT_BOOKS; id++) {
+            page.add(new Book(id, "0", "Author " + id));
+        }
+        bookSearch.applyLoadedPage(page);
+        bookSearch.markLoaded();
+        HoldQueue holds = new HoldQueue(journal, HoldQueue.DEFAULT_WAIT_LIMIT, HoldQueue.DEFAULT_PICKUP_WINDOW);
+        CirculationEngine circulation = new CirculationEngine(journal, holds, bookSearch::getBook, new ReportCounters(),
+                CirculationEngine.DEFAULT_LOAN_DAYS);
+        User patron = new User("patron", "x");
+
+        LongAdder updates = new LongAdder();
+        LongAdder conflicts = new LongAdder();
+        LongAdder churn = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    int id = 1 + random.nextInt(HOT_BOOKS);
+                    while (true) {
+                        Book book = bookSearch.getBook(id);
+                        // Version first: a rename published after this read can only make the update fail.
+                        int version = book.version;
+                        int count = Integer.parseInt(book.title);
+                        try {
+                            bookSearch.updateBook(id, String.valueOf(count + 1), book.author, version);
+                            updates.increment();
+                            break;
+                        } catch (ConcurrentModificationException e) {
+                            conflicts.increment();
+                        }
+                    }
+                }
+            });
+        }
+        pool.execute(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                Book book = bookSearch.getBook(1 + random.nextInt(HOT_BOOKS));
+                if (circulation.checkout(book, patron) != null) {
+                    circulation.returnBook(book);
+                    churn.increment();
+                }
+            }
+        });
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+        long counted = 0;
+        for (int id = 1; id <= HOT_BOOKS; id++) {
+            counted += Integer.parseInt(bookSearch.getBook(id).title);
+        }
+        CONSOLE.printf("in memory: %,d updates (%,d/s) with %d writers on %d books, %,d version conflicts retried, "
+                        + "%,d checkout/return pairs; counters sum to %,d%n",
+                updates.sum(), updates.sum() / seconds, threads, HOT_BOOKS, conflicts.sum(), churn.sum(), counted);
+        if (counted != updates.sum()) {
+            throw new IllegalStateException("Lost " + (updates.sum() - counted) + " updates");
+        }
+        journal.close();
+    }
+
+    private static void sharedDatabase(ConnectionPool pool, int seconds, int nodeCount) throws Exception {
+        List<WriteBehindJournal> journals = new ArrayList<>();
+        List<BookSearch> nodes = new ArrayList<>();
+        for (int n = 0; n < nodeCount; n++) {
+            WriteBehindJournal journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+            journals.add(journal);
+            nodes.add(new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters()));
+        }
+
+        LongAdder committed = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(nodeCount);
+        List<Future<?>> writers = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int n = 0; n < nodeCount; n++) {
+            WriteBehindJournal journal = journals.get(n);
+            BookSearch node = nodes.get(n);
+            writers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    int id = 1 + random.nextInt(HOT_BOOKS);
+                    Book book = node.getBook(id);
+                    int version = book.version;
+                    int count = Integer.parseInt(book.title);
+                    node.updateBook(id, String.valueOf(count + 1), book.author, version);
+                    long before = journal.rejectedCount();
+                    // One writer per node, so a rejection seen here is this write's; the journal has already reloaded the book.
+                    journal.awaitFlush();
+                    if (journal.rejectedCount() == before) {
+                        committed.increment();
+                    } else {
+                        rejected.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        executor.shutdown();
+
+        long counted = 0;
+        try (PooledConnection connection = pool.acquire();
+             ResultSet resultSet = connection.prepare("SELECT title FROM books WHERE id <= " + HOT_BOOKS).executeQuery()) {
+            while (resultSet.next()) {
+                counted += Integer.parseInt(resultSet.getString(1));
+            }
+        }
+        CONSOLE.printf("shared database: %,d committed updates (%,d/s) from %d nodes, %,d rejected by the version check; "
+                + "rows sum to %,d%n", committed.sum(), committed.sum() / seconds, nodeCount, rejected.sum(), counted);
+        if (counted != committed.sum()) {
+            throw new IllegalStateException("Database counters disagree with committed updates by " + (committed.sum() - counted));
+        }
+        journals.forEach(WriteBehindJournal::close);
+    }
+
+    private static void groupedCheckout(ConnectionPool pool) throws SQLException {
+        int id = HOT_BOOKS + 1;
+        WriteBehindJournal journalA = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+        WriteBehindJournal journalB = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+        BookSearch nodeA = new BookSearch(pool, journalA, LoadMode.EAGER, new ReportCounters());
+        BookSearch nodeB = new BookSearch(pool, journalB, LoadMode.EAGER, new ReportCounters());
+        HoldQueue holds = new HoldQueue(pool, journalA);
+        CirculationEngine circulation = new CirculationEngine(pool, journalA, holds, nodeA::getBook, new ReportCounters());
+        User patron = new User("patron", "x");
+
+        nodeB.updateBook(id, "Renamed elsewhere", "Author", 0);
+        journalB.awaitFlush();
+        Book book = nodeA.getBook(id);
+        boolean checkedOut = circulation.checkout(book, patron) != null;
+        journalA.awaitFlush();
+        boolean rolledBack = checkedOut && circulation.loanFor(id) == null && book.isAvailable
+                && book.title.equals("Renamed elsewhere") && loansInDatabase(pool, id) == 0;
+        boolean retried = circulation.checkout(book, patron) != null;
+        journalA.awaitFlush();
+        boolean committed = retried && loansInDatabase(pool, id) == 1 && circulation.loanFor(id) != null;
+        CONSOLE.printf("grouped checkout against a stale book row: rolled back %s, retry committed %s%n", rolledBack, committed);
+        holds.close();
+        journalA.close();
+        journalB.close();
+        if (!rolledBack || !committed) {
+            throw new IllegalStateException("Checkout did not commit or roll back as one transaction");
+        }
+    }
+
+    private static int loansInDatabase(ConnectionPool pool, int bookId) throws SQLException {
+        try (PooledConnection connection = pool.acquire();
+             ResultSet resultSet = connection.prepare("SELECT COUNT(*) FROM loans WHERE book_id = " + bookId).executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static void createTables(ConnectionPool pool) throws SQLException {
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            for (String table : new String[] { "books", "loans", "holds" }) {
+                statement.execute("DROP TABLE IF EXISTS " + table);
+            }
+            statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE loans (book_id INT PRIMARY KEY, username VARCHAR(255), checkout_date DATE, due_date DATE)");
+            statement.execute("CREATE TABLE holds (id BIGINT PRIMARY KEY, book_id INT, username VARCHAR(255), priority INT, "
+                    + "status VARCHAR(16), placed_at TIMESTAMP, expires_at TIMESTAMP)");
+            for (int id = 1; id <= HOT_BOOKS + 1; id++) {
+                statement.execute("INSERT INTO books (id, title, author, is_available) VALUES (" + id + ", '0', 'Author', TRUE)");
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.library;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks for the paths that reach the database, run against an embedded in-memory H2 in
+ * MySQL mode: a journal flush of 1,000 new rows, a versioned rename flushed through the journal,
+ * and a full keyset-paged catalog load. The books table is seeded with size rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+    private static final int ROWS_PER_FLUSH = 1_000;
+    private static final PrintStream CONSOLE = System.out;
+
+    @Param({ "10000", "1000000" })
+    int size;
+
+    private ConnectionPool pool;
+    private WriteBehindJournal journal;
+    private BookSearch bookSearch;
+    private StreamingLoader<Integer> loader;
+    private int nextId;
+    private long invocation;
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws SQLException {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        pool = new ConnectionPool("jdbc:h2:mem:persistence-benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 4);
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS books");
+            statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            PreparedStatement insert = connection.prepare("INSERT INTO books (id, title, author, is_available) VALUES (?, ?, ?, TRUE)");
+            for (int id = 1; id <= size; id++) {
+                insert.setInt(1, id);
+                insert.setString(2, SyntheticCatalog.title(id));
+                insert.setString(3, SyntheticCatalog.author(id));
+                insert.addBatch();
+                if (id % 10_000 == 0 || id == size) {
+                    insert.executeBatch();
+                }
+            }
+        }
+        journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+        bookSearch = new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters());
+        loader = new StreamingLoader<>(pool, "Books", "SELECT id FROM books WHERE id > ? ORDER BY id LIMIT ?", 0,
+                StreamingLoader.DEFAULT_PAGE_SIZE, resultSet -> resultSet.getInt(1), id -> id);
+        nextId = size + 1;
+    }
+
+    /** Takes the rows the insert benchmark added back out, so every iteration starts from size rows. */
+    @TearDown(Level.Iteration)
+    public void removeInserted() throws SQLException {
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("DELETE FROM books WHERE id > " + size);
+        }
+        nextId = size + 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        journal.close();
+        pool.close();
+        System.setOut(CONSOLE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS_PER_FLUSH)
+    public WriteBehindJournal insertAndFlush() throws SQLException {
+        for (int row = 0; row < ROWS_PER_FLUSH; row++) {
+            int id = nextId++;
+            journal.insert(BookSearch.BOOKS_TABLE, id, SyntheticCatalog.title(id), SyntheticCatalog.author(id), true, 0, id);
+        }
+        journal.awaitFlush();
+        return journal;
+    }
+
+    @Benchmark
+    public boolean updateBookAndFlush() throws SQLException {
+        int id = (int) (1 + invocation++ % size);
+        boolean updated = bookSearch.updateBook(id, SyntheticCatalog.title(id) + (invocation % 2 == 0 ? " (revised)" : ""),
+                SyntheticCatalog.author(id));
+        journal.awaitFlush();
+        return updated;
+    }
+
+    @Benchmark
+    public long streamingLoad() {
+        long[] rows = { 0 };
+        loader.run(page -> rows[0] += page.size());
+        return rows[0];
+    }
+}
@@ -0,0 +1,104 @@
+package com.library;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Cold-start cost of building the catalog and its index from rows (what a JDBC load does after
+ * the rows arrive) versus mapping a snapshot, for growing catalog sizes. A second pass measures
+ * the whole startup against an embedded database: an EAGER load over JDBC versus a SNAPSHOT
+ * restore that also replays the 1% of rows changed after the watermark.
+ * Usage: SnapshotStartupBenchmark [largest catalog, default 100000]
+ */
+public class SnapshotStartupBenchmark {
+    public static void main(String[] args) throws IOException, SQLException {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path file = Files.createTempFile("catalog", ".snapshot");
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ConnectionProvider offline = new OfflineConnectionProvider();
+        WriteBehindJournal journal = new WriteBehindJournal(offline, Integer.MAX_VALUE, Long.MAX_VALUE);
+        try {
+            for (int size = Math.min(10_000, largest); size <= largest; size *= 10) {
+                List<Book> rows = new ArrayList<>(size);
+                for (int id = 1; id <= size; id++) {
+                    rows.add(new Book(id, SyntheticCatalog.title(id), SyntheticCatalog.author(id)));
+                }
+                long start = System.nanoTime();
+                BookSearch built = new BookSearch(offline, journal, LoadMode.EAGER, new ReportCounters());
+                built.applyLoadedPage(rows);
+                built.markLoaded();
+                long buildMillis = (System.nanoTime() - start) / 1_000_000;
+
+                CatalogSnapshot.write(file, 0, built.nextBookId(), Collections.emptyList(), built.allBooks());
+                start = System.nanoTime();
+                BookSearch restored = new BookSearch(offline, journal, LoadMode.EAGER, new ReportCounters());
+                restored.restore(CatalogSnapshot.open(file));
+                long restoreMillis = (System.nanoTime() - start) / 1_000_000;
+
+                String query = "silent garden";
+                if (restored.find(query).size() != built.find(query).size()) {
+                    throw new IllegalStateException("Snapshot search differs from the built index");
+                }
+                console.printf("books=%-9d build+index %6d ms   snapshot restore %6d ms   file %,d bytes%n",
+                        size, buildMillis, restoreMillis, Files.size(file));
+            }
+            System.setProperty("library.snapshot", file.toString());
+            for (int size = Math.min(10_000, largest); size <= largest; size *= 10) {
+                measureStartup(console, size);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.exit(0);
+    }
+
+    private static void measureStartup(PrintStream console, int size) throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:snapshot-startup-" + size + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 4)) {
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                        + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+                statement.execute("CREATE TABLE users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255), version INT NOT NULL DEFAULT 0)");
+                statement.execute("CREATE TABLE catalog_changes (seq BIGINT AUTO_INCREMENT PRIMARY KEY, table_name VARCHAR(64) NOT NULL, "
+                        + "row_key VARCHAR(255) NOT NULL, kind VARCHAR(8) NOT NULL)");
+                PreparedStatement insert = connection.prepare("INSERT INTO books (id, title, author, is_available) VALUES (?, ?, ?, TRUE)");
+                for (int id = 1; id <= size; id++) {
+                    insert.setInt(1, id);
+                    insert.setString(2, SyntheticCatalog.title(id));
+                    insert.setString(3, SyntheticCatalog.author(id));
+                    insert.addBatch();
+                    if (id % 1_000 == 0 || id == size) {
+                        insert.executeBatch();
+                    }
+                }
+            }
+            try (WriteBehindJournal journal = new WriteBehindJournal(pool, WriteBehindJournal.DEFAULT_BATCH_SIZE, Long.MAX_VALUE)) {
+                long start = System.nanoTime();
+                UserRegistrationAndLogin users = new UserRegistrationAndLogin(pool, journal);
+                BookSearch eager = new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters());
+                long eagerMillis = (System.nanoTime() - start) / 1_000_000;
+                CatalogSnapshot.save(CatalogSnapshot.path(), pool, journal, users, eager, null);
+                for (int id = 1; id <= size; id += 100) {
+                    Book book = eager.getBook(id);
+                    eager.updateBook(id, book.title + " (revised)", book.author, book.version);
+                }
+                journal.awaitFlush();
+
+                start = System.nanoTime();
+                new UserRegistrationAndLogin(pool, journal, LoadMode.SNAPSHOT);
+                BookSearch restored = new BookSearch(pool, journal, LoadMode.SNAPSHOT, new ReportCounters());
+                long snapshotMillis = (System.nanoTime() - start) / 1_000_000;
+                if (restored.find("revised").size() != eager.find("revised").size()) {
+                    throw new IllegalStateException("Restored catalog is missing the replayed changes");
+                }
+                console.printf("books=%-9d startup over JDBC %6d ms   from snapshot + %d changes %6d ms   %.1fx faster%n",
+                        size, eagerMillis, (size + 99) / 100, snapshotMillis, (double) eagerMillis / Math.max(1, snapshotMillis));
+            }
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("DROP ALL OBJECTS");
+            }
+        }
+    }
+}
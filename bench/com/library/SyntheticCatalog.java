@@ -0,0 +1,18 @@
+package com.library;
+
+/** Deterministic titles and authors for the synthetic catalogs the benchmarks build. */
+final class SyntheticCatalog {
+    private static final String[] WORDS = { "river", "shadow", "garden", "empire", "silent", "winter", "glass",
+            "engine", "harbor", "library", "stone", "crown", "forest", "signal", "mirror", "atlas" };
+
+    private SyntheticCatalog() {
+    }
+
+    static String title(int id) {
+        return "The " + WORDS[id % WORDS.length] + " " + WORDS[(id / WORDS.length) % WORDS.length] + " volume " + id;
+    }
+
+    static String author(int id) {
+        return "Author " + (id % 50_000);
+    }
+}
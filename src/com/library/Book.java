@@ -0,0 +1,28 @@
+package com.library;
+
+class Book {
+    final int id;
+    String title;
+    String author;
+    volatile boolean isAvailable;
+    // Bumped with every journaled change to the row, under the book's monitor.
+    volatile int version;
+    String titleKey;
+    String authorKey;
+
+    public Book(int id, String title, String author) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.isAvailable = true;
+        this.titleKey = title.toLowerCase();
+        this.authorKey = author.toLowerCase();
+    }
+
+    void rename(String title, String author) {
+        this.title = title;
+        this.author = author;
+        this.titleKey = title.toLowerCase();
+        this.authorKey = author.toLowerCase();
+    }
+}
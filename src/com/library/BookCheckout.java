@@ -0,0 +1,18 @@
+package com.library;
+
+class BookCheckout {
+    private final CirculationEngine circulation;
+
+    public BookCheckout(CirculationEngine circulation) {
+        this.circulation = circulation;
+    }
+
+    public void checkoutBook(Book book, User user) {
+        CirculationEngine.Loan loan = circulation.checkout(book, user);
+        if (loan != null) {
+            Log.info("Book checked out successfully. Due back on " + loan.dueDate + ".");
+        } else {
+            Log.info("Book is not available for checkout.");
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.library;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Trigram index over titles and authors. After a snapshot restore the bulk of the postings stay
+ * in the mapped snapshot (the base) and only books added or renamed since go into the heap maps;
+ * base entries for renamed or deleted books are dropped by the final match check.
+ *
+ * <p>A query of three or more characters matches anywhere in a title or author. A shorter one
+ * would match most of the catalog that way, so it matches the start of a word instead, read from
+ * the trigrams that begin at a word boundary; an empty query matches nothing. Only the first
+ * {@code limit} matches are ranked, in a bounded heap, so a page costs O(n log limit).
+ */
+class BookIndex {
+    private static final char BOUNDARY = '\u0001';
+    static final int MIN_SUBSTRING_QUERY = 3;
+
+    /** The first matches of a search in ranking order, and how many matched in all. */
+    static final class Hits {
+        final List<Book> books;
+        final int total;
+
+        Hits(List<Book> books, int total) {
+            this.books = books;
+            this.total = total;
+        }
+
+        /** The first limit books of an already ranked list. */
+        static Hits of(List<Book> ranked, int limit) {
+            return new Hits(ranked.size() <= limit ? ranked : new ArrayList<>(ranked.subList(0, limit)), ranked.size());
+        }
+    }
+
+    private final Map<String, Set<Book>> trigrams = new HashMap<>();
+    // Trigrams starting at the beginning of a title, author or word, for queries shorter than a trigram.
+    private final NavigableSet<String> wordStarts = new TreeSet<>();
+    private final Set<Book> all = new HashSet<>();
+    private CatalogSnapshot.Postings base;
+    private IntFunction<Book> resolver;
+
+    /** Uses snapshot postings for the given books, resolving their ids to current instances. */
+    public void attachBase(CatalogSnapshot.Postings base, IntFunction<Book> resolver, Collection<Book> books) {
+        this.base = base;
+        this.resolver = resolver;
+        all.addAll(books);
+    }
+
+    public void add(Book book) {
+        all.add(book);
+        for (String gram : grams(book)) {
+            trigrams.computeIfAbsent(gram, k -> {
+                if (startsWord(k)) {
+                    wordStarts.add(k);
+                }
+                return new HashSet<>();
+            }).add(book);
+        }
+    }
+
+    public void remove(Book book) {
+        all.remove(book);
+        for (String gram : grams(book)) {
+            Set<Book> postings = trigrams.get(gram);
+            if (postings != null) {
+                postings.remove(book);
+                if (postings.isEmpty()) {
+                    trigrams.remove(gram);
+                    wordStarts.remove(gram);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        trigrams.clear();
+        wordStarts.clear();
+        all.clear();
+        base = null;
+        resolver = null;
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    public List<Book> search(String query) {
+        return search(query, Integer.MAX_VALUE).books;
+    }
+
+    /** The first limit matches in ranking order, plus the number of matches. */
+    public Hits search(String query, int limit) {
+        String key = query.toLowerCase();
+        return top(candidates(key), key, limit);
+    }
+
+    /** Ranks the candidates that match the key, keeping only the best limit of them in a heap. */
+    static Hits top(Iterable<Book> candidates, String key, int limit) {
+        Comparator<Book> ranking = ranking(key);
+        PriorityQueue<Book> best = new PriorityQueue<>(ranking.reversed());
+        int total = 0;
+        for (Book book : candidates) {
+            if (!matches(book, key)) {
+                continue;
+            }
+            total++;
+            if (best.size() < limit) {
+                best.add(book);
+            } else if (ranking.compare(book, best.peek()) < 0) {
+                best.poll();
+                best.add(book);
+            }
+        }
+        List<Book> books = new ArrayList<>(best);
+        books.sort(ranking);
+        return new Hits(books, total);
+    }
+
+    static boolean matches(Book book, String key) {
+        if (key.length() >= MIN_SUBSTRING_QUERY) {
+            return book.titleKey.contains(key) || book.authorKey.contains(key);
+        }
+        return !key.isEmpty() && (startsWord(book.titleKey, key) || startsWord(book.authorKey, key));
+    }
+
+    static Comparator<Book> ranking(String key) {
+        return Comparator.comparingInt((Book book) -> rank(book, key)).thenComparing(book -> book.titleKey)
+                .thenComparingInt(book -> book.id);
+    }
+
+    private static boolean startsWord(String text, String key) {
+        return text.startsWith(key) || text.contains(" " + key);
+    }
+
+    private static boolean startsWord(String gram) {
+        return gram.charAt(0) == BOUNDARY || gram.charAt(0) == ' ';
+    }
+
+    private Collection<Book> candidates(String key) {
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (base == null) {
+            return heapCandidates(key);
+        }
+        Set<Book> union = new LinkedHashSet<>(heapCandidates(key));
+        for (int id : baseCandidates(key)) {
+            Book book = resolver.apply(id);
+            if (book != null) {
+                union.add(book);
+            }
+        }
+        return union;
+    }
+
+    private int[] baseCandidates(String key) {
+        if (key.length() < MIN_SUBSTRING_QUERY) {
+            Set<Integer> ids = new HashSet<>();
+            for (char start : new char[] { BOUNDARY, ' ' }) {
+                for (int id : base.startingWith(start + key)) {
+                    ids.add(id);
+                }
+            }
+            return ids.stream().mapToInt(Integer::intValue).toArray();
+        }
+        List<int[]> postings = new ArrayList<>();
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            int[] ids = base.lookup(key.substring(i, i + 3));
+            if (ids == null) {
+                return new int[0];
+            }
+            postings.add(ids);
+        }
+        postings.sort(Comparator.comparingInt(ids -> ids.length));
+        int[] result = postings.get(0);
+        for (int i = 1; i < postings.size() && result.length > 0; i++) {
+            result = intersect(result, postings.get(i));
+        }
+        return result;
+    }
+
+    // Both arrays are sorted; each lookup in the longer one starts after the previous hit.
+    private static int[] intersect(int[] shorter, int[] longer) {
+        int[] result = new int[shorter.length];
+        int size = 0;
+        int from = 0;
+        for (int id : shorter) {
+            int at = Arrays.binarySearch(longer, from, longer.length, id);
+            if (at >= 0) {
+                result[size++] = id;
+                from = at + 1;
+            } else {
+                from = -at - 1;
+            }
+            if (from == longer.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private Collection<Book> heapCandidates(String key) {
+        if (key.length() < MIN_SUBSTRING_QUERY) {
+            Set<Book> union = new HashSet<>();
+            for (char start : new char[] { BOUNDARY, ' ' }) {
+                String prefix = start + key;
+                for (String gram : wordStarts.subSet(prefix, true, prefix + Character.MAX_VALUE, true)) {
+                    union.addAll(trigrams.get(gram));
+                }
+            }
+            return union;
+        }
+
+        List<Set<Book>> postings = new ArrayList<>();
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            Set<Book> gramPostings = trigrams.get(key.substring(i, i + 3));
+            if (gramPostings == null) {
+                return Collections.emptyList();
+            }
+            postings.add(gramPostings);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+
+        List<Book> result = new ArrayList<>();
+        for (Book book : postings.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < postings.size() && inAll; i++) {
+                inAll = postings.get(i).contains(book);
+            }
+            if (inAll) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    private static int rank(Book book, String key) {
+        if (book.titleKey.equals(key)) {
+            return 0;
+        } else if (book.titleKey.startsWith(key)) {
+            return 1;
+        } else if (book.titleKey.contains(" " + key)) {
+            return 2;
+        } else if (book.titleKey.contains(key)) {
+            return 3;
+        } else if (book.authorKey.startsWith(key) || book.authorKey.contains(" " + key)) {
+            return 4;
+        }
+        return 5;
+    }
+
+    static Set<String> grams(Book book) {
+        Set<String> grams = new HashSet<>();
+        addGrams(grams, book.titleKey);
+        addGrams(grams, book.authorKey);
+        return grams;
+    }
+
+    private static void addGrams(Set<String> grams, String key) {
+        String padded = BOUNDARY + key + BOUNDARY;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+    }
+}
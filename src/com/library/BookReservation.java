@@ -0,0 +1,21 @@
+package com.library;
+
+class BookReservation {
+    private final CirculationEngine circulation;
+
+    public BookReservation(CirculationEngine circulation) {
+        this.circulation = circulation;
+    }
+
+    public void reserveBook(Book book, User user) {
+        HoldQueue.Hold hold = circulation.reserve(book, user, 0);
+        if (hold != null) {
+            Log.info("Book reserved successfully for user " + user.username + " (hold " + hold.id
+                    + ", position " + circulation.queueLength(book.id) + " in queue).");
+        } else if (book.isAvailable) {
+            Log.info("Book is available; check it out instead.");
+        } else {
+            Log.info("Book is already checked out or reserved by user " + user.username + ".");
+        }
+    }
+}
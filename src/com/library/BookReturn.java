@@ -0,0 +1,21 @@
+package com.library;
+
+class BookReturn {
+    private final CirculationEngine circulation;
+
+    public BookReturn(CirculationEngine circulation) {
+        this.circulation = circulation;
+    }
+
+    public void returnBook(Book book) {
+        if (circulation.returnBook(book)) {
+            Log.info("Book returned successfully.");
+            HoldQueue.Hold ready = circulation.readyHold(book.id);
+            if (ready != null) {
+                Log.info("Book is on hold for user " + ready.username + " until " + ready.expiresAt + ".");
+            }
+        } else {
+            Log.info("Book was not checked out.");
+        }
+    }
+}
@@ -0,0 +1,963 @@
+package com.library;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The catalog and its search index. Books are kept in a table whose version column makes every
+ * update and delete optimistic, so a write based on a stale row is rejected rather than lost:
+ *
+ * <pre>
+ * CREATE TABLE books (
+ *     id INT PRIMARY KEY,
+ *     title VARCHAR(255) NOT NULL,
+ *     author VARCHAR(255) NOT NULL,
+ *     is_available BOOLEAN NOT NULL,
+ *     version INT NOT NULL DEFAULT 0)
+ * </pre>
+ *
+ * Ids are handed out by this class or {@link IdBlocks}, never by the database. An older books
+ * table takes the version column with {@code ALTER TABLE books ADD COLUMN version INT NOT NULL DEFAULT 0}.
+ */
+class BookSearch {
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final WriteBehindJournal.Table BOOKS_TABLE = new WriteBehindJournal.Table("books",
+            "INSERT INTO books (title, author, is_available, version, id) VALUES (?, ?, ?, ?, ?)",
+            "UPDATE books SET title = ?, author = ?, is_available = ?, version = ? WHERE id = ? AND version = ?",
+            "DELETE FROM books WHERE id = ? AND version = ?", true, true, 0);
+    static final long CACHE_BYTES = Long.getLong("library.bookCacheBytes", 64L << 20);
+    // Substring matches cannot use an index, so CACHED searches rank at most this many rows.
+    static final int CACHED_SEARCH_LIMIT = 1_000;
+    private static final String BOOK_COLUMNS = "SELECT id, title, author, is_available, version FROM books";
+    private static final Metrics.Timer GET_TIMER = Metrics.timer("books.get");
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.timer("books.search");
+    private static final Metrics.Timer ADD_TIMER = Metrics.timer("books.add");
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer("books.update");
+    private static final Metrics.Timer DELETE_TIMER = Metrics.timer("books.delete");
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer("db.query.books");
+
+    Map<Integer, Book> books = new LinkedHashMap<>();
+    Map<String, List<Book>> booksByTitle = new HashMap<>();
+    BookIndex index = new BookIndex();
+    private int nextId = 1;
+    private final Set<Integer> deletedWhileLoading = new HashSet<>();
+    private final ConnectionProvider connectionProvider;
+    private final WriteBehindJournal journal;
+    private final StreamingLoader<Book> loader;
+    private final ReportCounters counters;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final BoundedCache<Integer, Book> cache;
+    // COMPACT mode only: every book, with the cache holding the Book instances handed out.
+    private final CompactBookStore compact;
+    private volatile boolean restored;
+    private volatile Holdings holdings;
+    private volatile IdBlocks idBlocks;
+
+    public BookSearch(ConnectionProvider connectionProvider, WriteBehindJournal journal) {
+        this(connectionProvider, journal, LoadMode.EAGER, new ReportCounters());
+    }
+
+    public BookSearch(ConnectionProvider connectionProvider, WriteBehindJournal journal, LoadMode loadMode, ReportCounters counters) {
+        this.connectionProvider = connectionProvider;
+        this.journal = journal;
+        this.counters = counters;
+        this.loader = new StreamingLoader<>(connectionProvider, "Books",
+                "SELECT id, title, author, is_available, version FROM books WHERE id > ? ORDER BY id LIMIT ?", 0,
+                StreamingLoader.DEFAULT_PAGE_SIZE, BookSearch::mapBook, book -> book.id);
+        this.cache = loadMode == LoadMode.CACHED || loadMode == LoadMode.COMPACT
+                ? new BoundedCache<>("Books", CACHE_BYTES, book -> 96 + 4L * (book.title.length() + book.author.length()))
+                : null;
+        this.compact = loadMode == LoadMode.COMPACT ? new CompactBookStore() : null;
+        journal.onRejected(BOOKS_TABLE, key -> reload((Integer) key));
+        if (compact != null) {
+            // Circulation journals availability changes without going through this class.
+            journal.onWrite(BOOKS_TABLE, this::mirror);
+        }
+        loadBooksFromDatabase(loadMode); 
+    }
+
+    public boolean isLoaded() {
+        return (cache != null && compact == null) || restored || loader.isComplete();
+    }
+
+    /** The columnar store behind the catalog in COMPACT mode, null otherwise. */
+    CompactBookStore compactStore() {
+        return compact;
+    }
+
+    /** Hit/miss/eviction counts in CACHED and COMPACT mode, null otherwise. */
+    public BoundedCache.Stats cacheStats() {
+        return cache == null ? null : cache.stats();
+    }
+
+    /** Shared id blocks for new books when several nodes use the database; null allocates locally. */
+    public void setIdBlocks(IdBlocks idBlocks) {
+        if (idBlocks != null) {
+            idBlocks.prefetch(nextBookId());
+        }
+        this.idBlocks = idBlocks;
+    }
+
+    /** Copy-level holdings shown in search results and cleared when a title is deleted; null for none. */
+    public void setHoldings(Holdings holdings) {
+        this.holdings = holdings;
+    }
+
+    /** Books in the search index; in CACHED mode only those loaded so far. */
+    int indexedBooks() {
+        if (compact != null) {
+            return compact.size();
+        }
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int nextBookId() {
+        lock.readLock().lock();
+        try {
+            return nextId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Book getBook(int id) {
+        long start = System.nanoTime();
+        try {
+            if (compact != null) {
+                return findCompactBook(id);
+            }
+            if (cache != null) {
+                return findCachedBook(id);
+            }
+            lock.readLock().lock();
+            try {
+                Book book = books.get(id);
+                if (book != null || isLoaded() || deletedWhileLoading.contains(id)) {
+                    return book;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            loadMissingBooks("SELECT id, title, author, is_available, version FROM books WHERE id = ?", id);
+            lock.readLock().lock();
+            try {
+                return books.get(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            GET_TIMER.stop(start);
+        }
+    }
+
+    public Book findByTitle(String title) {
+        if (compact != null) {
+            int id = compact.idOfTitle(title);
+            return id < 0 ? null : findCompactBook(id);
+        }
+        if (cache != null) {
+            return findCachedByTitle(title);
+        }
+        lock.readLock().lock();
+        try {
+            List<Book> matches = booksByTitle.get(title);
+            if (matches != null || isLoaded()) {
+                return matches == null ? null : matches.get(0);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        loadMissingBooks("SELECT id, title, author, is_available, version FROM books WHERE title = ?", title);
+        lock.readLock().lock();
+        try {
+            List<Book> matches = booksByTitle.get(title);
+            return matches == null ? null : matches.get(0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Book> allBooks() {
+        if (compact != null) {
+            return handedOut(compact.all());
+        }
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(books.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void searchBooks(String query) {
+        searchBooks(query, 1, DEFAULT_PAGE_SIZE);
+    }
+
+    /** Ranked matches for the query, without printing them. */
+    public List<Book> find(String query) {
+        return find(query, Integer.MAX_VALUE).books;
+    }
+
+    /** The first limit ranked matches for the query and the number of matches, without printing them. */
+    public BookIndex.Hits find(String query, int limit) {
+        long start = System.nanoTime();
+        try {
+            if (compact != null) {
+                return BookIndex.Hits.of(handedOut(compact.search(query)), limit);
+            }
+            if (cache != null) {
+                return BookIndex.Hits.of(findCached(query), limit);
+            }
+            lock.readLock().lock();
+            try {
+                return index.search(query, limit);
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            SEARCH_TIMER.stop(start);
+        }
+    }
+
+    public List<Book> searchBooks(String query, int page, int pageSize) {
+        BookIndex.Hits results = find(query, pageEnd(page, pageSize));
+        List<Book> pageResults = page(results.books, page, pageSize);
+        int from = pageStart(results.books.size(), page, pageSize);
+        int to = from + pageResults.size();
+
+        if (results.total == 0) {
+            System.out.println("No books found.");
+        } else if (pageResults.isEmpty()) {
+            System.out.println("No more results (" + results.total + " matches).");
+        } else {
+            System.out.println("Search results " + (from + 1) + "-" + to + " of " + results.total + ":");
+            Holdings holdings = this.holdings;
+            for (Book book : pageResults) {
+                String availability = holdings != null && holdings.copies(book.id) > 0
+                        ? holdings.available(book.id) + " of " + holdings.copies(book.id) + " copies available"
+                        : "Available: " + book.isAvailable;
+                System.out.println("[" + book.id + "] " + book.title + " by " + book.author + " (" + availability + ")");
+            }
+        }
+        if (loader.hasFailed() && !isLoaded()) {
+            System.out.println("(Catalog load failed after " + loader.rowsLoaded() + " books; results may be incomplete.)");
+        } else if (!isLoaded()) {
+            System.out.println("(Catalog still loading: " + loader.rowsLoaded() + " books loaded so far.)");
+        }
+        return new ArrayList<>(pageResults);
+    }
+
+    /** The 1-based page of the results, as a view; empty past the last page. */
+    static <T> List<T> page(List<T> results, int page, int pageSize) {
+        int from = pageStart(results.size(), page, pageSize);
+        return results.subList(from, (int) Math.min((long) from + pageSize, results.size()));
+    }
+
+    /** How many ranked results the 1-based page needs, clamped to int range. */
+    static int pageEnd(int page, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        return (int) Math.min(Math.max(page, 1) * (long) pageSize, Integer.MAX_VALUE);
+    }
+
+    // Computed in long so a large page number clamps to the end instead of overflowing.
+    private static int pageStart(int resultCount, int page, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        return (int) Math.min((Math.max(page, 1) - 1L) * pageSize, resultCount);
+    }
+
+    public Book addBook(String title, String author) {
+        long start = System.nanoTime();
+        try {
+            Book book;
+            lock.writeLock().lock();
+            try {
+                book = new Book(allocateId(), title, author);
+                register(book);
+                saveBookToDatabase(book);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Log.info("Book added successfully (ID " + book.id + ").");
+            return book;
+        } finally {
+            ADD_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Adds each row unless a book with the same title and author is already in the catalog or
+     * earlier in the list, assigning ids in list order. Returns the books added.
+     */
+    List<Book> addBooksIfAbsent(List<Book> rows) {
+        List<Book> added = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            Set<String> existing = compact != null ? compact.titleAuthors(titles(rows))
+                    : cache != null ? cachedTitleAuthors(rows) : null;
+            for (Book row : rows) {
+                boolean duplicate = existing != null
+                        ? !existing.add(titleAuthor(row.title, row.author))
+                        : booksByTitle.getOrDefault(row.title, Collections.emptyList()).stream().anyMatch(book -> book.author.equals(row.author));
+                if (duplicate) {
+                    continue;
+                }
+                Book book = new Book(allocateId(), row.title, row.author);
+                register(book);
+                saveBookToDatabase(book);
+                added.add(book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return added;
+    }
+
+    /** Books with from <= id < to, in id order; lets an export walk the catalog a page at a time. */
+    List<Book> booksInRange(int from, int to) {
+        List<Book> result = new ArrayList<>();
+        if (compact != null) {
+            for (int id = from; id < to; id++) {
+                Book book = cache.get(id);
+                if (book == null) {
+                    book = compact.get(id);
+                }
+                if (book != null) {
+                    result.add(book);
+                }
+            }
+            return result;
+        }
+        if (cache != null) {
+            SortedSet<Integer> ids = new TreeSet<>();
+            for (WriteBehindJournal.Mutation write : journal.pendingWrites(BOOKS_TABLE, from, to)) {
+                ids.add((Integer) write.key);
+            }
+            Map<Integer, Book> rows = new HashMap<>();
+            for (Book row : queryBooks(BOOK_COLUMNS + " WHERE id >= ? AND id < ?", from, to)) {
+                rows.put(row.id, row);
+                ids.add(row.id);
+            }
+            for (int id : ids) {
+                Book book = canonical(id, rows.get(id));
+                if (book != null) {
+                    result.add(book);
+                }
+            }
+            return result;
+        }
+        lock.readLock().lock();
+        try {
+            for (int id = from; id < to; id++) {
+                Book book = books.get(id);
+                if (book != null) {
+                    result.add(book);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public boolean updateBook(String oldTitle, String newTitle, String newAuthor) {
+        Book book = findByTitle(oldTitle);
+        if (book != null) {
+            return updateBook(book.id, newTitle, newAuthor);
+        }
+        Log.info("Book not found.");
+        return false;
+    }
+
+    public boolean updateBook(int id, String newTitle, String newAuthor) {
+        return updateBook(id, newTitle, newAuthor, -1);
+    }
+
+    /**
+     * Renames the book if it is still at the expected version, or at any version if that is
+     * negative. Throws ConcurrentModificationException if it has changed since the caller read it.
+     */
+    public boolean updateBook(int id, String newTitle, String newAuthor, int expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            Book book = getBook(id);
+            if (book == null) {
+                Log.info("Book not found.");
+                return false;
+            }
+            lock.writeLock().lock();
+            try {
+                book = current(id);
+                if (book == null) {
+                    Log.info("Book not found.");
+                    return false;
+                }
+                // Checked under the monitor so a concurrent checkout cannot bump the version in between.
+                synchronized (book) {
+                    if (expectedVersion >= 0 && book.version != expectedVersion) {
+                        throw new ConcurrentModificationException("Book " + id + " is at version " + book.version + ", not " + expectedVersion);
+                    }
+                    unregister(book);
+                    book.rename(newTitle, newAuthor);
+                    updateBookInDatabase(journal, book);
+                    register(book);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Log.info("Book updated successfully.");
+            return true;
+        } finally {
+            UPDATE_TIMER.stop(start);
+        }
+    }
+
+    public boolean deleteBook(String title) {
+        Book book = findByTitle(title);
+        if (book != null) {
+            return deleteBook(book.id);
+        }
+        Log.info("Book not found.");
+        return false;
+    }
+
+    public boolean deleteBook(int id) {
+        long start = System.nanoTime();
+        try {
+            Book bookToRemove = getBook(id);
+            if (bookToRemove == null) {
+                Log.info("Book not found.");
+                return false;
+            }
+            lock.writeLock().lock();
+            try {
+                bookToRemove = current(id);
+                if (bookToRemove == null) {
+                    Log.info("Book not found.");
+                    return false;
+                }
+                unregister(bookToRemove);
+                counters.bookDeleted(id);
+                if (!isLoaded()) {
+                    deletedWhileLoading.add(id);
+                }
+                deleteBookFromDatabase(bookToRemove);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Holdings holdings = this.holdings;
+            if (holdings != null) {
+                holdings.removeTitle(id);
+            }
+            Log.info("Book deleted successfully.");
+            return true;
+        } finally {
+            DELETE_TIMER.stop(start);
+        }
+    }
+
+    // Caller holds the write lock; the id block claims run on IdBlocks' own thread.
+    private int allocateId() {
+        IdBlocks idBlocks = this.idBlocks;
+        int id = idBlocks == null ? nextId : idBlocks.next(nextId);
+        nextId = Math.max(nextId, id + 1);
+        return id;
+    }
+
+    // Caller holds the write lock.
+    private Book current(int id) {
+        return compact != null ? findCompactBook(id) : cache != null ? findCachedBook(id) : books.get(id);
+    }
+
+    private void register(Book book) {
+        synchronized (book) {
+            counters.bookAdded(book);
+        }
+        if (cache != null) {
+            cache.put(book.id, book);
+            return;
+        }
+        books.put(book.id, book);
+        booksByTitle.computeIfAbsent(book.title, k -> new ArrayList<>(1)).add(book);
+        index.add(book);
+    }
+
+    private void unregister(Book book) {
+        synchronized (book) {
+            counters.bookRemoved(book);
+        }
+        if (cache != null) {
+            cache.invalidate(book.id);
+            return;
+        }
+        books.remove(book.id);
+        List<Book> sameTitle = booksByTitle.get(book.title);
+        if (sameTitle != null) {
+            sameTitle.remove(book);
+            if (sameTitle.isEmpty()) {
+                booksByTitle.remove(book.title);
+            }
+        }
+        index.remove(book);
+    }
+
+    
+    private void saveBookToDatabase(Book book) {
+        journal.insert(BOOKS_TABLE, book.id, row(book));
+    }
+
+    /** Bumps the version and journals the book's row. Caller holds the book's monitor. */
+    static void updateBookInDatabase(WriteBehindJournal journal, Book book) {
+        book.version++;
+        journal.update(BOOKS_TABLE, book.id, row(book));
+    }
+
+    private static Object[] row(Book book) {
+        return new Object[] { book.title, book.author, book.isAvailable, book.version, book.id };
+    }
+
+    private void deleteBookFromDatabase(Book book) {
+        synchronized (book) {
+            journal.delete(BOOKS_TABLE, book.id, book.version);
+        }
+    }
+
+    private void loadBooksFromDatabase(LoadMode loadMode) {
+        books.clear();
+        booksByTitle.clear();
+        index.clear();
+        String sql = "SELECT COALESCE(MAX(id), 0) FROM books";
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            try (ResultSet resultSet = connection.prepare(sql).executeQuery()) {
+                if (resultSet.next()) {
+                    nextId = resultSet.getInt(1) + 1;
+                }
+            }
+        } catch (SQLException e) {
+            Log.error("Error reading the highest book ID: " + e.getMessage());
+        }
+        if (loadMode == LoadMode.CACHED) {
+            seedCountersFromDatabase();
+        } else if (loadMode == LoadMode.COMPACT) {
+            loader.run(this::applyLoadedPage);
+        } else if (loadMode == LoadMode.SNAPSHOT && restoreFromSnapshot()) {
+            return;
+        } else if (loadMode == LoadMode.EAGER) {
+            loader.run(this::applyLoadedPage);
+        } else {
+            loader.start(this::applyLoadedPage);
+        }
+    }
+
+    private boolean restoreFromSnapshot() {
+        if (!journal.logsChanges()) {
+            Log.warn("Snapshot restore needs the catalog_changes table; loading books from the database.");
+            return false;
+        }
+        try {
+            CatalogSnapshot snapshot = CatalogSnapshot.open(CatalogSnapshot.path());
+            if (snapshot == null) {
+                return false;
+            }
+            long start = System.nanoTime();
+            restore(snapshot);
+            Set<String> changed = WriteBehindJournal.changedKeysSince(connectionProvider, BOOKS_TABLE, snapshot.watermark());
+            for (String key : changed) {
+                int id = Integer.parseInt(key);
+                List<Book> rows = queryBooks(BOOK_COLUMNS + " WHERE id = ?", id);
+                applyChange(id, rows.isEmpty() ? null : rows.get(0));
+            }
+            Log.info("Books restored from snapshot: " + snapshot.bookCount() + " rows, " + changed.size()
+                    + " changes replayed in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            return true;
+        } catch (IOException | SQLException e) {
+            Log.error("Error restoring books from snapshot: " + e.getMessage());
+            lock.writeLock().lock();
+            try {
+                books.clear();
+                booksByTitle.clear();
+                index.clear();
+                restored = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return false;
+        }
+    }
+
+    /** Loads the snapshot's rows and adopts its index postings in place of building them. */
+    void restore(CatalogSnapshot snapshot) {
+        List<Book> restoredBooks = new ArrayList<>(snapshot.bookCount());
+        snapshot.readBooks(restoredBooks::add);
+        lock.writeLock().lock();
+        try {
+            for (Book book : restoredBooks) {
+                books.put(book.id, book);
+                booksByTitle.computeIfAbsent(book.title, k -> new ArrayList<>(1)).add(book);
+                counters.bookAdded(book);
+            }
+            index.attachBase(snapshot.postings(), books::get, restoredBooks);
+            nextId = Math.max(nextId, snapshot.nextBookId());
+            restored = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Brings the in-memory copy of one book in line with its current row; null means the row is gone. */
+    void applyChange(int id, Book row) {
+        lock.writeLock().lock();
+        try {
+            Book existing = inMemory(id);
+            if (existing == null) {
+                applyRow(id, null, row);
+                return;
+            }
+            synchronized (existing) {
+                applyRow(id, existing, row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts the in-memory book in line with its row, after the journal rejected a write to it or
+     * another node changed it. The row is read without locks, so it is applied
+     * only if the book has not changed since; otherwise it is read again. A book with a write
+     * still waiting to be flushed is left alone: that write either commits over the row or is
+     * rejected and reloads it.
+     */
+    void reload(int id) {
+        while (true) {
+            Book seen;
+            lock.readLock().lock();
+            try {
+                seen = inMemory(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+            int seenVersion = seen != null ? seen.version : 0;
+            List<Book> rows;
+            try {
+                rows = selectBooks(BOOK_COLUMNS + " WHERE id = ?", id);
+            } catch (SQLException e) {
+                Log.error("Error reloading book " + id + " from the database: " + e.getMessage());
+                return;
+            }
+            if (applyReloaded(id, rows.isEmpty() ? null : rows.get(0), seen, seenVersion)) {
+                return;
+            }
+        }
+    }
+
+    // Returns false if the book changed after it was seen, so the row may be stale.
+    private boolean applyReloaded(int id, Book row, Book seen, int seenVersion) {
+        lock.writeLock().lock();
+        try {
+            Book existing = inMemory(id);
+            if (existing != seen) {
+                return false;
+            }
+            if (existing == null) {
+                if (journal.pendingWrite(BOOKS_TABLE, id) == null) {
+                    applyRow(id, null, row);
+                }
+                return true;
+            }
+            // Circulation changes a book under its monitor alone, so check and apply under it too.
+            synchronized (existing) {
+                if (existing.version != seenVersion) {
+                    return false;
+                }
+                if (journal.pendingWrite(BOOKS_TABLE, id) == null) {
+                    applyRow(id, existing, row);
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write lock.
+    private Book inMemory(int id) {
+        return compact != null ? findCompactBook(id) : cache != null ? cache.get(id) : books.get(id);
+    }
+
+    /**
+     * Replaces the book with its row, moving the counters by the difference between the two. In
+     * CACHED mode a book that is not cached has no known previous state: the counters were seeded
+     * with the row as it was then, so it is neither counted nor cached here, and the next read
+     * loads it. In COMPACT mode the store takes the row as well. Caller holds the write lock and
+     * the existing book's monitor.
+     */
+    private void applyRow(int id, Book existing, Book row) {
+        if (existing != null) {
+            unregister(existing);
+            if (row != null) {
+                existing.rename(row.title, row.author);
+                existing.isAvailable = row.isAvailable;
+                existing.version = row.version;
+                register(existing);
+            }
+        } else if (row != null && (cache == null || compact != null)) {
+            register(row);
+        }
+        if (compact != null) {
+            if (row == null) {
+                compact.remove(id);
+            } else {
+                compact.put(id, row.title, row.author, row.isAvailable, row.version);
+            }
+        }
+        if (row == null) {
+            counters.bookDeleted(id);
+            if (!isLoaded()) {
+                deletedWhileLoading.add(id);
+            }
+        } else {
+            nextId = Math.max(nextId, id + 1);
+        }
+    }
+
+    void applyLoadedPage(List<Book> page) {
+        lock.writeLock().lock();
+        try {
+            if (compact != null) {
+                for (Book book : page) {
+                    if (!compact.contains(book.id) && !deletedWhileLoading.contains(book.id)) {
+                        compact.add(book.id, book.title, book.author, book.isAvailable, book.version);
+                        counters.bookAdded(book);
+                        nextId = Math.max(nextId, book.id + 1);
+                    }
+                }
+                return;
+            }
+            for (Book book : page) {
+                if (!books.containsKey(book.id) && !deletedWhileLoading.contains(book.id)) {
+                    register(book);
+                    nextId = Math.max(nextId, book.id + 1);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Takes the pages applied so far as the whole table, for stores filled without a database load. */
+    void markLoaded() {
+        restored = true;
+    }
+
+    private void loadMissingBooks(String sql, Object key) {
+        applyLoadedPage(queryBooks(sql, key));
+    }
+
+    private List<Book> queryBooks(String sql, Object... keys) {
+        try {
+            return selectBooks(sql, keys);
+        } catch (SQLException e) {
+            Log.error("Error loading book from the database: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private List<Book> selectBooks(String sql, Object... keys) throws SQLException {
+        long start = System.nanoTime();
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            PreparedStatement statement = connection.prepare(sql);
+            for (int i = 0; i < keys.length; i++) {
+                statement.setObject(i + 1, keys[i]);
+            }
+            List<Book> loaded = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    loaded.add(mapBook(resultSet));
+                }
+            }
+            return loaded;
+        } finally {
+            QUERY_TIMER.stop(start);
+        }
+    }
+
+    /** The one in-memory instance for the book, materialized from the compact store on a miss. */
+    private Book findCompactBook(int id) {
+        Book book = cache.get(id);
+        if (book != null) {
+            return book;
+        }
+        book = compact.get(id);
+        return book == null ? null : cache.putIfAbsent(id, book);
+    }
+
+    // Search results and exports are read-only, so uncached books go out as copies rather than filling the cache.
+    private List<Book> handedOut(List<Book> copies) {
+        List<Book> result = new ArrayList<>(copies.size());
+        for (Book copy : copies) {
+            Book cached = cache.get(copy.id);
+            result.add(cached != null ? cached : copy);
+        }
+        return result;
+    }
+
+    // Follows this node's journaled writes, including availability changes from circulation.
+    private void mirror(WriteBehindJournal.Mutation write) {
+        int id = (Integer) write.key;
+        if (write.kind == WriteBehindJournal.Kind.DELETE) {
+            compact.remove(id);
+        } else {
+            compact.put(id, (String) write.row[0], (String) write.row[1], (Boolean) write.row[2], (Integer) write.row[3]);
+        }
+    }
+
+    private static Set<String> titles(List<Book> rows) {
+        Set<String> titles = new HashSet<>();
+        for (Book row : rows) {
+            titles.add(row.title);
+        }
+        return titles;
+    }
+
+    private Book findCachedBook(int id) {
+        Book book = cache.get(id);
+        if (book != null) {
+            return book;
+        }
+        List<Book> rows = queryBooks(BOOK_COLUMNS + " WHERE id = ?", id);
+        return canonical(id, rows.isEmpty() ? null : rows.get(0));
+    }
+
+    private Book findCachedByTitle(String title) {
+        for (WriteBehindJournal.Mutation write : journal.pendingWritesWith(BOOKS_TABLE, title)) {
+            Book book = canonical((Integer) write.key, null);
+            if (book != null && book.title.equals(title)) {
+                return book;
+            }
+        }
+        for (Book row : queryBooks(BOOK_COLUMNS + " WHERE title = ? ORDER BY id", title)) {
+            Book book = canonical(row.id, row);
+            if (book != null && book.title.equals(title)) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    private List<Book> findCached(String query) {
+        String key = query.toLowerCase();
+        if (key.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String pattern = "%" + key.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+        Map<Integer, Book> candidates = new LinkedHashMap<>();
+        for (Book row : queryBooks(BOOK_COLUMNS + " WHERE LOWER(title) LIKE ? ESCAPE '!' OR LOWER(author) LIKE ? ESCAPE '!' LIMIT "
+                + CACHED_SEARCH_LIMIT, pattern, pattern)) {
+            Book book = canonical(row.id, row);
+            if (book != null) {
+                candidates.put(book.id, book);
+            }
+        }
+        // Substrings cannot be looked up, but only the books table's own unflushed rows are read.
+        for (WriteBehindJournal.Mutation write : journal.pendingWrites(BOOKS_TABLE)) {
+            if (write.kind != WriteBehindJournal.Kind.DELETE && !candidates.containsKey((Integer) write.key)
+                    && BookIndex.matches(new Book((Integer) write.key, (String) write.row[0], (String) write.row[1]), key)) {
+                Book book = canonical((Integer) write.key, null);
+                if (book != null) {
+                    candidates.put(book.id, book);
+                }
+            }
+        }
+        // Cached copies may have been renamed since the row was written, so match against what they hold now.
+        List<Book> matches = new ArrayList<>();
+        for (Book book : candidates.values()) {
+            if (BookIndex.matches(book, key)) {
+                matches.add(book);
+            }
+        }
+        matches.sort(BookIndex.ranking(key));
+        return matches;
+    }
+
+    /**
+     * The one in-memory instance for the book: the cached copy if there is one, else the newest
+     * unflushed journal row, else the row just read from the table. Null if the book is deleted.
+     */
+    private Book canonical(int id, Book fromTable) {
+        Book cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        Book book = fromTable;
+        WriteBehindJournal.Mutation write = journal.pendingWrite(BOOKS_TABLE, id);
+        if (write != null) {
+            if (write.kind == WriteBehindJournal.Kind.DELETE) {
+                return null;
+            }
+            book = new Book(id, (String) write.row[0], (String) write.row[1]);
+            book.isAvailable = (Boolean) write.row[2];
+            book.version = (Integer) write.row[3];
+        }
+        return book == null ? null : cache.putIfAbsent(id, book);
+    }
+
+    /** Title/author keys of current books sharing a title with any row, for duplicate checks in CACHED mode. */
+    private Set<String> cachedTitleAuthors(List<Book> rows) {
+        Set<String> keys = new HashSet<>();
+        Set<String> distinct = new LinkedHashSet<>();
+        for (Book row : rows) {
+            distinct.add(row.title);
+        }
+        List<String> titles = new ArrayList<>(distinct);
+        for (int from = 0; from < titles.size(); from += CACHED_SEARCH_LIMIT) {
+            List<String> part = titles.subList(from, Math.min(from + CACHED_SEARCH_LIMIT, titles.size()));
+            String sql = BOOK_COLUMNS + " WHERE title IN (" + String.join(", ", Collections.nCopies(part.size(), "?")) + ")";
+            for (Book row : queryBooks(sql, part.toArray())) {
+                Book book = canonical(row.id, row);
+                if (book != null) {
+                    keys.add(titleAuthor(book.title, book.author));
+                }
+            }
+        }
+        for (String title : titles) {
+            for (WriteBehindJournal.Mutation write : journal.pendingWritesWith(BOOKS_TABLE, title)) {
+                keys.add(titleAuthor(title, (String) write.row[1]));
+            }
+        }
+        return keys;
+    }
+
+    private static String titleAuthor(String title, String author) {
+        return title + '\n' + author;
+    }
+
+    private void seedCountersFromDatabase() {
+        String sql = "SELECT author, COUNT(*), SUM(CASE WHEN is_available THEN 1 ELSE 0 END) FROM books GROUP BY author";
+        try (PooledConnection connection = connectionProvider.acquire();
+             ResultSet resultSet = connection.prepare(sql).executeQuery()) {
+            while (resultSet.next()) {
+                counters.seedCatalog(resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3));
+            }
+        } catch (SQLException e) {
+            Log.error("Error reading catalog totals from the database: " + e.getMessage());
+        }
+    }
+
+    private static Book mapBook(ResultSet resultSet) throws SQLException {
+        Book book = new Book(resultSet.getInt("id"), resultSet.getString("title"), resultSet.getString("author"));
+        book.isAvailable = resultSet.getBoolean("is_available");
+        book.version = resultSet.getInt("version");
+        return book;
+    }
+}
@@ -0,0 +1,172 @@
+package com.library;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Size-aware LRU cache split into independently locked segments, so concurrent lookups for
+ * different keys rarely contend. Each entry is weighed when it is stored and the least recently
+ * used entries of a segment are evicted once the segment is over its share of the budget.
+ */
+class BoundedCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    static class Stats {
+        final String name;
+        final long hits;
+        final long misses;
+        final long evictions;
+        final long entries;
+        final long weight;
+        final long maxWeight;
+
+        Stats(String name, long hits, long misses, long evictions, long entries, long weight, long maxWeight) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+        }
+
+        double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        String toJson() {
+            return "{\"name\":" + Json.quote(name) + ",\"hits\":" + hits + ",\"misses\":" + misses
+                    + ",\"hitRate\":" + String.format(Locale.ROOT, "%.4f", hitRate()) + ",\"evictions\":" + evictions
+                    + ",\"entries\":" + entries + ",\"weightBytes\":" + weight + ",\"maxWeightBytes\":" + maxWeight + "}";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s cache: %d entries, %d/%d KB, hit rate %.1f%% (%d hits, %d misses), %d evictions",
+                    name, entries, weight / 1024, maxWeight / 1024, 100 * hitRate(), hits, misses, evictions);
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static class Segment<K, V> {
+        final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long weight;
+    }
+
+    private final String name;
+    private final long maxWeight;
+    private final long segmentMaxWeight;
+    private final ToLongFunction<V> weigher;
+    private final List<Segment<K, V>> segments = new ArrayList<>(SEGMENTS);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(String name, long maxWeight, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.segmentMaxWeight = Math.max(1, maxWeight / SEGMENTS);
+        this.weigher = weigher;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new Segment<>());
+        }
+    }
+
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> entry;
+        synchronized (segment) {
+            entry = segment.entries.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /** Stores the value unless the key is already cached, and returns whichever instance is cached. */
+    public V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> existing = segment.entries.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            store(segment, key, value);
+            return value;
+        }
+    }
+
+    /** Stores or replaces the value, re-weighing it; used after a write changes the cached object. */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            store(segment, key, value);
+        }
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> removed = segment.entries.remove(key);
+            if (removed != null) {
+                segment.weight -= removed.weight;
+            }
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public Stats stats() {
+        long entries = 0;
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                entries += segment.entries.size();
+                weight += segment.weight;
+            }
+        }
+        return new Stats(name, hits.sum(), misses.sum(), evictions.sum(), entries, weight, maxWeight);
+    }
+
+    private void store(Segment<K, V> segment, K key, V value) {
+        Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value));
+        Entry<V> replaced = segment.entries.put(key, entry);
+        segment.weight += entry.weight - (replaced == null ? 0 : replaced.weight);
+        Iterator<Map.Entry<K, Entry<V>>> eldest = segment.entries.entrySet().iterator();
+        while (segment.weight > segmentMaxWeight && segment.entries.size() > 1) {
+            Map.Entry<K, Entry<V>> victim = eldest.next();
+            if (victim.getKey().equals(key)) {
+                break;
+            }
+            segment.weight -= victim.getValue().weight;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments.get((h ^ (h >>> 16)) & (SEGMENTS - 1));
+    }
+}
@@ -0,0 +1,331 @@
+package com.library;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Binary snapshot of the user directory, the catalog and its trigram index, stamped with the
+ * catalog_changes sequence it is current to. Restoring maps the file read-only: rows are decoded
+ * straight from the mapping and the index postings are searched in place, so a restart skips
+ * both the JDBC scan and the index build and only replays rows changed after the watermark.
+ *
+ * <pre>
+ * header   magic, version, watermark, next book id, counts, section offsets
+ * users    (username, version, password)*
+ * books    (id, version, available, title, author)*   ascending id
+ * grams    (packed trigram, postings start, length)*   ascending trigram
+ * postings book ids, ascending within each trigram
+ * </pre>
+ *
+ * All integers are big-endian; strings are a length-prefixed UTF-8. Each section must stay
+ * under 2 GB, the limit of a single mapping. The users section holds password hashes, so on a
+ * POSIX file system the file is created readable and writable by its owner only.
+ */
+final class CatalogSnapshot {
+    private static final long MAGIC = 0x4c4942534e415031L; // "LIBSNAP1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 128;
+    private static final int GRAM_ENTRY_BYTES = 16;
+
+    private final long watermark;
+    private final int nextBookId;
+    private final int userCount;
+    private final int bookCount;
+    private final ByteBuffer users;
+    private final ByteBuffer books;
+    private final Postings postings;
+
+    private CatalogSnapshot(long watermark, int nextBookId, int userCount, int bookCount, ByteBuffer users, ByteBuffer books, Postings postings) {
+        this.watermark = watermark;
+        this.nextBookId = nextBookId;
+        this.userCount = userCount;
+        this.bookCount = bookCount;
+        this.users = users;
+        this.books = books;
+        this.postings = postings;
+    }
+
+    static Path path() {
+        return Paths.get(System.getProperty("library.snapshot", "library.snapshot"));
+    }
+
+    /** Maps the snapshot, or returns null if there is none. Throws if the file is not a valid snapshot. */
+    static CatalogSnapshot open(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Snapshot " + file + " is truncated.");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a version " + VERSION + " catalog snapshot.");
+            }
+            long watermark = header.getLong();
+            int nextBookId = header.getInt();
+            int userCount = header.getInt();
+            int bookCount = header.getInt();
+            int gramCount = header.getInt();
+            long[] offsets = new long[5];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = header.getLong();
+            }
+            if (offsets[4] != channel.size()) {
+                throw new IOException("Snapshot " + file + " is truncated.");
+            }
+            // The mappings stay valid after the channel is closed.
+            ByteBuffer users = map(channel, offsets[0], offsets[1]);
+            ByteBuffer books = map(channel, offsets[1], offsets[2]);
+            ByteBuffer grams = map(channel, offsets[2], offsets[3]);
+            IntBuffer ids = map(channel, offsets[3], offsets[4]).asIntBuffer();
+            return new CatalogSnapshot(watermark, nextBookId, userCount, bookCount, users, books, new Postings(grams, gramCount, ids));
+        }
+    }
+
+    long watermark() {
+        return watermark;
+    }
+
+    int nextBookId() {
+        return nextBookId;
+    }
+
+    int bookCount() {
+        return bookCount;
+    }
+
+    int userCount() {
+        return userCount;
+    }
+
+    Postings postings() {
+        return postings;
+    }
+
+    void readUsers(Consumer<User> consumer) {
+        ByteBuffer in = users.duplicate();
+        for (int i = 0; i < userCount; i++) {
+            String username = readString(in);
+            int version = in.getInt();
+            consumer.accept(new User(username, readString(in), version));
+        }
+    }
+
+    void readBooks(Consumer<Book> consumer) {
+        ByteBuffer in = books.duplicate();
+        for (int i = 0; i < bookCount; i++) {
+            int id = in.getInt();
+            int version = in.getInt();
+            boolean available = in.get() != 0;
+            Book book = new Book(id, readString(in), readString(in));
+            book.isAvailable = available;
+            book.version = version;
+            consumer.accept(book);
+        }
+    }
+
+    /**
+     * Flushes the journal, stamps the watermark and writes the in-memory catalog and directory.
+     * Needs the whole catalog in memory, so CACHED mode and unfinished streaming loads are skipped.
+     *
+     * The watermark is read before the catalog is copied. With a change feed it is also capped at
+     * the feed's position, since other nodes' changes past it may not be in memory yet. A change
+     * the feed applies during the copy is then replayed again on restore rather than skipped.
+     */
+    static void save(Path file, ConnectionProvider connectionProvider, WriteBehindJournal journal,
+                     UserRegistrationAndLogin userManagement, BookSearch bookSearch, ChangeFeed changeFeed) {
+        if (!journal.logsChanges() || userManagement.cacheStats() != null || !userManagement.isLoaded() || !bookSearch.isLoaded()) {
+            Log.warn("Skipping catalog snapshot: it needs the catalog_changes table and a fully loaded catalog.");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            journal.awaitFlush();
+            long watermark = WriteBehindJournal.latestChangeSeq(connectionProvider);
+            if (changeFeed != null) {
+                watermark = Math.min(watermark, changeFeed.position());
+            }
+            List<Book> books = bookSearch.allBooks();
+            write(file, watermark, bookSearch.nextBookId(), new ArrayList<>(userManagement.users.values()), books);
+            Log.info("Catalog snapshot written to " + file + " (" + books.size() + " books, watermark " + watermark + ") in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        } catch (IOException | SQLException e) {
+            Log.error("Error writing catalog snapshot: " + e.getMessage());
+        }
+    }
+
+    static void write(Path file, long watermark, int nextBookId, Collection<User> users, Collection<Book> books) throws IOException {
+        List<Book> sorted = new ArrayList<>(books);
+        sorted.sort(Comparator.comparingInt(book -> book.id));
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] offsets = new long[5];
+        SortedMap<Long, IntList> grams = new TreeMap<>();
+        // Created afresh so a leftover temp file cannot pass on wider permissions; the move keeps them.
+        Files.deleteIfExists(tmp);
+        FileAttribute<?>[] ownerOnly = file.getFileSystem().supportedFileAttributeViews().contains("posix")
+                ? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) }
+                : new FileAttribute<?>[0];
+        try (FileChannel channel = FileChannel.open(tmp, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ownerOnly)) {
+            channel.position(HEADER_BYTES);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            offsets[0] = HEADER_BYTES;
+            for (User user : users) {
+                writeString(out, user.username);
+                out.writeInt(user.version);
+                writeString(out, user.password);
+            }
+            out.flush();
+            offsets[1] = channel.position();
+            for (Book book : sorted) {
+                // The book's monitor guards its row, as for journal writes.
+                synchronized (book) {
+                    out.writeInt(book.id);
+                    out.writeInt(book.version);
+                    out.writeByte(book.isAvailable ? 1 : 0);
+                    writeString(out, book.title);
+                    writeString(out, book.author);
+                    for (String gram : BookIndex.grams(book)) {
+                        grams.computeIfAbsent(Postings.pack(gram), k -> new IntList()).add(book.id);
+                    }
+                }
+            }
+            out.flush();
+            offsets[2] = channel.position();
+            int start = 0;
+            for (Map.Entry<Long, IntList> gram : grams.entrySet()) {
+                out.writeLong(gram.getKey());
+                out.writeInt(start);
+                out.writeInt(gram.getValue().size);
+                start += gram.getValue().size;
+            }
+            out.flush();
+            offsets[3] = channel.position();
+            for (IntList ids : grams.values()) {
+                for (int i = 0; i < ids.size; i++) {
+                    out.writeInt(ids.values[i]);
+                }
+            }
+            out.flush();
+            offsets[4] = channel.position();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putLong(MAGIC).putInt(VERSION).putLong(watermark).putInt(nextBookId)
+                    .putInt(users.size()).putInt(sorted.size()).putInt(grams.size());
+            for (long offset : offsets) {
+                header.putLong(offset);
+            }
+            header.clear();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Trigram postings read in place from the mapped file; safe for concurrent readers. */
+    static final class Postings {
+        private final ByteBuffer grams;
+        private final int gramCount;
+        private final IntBuffer ids;
+
+        Postings(ByteBuffer grams, int gramCount, IntBuffer ids) {
+            this.grams = grams;
+            this.gramCount = gramCount;
+            this.ids = ids;
+        }
+
+        /** Sorted ids of the books containing the trigram, or null if none do. */
+        int[] lookup(String gram) {
+            long key = pack(gram);
+            int low = 0;
+            int high = gramCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long probe = grams.getLong(mid * GRAM_ENTRY_BYTES);
+                if (probe < key) {
+                    low = mid + 1;
+                } else if (probe > key) {
+                    high = mid - 1;
+                } else {
+                    return idsAt(mid);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Ids of books with a trigram starting with the one or two character prefix; for queries
+         * shorter than a trigram. Grams are sorted by their packed chars, so they are one range.
+         */
+        Set<Integer> startingWith(String prefix) {
+            long from = pack((prefix + "\u0000\u0000").substring(0, 3));
+            long to = pack((prefix + "\uffff\uffff").substring(0, 3));
+            int low = 0;
+            int high = gramCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (grams.getLong(mid * GRAM_ENTRY_BYTES) < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            Set<Integer> result = new HashSet<>();
+            for (int i = low; i < gramCount && grams.getLong(i * GRAM_ENTRY_BYTES) <= to; i++) {
+                for (int id : idsAt(i)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+
+        private int[] idsAt(int entry) {
+            int start = grams.getInt(entry * GRAM_ENTRY_BYTES + 8);
+            int[] result = new int[grams.getInt(entry * GRAM_ENTRY_BYTES + 12)];
+            ids.get(start, result);
+            return result;
+        }
+
+        static long pack(String gram) {
+            return ((long) gram.charAt(0) << 32) | ((long) gram.charAt(1) << 16) | gram.charAt(2);
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot section of " + (to - from) + " bytes is too large to map.");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,394 @@
+package com.library;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Streaming bulk import and export of the catalog as CSV or MARC-like text.
+ *
+ * Import is a bounded pipeline: a reader thread cuts the file into chunks of records, a pool of
+ * workers parses them, and the calling thread adds each parsed chunk in file order, skipping
+ * books already in the catalog. Only a fixed number of chunks are in flight, and once the journal
+ * holds maxPendingWrites unflushed rows the import waits for them to commit, so memory stays
+ * flat however large the file is.
+ *
+ * CSV has one book per row. A header naming "title" and "author" columns is optional; without
+ * one the first two columns are used. MARC-like files use mnemonic lines, one record per block:
+ *
+ * <pre>
+ * =LDR  00000nam a2200000 a 4500
+ * =001  42
+ * =100  1\$aHerbert, Frank
+ * =245  10$aDune
+ * =952  \\$aavailable
+ * </pre>
+ *
+ * The title is 245 $a (plus $b), the author is 100, 110 or 700 $a, and a literal "$" is written
+ * as {dollar}. Exports include the id and availability, but imported books always get new ids
+ * and start out available.
+ */
+class CatalogTransfer {
+    static final int DEFAULT_CHUNK_RECORDS = 1_000;
+    static final int DEFAULT_MAX_PENDING_WRITES = 20_000;
+    static final int MAX_FIELD_LENGTH = 255;
+    private static final int EXPORT_PAGE = 1_000;
+    private static final int MARK_LIMIT = 1 << 16;
+
+    enum Format {
+        CSV, MARC;
+
+        /** MARC for .mrk, .marc and .txt files, CSV otherwise. */
+        static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".mrk") || name.endsWith(".marc") || name.endsWith(".txt") ? MARC : CSV;
+        }
+    }
+
+    static class Result {
+        final long records;
+        final long added;
+        final long duplicates;
+        final long rejected;
+        final long millis;
+
+        Result(long records, long added, long duplicates, long rejected, long millis) {
+            this.records = records;
+            this.added = added;
+            this.duplicates = duplicates;
+            this.rejected = rejected;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return "Imported " + added + " of " + records + " records (" + duplicates + " already in the catalog, "
+                    + rejected + " without a usable title and author) in " + millis + " ms.";
+        }
+    }
+
+    private static class Chunk {
+        final List<Book> books = new ArrayList<>();
+        final int records;
+        int rejected;
+
+        Chunk(int records) {
+            this.records = records;
+        }
+    }
+
+    // Marks the end of the file in the chunk queue.
+    private static final Future<Chunk> END = CompletableFuture.completedFuture(null);
+
+    private final BookSearch bookSearch;
+    private final WriteBehindJournal journal;
+    private final int workers;
+    private final int chunkRecords;
+    private final int maxPendingWrites;
+
+    public CatalogTransfer(BookSearch bookSearch, WriteBehindJournal journal) {
+        this(bookSearch, journal, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_RECORDS, DEFAULT_MAX_PENDING_WRITES);
+    }
+
+    public CatalogTransfer(BookSearch bookSearch, WriteBehindJournal journal, int workers, int chunkRecords, int maxPendingWrites) {
+        this.bookSearch = bookSearch;
+        this.journal = journal;
+        this.workers = Math.max(1, workers);
+        this.chunkRecords = chunkRecords;
+        this.maxPendingWrites = maxPendingWrites;
+    }
+
+    public Result importFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader, Format.forFile(file));
+        }
+    }
+
+    /** Imports every record the reader yields; returns null if the catalog has not finished loading. */
+    public Result importFrom(BufferedReader reader, Format format) throws IOException {
+        if (!bookSearch.isLoaded()) {
+            Log.warn("The catalog is still loading; import once it has finished so duplicates can be detected.");
+            return null;
+        }
+        long start = System.nanoTime();
+        ExecutorService parsers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "catalog-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Future<Chunk>> chunks = new ArrayBlockingQueue<>(workers * 2);
+        Thread producer = new Thread(() -> readChunks(reader, format, parsers, chunks), "catalog-import-reader");
+        producer.setDaemon(true);
+        producer.start();
+
+        long records = 0;
+        long added = 0;
+        long rejected = 0;
+        try {
+            for (Future<Chunk> next = chunks.take(); next != END; next = chunks.take()) {
+                Chunk chunk = next.get();
+                records += chunk.records;
+                rejected += chunk.rejected;
+                added += bookSearch.addBooksIfAbsent(chunk.books).size();
+                if (journal.pendingCount() >= maxPendingWrites) {
+                    journal.awaitFlush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted after " + records + " records.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (SQLException e) {
+            throw new IOException("Database rejected the imported rows: " + e.getMessage(), e);
+        } finally {
+            producer.interrupt();
+            parsers.shutdownNow();
+        }
+        return new Result(records, added, records - rejected - added, rejected, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void readChunks(BufferedReader reader, Format format, ExecutorService parsers, BlockingQueue<Future<Chunk>> chunks) {
+        try {
+            try {
+                int[] columns = null;
+                List<String> records = new ArrayList<>(chunkRecords);
+                for (String record = nextRecord(reader, format); record != null; record = nextRecord(reader, format)) {
+                    if (format == Format.CSV && columns == null) {
+                        columns = csvColumns(record);
+                        if (columns[2] == 1) {
+                            continue;
+                        }
+                    }
+                    records.add(record);
+                    if (records.size() == chunkRecords) {
+                        chunks.put(parse(parsers, format, records, columns));
+                        records = new ArrayList<>(chunkRecords);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    chunks.put(parse(parsers, format, records, columns));
+                }
+            } catch (IOException | RuntimeException e) {
+                chunks.put(CompletableFuture.failedFuture(e));
+            }
+            chunks.put(END);
+        } catch (InterruptedException e) {
+            // The import stopped taking chunks.
+        }
+    }
+
+    private static Future<Chunk> parse(ExecutorService parsers, Format format, List<String> records, int[] columns) {
+        return parsers.submit(() -> {
+            Chunk chunk = new Chunk(records.size());
+            for (String record : records) {
+                String[] titleAuthor = format == Format.CSV ? parseCsv(record, columns) : parseMarc(record);
+                if (titleAuthor == null) {
+                    chunk.rejected++;
+                } else {
+                    chunk.books.add(new Book(0, titleAuthor[0], titleAuthor[1]));
+                }
+            }
+            return chunk;
+        });
+    }
+
+    /** The next raw record, or null at end of file: a CSV row (quoted fields may span lines) or a MARC block. */
+    static String nextRecord(BufferedReader reader, Format format) throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.trim().isEmpty()) {
+            line = reader.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        StringBuilder record = new StringBuilder(line);
+        if (format == Format.CSV) {
+            while (quoteCount(record) % 2 != 0 && (line = reader.readLine()) != null) {
+                record.append('\n').append(line);
+            }
+            return record.toString();
+        }
+        // Blocks normally end at a blank line; an unseparated =LDR also starts a new record.
+        reader.mark(MARK_LIMIT);
+        while ((line = reader.readLine()) != null && !line.trim().isEmpty() && !line.startsWith("=LDR")) {
+            record.append('\n').append(line);
+            reader.mark(MARK_LIMIT);
+        }
+        if (line != null && line.startsWith("=LDR")) {
+            reader.reset();
+        }
+        return record.toString();
+    }
+
+    private static int quoteCount(CharSequence text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Title and author column positions, and 1 in the last slot if the row was a header. */
+    private static int[] csvColumns(String firstRecord) {
+        List<String> fields = csvFields(firstRecord);
+        int title = -1;
+        int author = -1;
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.get(i).trim().toLowerCase(Locale.ROOT);
+            if (name.equals("title") && title < 0) {
+                title = i;
+            } else if (name.equals("author") && author < 0) {
+                author = i;
+            }
+        }
+        return title >= 0 && author >= 0 ? new int[] { title, author, 1 } : new int[] { 0, 1, 0 };
+    }
+
+    private static String[] parseCsv(String record, int[] columns) {
+        List<String> fields = csvFields(record);
+        if (fields.size() <= Math.max(columns[0], columns[1])) {
+            return null;
+        }
+        return validated(fields.get(columns[0]), fields.get(columns[1]));
+    }
+
+    static List<String> csvFields(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String[] parseMarc(String record) {
+        String title = null;
+        String author = null;
+        String fallbackAuthor = null;
+        for (String line : record.split("\n")) {
+            if (line.length() < 6 || line.charAt(0) != '=') {
+                continue;
+            }
+            String tag = line.substring(1, 4);
+            if (tag.equals("245")) {
+                String a = subfield(line, 'a');
+                String b = subfield(line, 'b');
+                title = a == null ? null : b == null ? trimPunctuation(a) : trimPunctuation(trimPunctuation(a) + " " + b);
+            } else if (tag.equals("100") || tag.equals("110")) {
+                author = subfield(line, 'a');
+            } else if (tag.equals("700") && fallbackAuthor == null) {
+                fallbackAuthor = subfield(line, 'a');
+            }
+        }
+        if (author == null) {
+            author = fallbackAuthor;
+        }
+        return title == null || author == null ? null : validated(title, trimPunctuation(author));
+    }
+
+    private static String subfield(String line, char code) {
+        int start = line.indexOf("$" + code, 6);
+        if (start < 0) {
+            return null;
+        }
+        int end = line.indexOf('$', start + 2);
+        return line.substring(start + 2, end < 0 ? line.length() : end).replace("{dollar}", "$");
+    }
+
+    // Catalogers end subfields with ISBD punctuation such as "Dune /"; it is not part of the title.
+    private static String trimPunctuation(String value) {
+        int end = value.length();
+        while (end > 0 && " /:;,=".indexOf(value.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    private static String[] validated(String title, String author) {
+        title = title.trim();
+        author = author.trim();
+        if (title.isEmpty() || author.isEmpty() || title.length() > MAX_FIELD_LENGTH || author.length() > MAX_FIELD_LENGTH) {
+            return null;
+        }
+        return new String[] { title, author };
+    }
+
+    public long exportFile(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return exportTo(writer, Format.forFile(file));
+        }
+    }
+
+    /** Writes the catalog in id order a page at a time; returns the number of books, or -1 if it is still loading. */
+    public long exportTo(Writer writer, Format format) throws IOException {
+        if (!bookSearch.isLoaded()) {
+            Log.warn("The catalog is still loading; export once it has finished.");
+            return -1;
+        }
+        if (format == Format.CSV) {
+            writer.write("id,title,author,available\n");
+        }
+        long count = 0;
+        int end = bookSearch.nextBookId();
+        for (int from = 1; from < end; from += EXPORT_PAGE) {
+            for (Book book : bookSearch.booksInRange(from, Math.min(from + EXPORT_PAGE, end))) {
+                int id;
+                String title;
+                String author;
+                boolean available;
+                synchronized (book) {
+                    id = book.id;
+                    title = book.title;
+                    author = book.author;
+                    available = book.isAvailable;
+                }
+                if (format == Format.CSV) {
+                    writer.write(id + "," + csvField(title) + "," + csvField(author) + "," + available + "\n");
+                } else {
+                    writer.write("=LDR  00000nam a2200000 a 4500\n=001  " + id + "\n=100  1\\$a" + marcField(author)
+                            + "\n=245  10$a" + marcField(title) + "\n=952  \\\\$a" + (available ? "available" : "checked out") + "\n\n");
+                }
+                count++;
+            }
+        }
+        writer.flush();
+        return count;
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String marcField(String value) {
+        return value.replace("$", "{dollar}").replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,189 @@
+package com.library;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Tails catalog_changes so a node sees the rows other nodes sharing its database write. Each poll
+ * reads the changes committed since the last one and hands every changed key, once per poll, to
+ * the subscriber for its table, which reloads the row; changes tagged with this node's own id are
+ * skipped. A node therefore lags the others by at most one poll interval plus a query, as long as
+ * polls succeed; {@link #stalenessMillis()} reports how far behind it currently is.
+ *
+ * <p>A sequence number is assigned when its row is inserted but only becomes visible at commit, so
+ * a slow transaction can commit a lower seq after higher ones were read. Skipped seqs are looked
+ * for again on every poll until they appear or GAP_TIMEOUT passes, as it will for a rolled-back
+ * insert, whose seq is never filled.
+ */
+final class ChangeFeed implements AutoCloseable {
+    static final long DEFAULT_POLL_MILLIS = 500;
+    static final int PAGE_SIZE = 1_000;
+    private static final long GAP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // A wider jump is taken for ids burned by a sequence cache or a bulk rollback, not commits in flight.
+    private static final int MAX_TRACKED_GAP = 10_000;
+    private static final Metrics.Timer POLL_TIMER = Metrics.timer("changefeed.poll");
+    private static final Metrics.Counter APPLIED = Metrics.counter("changefeed.applied");
+
+    private static final class Change {
+        final long seq;
+        final String table;
+        final String key;
+        final String nodeId;
+
+        Change(long seq, String table, String key, String nodeId) {
+            this.seq = seq;
+            this.table = table;
+            this.key = key;
+            this.nodeId = nodeId;
+        }
+    }
+
+    private final ConnectionProvider connectionProvider;
+    private final String nodeId;
+    private final Map<String, Consumer<String>> subscribers = new ConcurrentHashMap<>();
+    // Seqs skipped over and not yet seen, with the System.nanoTime() after which they are given up on.
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+    private long highestSeen;
+    private volatile long lastPollNanos = System.nanoTime();
+    private ScheduledExecutorService poller;
+
+    /** Feed for the journal's node, starting after the given sequence number. */
+    ChangeFeed(ConnectionProvider connectionProvider, WriteBehindJournal journal, long afterSeq) {
+        if (!journal.logsNodeIds()) {
+            throw new IllegalStateException("The change feed needs catalog_changes with a node_id column.");
+        }
+        this.connectionProvider = connectionProvider;
+        this.nodeId = journal.nodeId();
+        this.highestSeen = afterSeq;
+    }
+
+    /** Has the reload called with the key of each row of the table that another node changes. */
+    void subscribe(WriteBehindJournal.Table table, Consumer<String> reload) {
+        subscribers.put(table.name, reload);
+    }
+
+    synchronized void start(long pollMillis) {
+        if (poller != null) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::pollQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Time since the start of the last successful poll: no change committed before then is still unseen, gaps aside. */
+    long stalenessMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastPollNanos);
+    }
+
+    /** Every change up to this seq has been applied or given up on. */
+    synchronized long position() {
+        return gaps.isEmpty() ? highestSeen : gaps.firstKey() - 1;
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (SQLException e) {
+            Log.warn("Error polling catalog_changes (" + stalenessMillis() + " ms behind): " + e.getMessage());
+        }
+    }
+
+    /** Reads and applies everything committed since the last poll; returns the number of rows reloaded. */
+    synchronized int poll() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int applied = 0;
+            while (true) {
+                List<Change> changes = read();
+                applied += apply(changes);
+                if (changes.size() < PAGE_SIZE) {
+                    break;
+                }
+            }
+            lastPollNanos = start;
+            return applied;
+        } finally {
+            POLL_TIMER.stop(start);
+        }
+    }
+
+    private List<Change> read() throws SQLException {
+        List<Change> changes = new ArrayList<>();
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            PreparedStatement statement = connection.prepare(
+                    "SELECT seq, table_name, row_key, node_id FROM catalog_changes WHERE seq > ? ORDER BY seq LIMIT " + PAGE_SIZE);
+            statement.setLong(1, highestSeen);
+            read(statement.executeQuery(), changes);
+            if (!gaps.isEmpty()) {
+                String seqs = gaps.keySet().stream().limit(PAGE_SIZE).map(String::valueOf).collect(Collectors.joining(", "));
+                // Not cached: the list differs from poll to poll.
+                try (Statement gapQuery = connection.connection().createStatement()) {
+                    read(gapQuery.executeQuery("SELECT seq, table_name, row_key, node_id FROM catalog_changes WHERE seq IN (" + seqs + ")"), changes);
+                }
+            }
+        }
+        changes.sort(Comparator.comparingLong(change -> change.seq));
+        return changes;
+    }
+
+    private static void read(ResultSet resultSet, List<Change> changes) throws SQLException {
+        try (ResultSet rows = resultSet) {
+            while (rows.next()) {
+                changes.add(new Change(rows.getLong(1), rows.getString(2), rows.getString(3), rows.getString(4)));
+            }
+        }
+    }
+
+    private int apply(List<Change> changes) {
+        long now = System.nanoTime();
+        Map<String, Set<String>> changed = new LinkedHashMap<>();
+        for (Change change : changes) {
+            if (change.seq > highestSeen) {
+                if (change.seq - highestSeen - 1 <= MAX_TRACKED_GAP) {
+                    for (long missing = highestSeen + 1; missing < change.seq; missing++) {
+                        gaps.put(missing, now + GAP_TIMEOUT_NANOS);
+                    }
+                }
+                highestSeen = change.seq;
+            } else if (gaps.remove(change.seq) == null) {
+                continue;
+            }
+            if (!nodeId.equals(change.nodeId)) {
+                changed.computeIfAbsent(change.table, k -> new LinkedHashSet<>()).add(change.key);
+            }
+        }
+        gaps.values().removeIf(deadline -> deadline - now < 0);
+
+        int applied = 0;
+        for (Map.Entry<String, Set<String>> table : changed.entrySet()) {
+            Consumer<String> reload = subscribers.get(table.getKey());
+            if (reload == null) {
+                continue;
+            }
+            for (String key : table.getValue()) {
+                try {
+                    reload.accept(key);
+                    applied++;
+                } catch (RuntimeException e) {
+                    Log.error("Error applying a change to " + table.getKey() + " row " + key + ": " + e);
+                }
+            }
+        }
+        APPLIED.add(applied);
+        return applied;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.library;
+
+import java.sql.*;
+import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Loans and holds, one loan per title, each title's changes serialized by a stripe lock. Loans
+ * are kept in:
+ *
+ * <pre>
+ * CREATE TABLE loans (
+ *     book_id INT PRIMARY KEY,
+ *     username VARCHAR(255) NOT NULL,
+ *     checkout_date DATE NOT NULL,
+ *     due_date DATE NOT NULL)
+ * CREATE INDEX loans_due_date ON loans (due_date)
+ * </pre>
+ */
+class CirculationEngine {
+    static final int DEFAULT_LOAN_DAYS = 14;
+    private static final int STRIPES = 256;
+    private static final long HOLD_EXPIRY_PERIOD_SECONDS = 60;
+    private static final Metrics.Timer CHECKOUT_TIMER = Metrics.timer("circulation.checkout");
+    private static final Metrics.Timer RETURN_TIMER = Metrics.timer("circulation.return");
+    private static final Metrics.Timer RESERVE_TIMER = Metrics.timer("circulation.reserve");
+
+    static final WriteBehindJournal.Table LOANS_TABLE = new WriteBehindJournal.Table("loans",
+            "INSERT INTO loans (username, checkout_date, due_date, book_id) VALUES (?, ?, ?, ?)",
+            "UPDATE loans SET username = ?, checkout_date = ?, due_date = ? WHERE book_id = ?",
+            "DELETE FROM loans WHERE book_id = ?", true);
+
+    static class Loan {
+        final int bookId;
+        final String username;
+        final LocalDate checkoutDate;
+        final LocalDate dueDate;
+
+        Loan(int bookId, String username, LocalDate checkoutDate, LocalDate dueDate) {
+            this.bookId = bookId;
+            this.username = username;
+            this.checkoutDate = checkoutDate;
+            this.dueDate = dueDate;
+        }
+    }
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final Map<Integer, Loan> loans = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> loansByUser = new ConcurrentHashMap<>();
+    // Book ids on loan by due date, so reminders visit only the loans falling due in a window.
+    private final NavigableMap<LocalDate, Set<Integer>> loansByDueDate = new TreeMap<>();
+    private final WriteBehindJournal journal;
+    private final HoldQueue holds;
+    private final IntFunction<Book> books;
+    private final ReportCounters counters;
+    private final int loanDays;
+    private ConnectionProvider connectionProvider;
+    private volatile NotificationSystem notifications;
+    private volatile Holdings holdings;
+
+    /** Engine without a backing table, e.g. for benchmarks; loans are still journaled. */
+    public CirculationEngine(WriteBehindJournal journal, HoldQueue holds, IntFunction<Book> books, ReportCounters counters, int loanDays) {
+        this.journal = journal;
+        this.holds = holds;
+        this.books = books;
+        this.counters = counters;
+        this.loanDays = loanDays;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public CirculationEngine(ConnectionProvider connectionProvider, WriteBehindJournal journal, HoldQueue holds,
+                             IntFunction<Book> books, ReportCounters counters) {
+        this(journal, holds, books, counters, DEFAULT_LOAN_DAYS);
+        this.connectionProvider = connectionProvider;
+        journal.onRejected(LOANS_TABLE, key -> reloadLoan((Integer) key));
+        journal.onRejected(HoldQueue.HOLDS_TABLE, key -> reloadHold((Long) key));
+        loadLoansFromDatabase(connectionProvider);
+        holds.startExpiryScheduler(HOLD_EXPIRY_PERIOD_SECONDS, this::expireHold);
+    }
+
+    /** Sends checkout, return and hold notices through the given system; null turns them off. */
+    public void setNotifications(NotificationSystem notifications) {
+        this.notifications = notifications;
+    }
+
+    /**
+     * Copies whose status follows the title's loans and holds: a checkout lends one, a return
+     * shelves it or puts it on the pickup shelf. Null, or a title without copies, circulates the
+     * title alone. Loans are still one per title, so one copy of a title is out at a time.
+     */
+    public void setHoldings(Holdings holdings) {
+        this.holdings = holdings;
+    }
+
+    /**
+     * Returns the new loan, or null if the book is already out or none of its copies is on the
+     * shelf. A book waiting on the pickup shelf can only be checked out by the patron whose hold
+     * it is. The book, loan and copy rows are journaled as one transaction; if the database
+     * rejects it, all are reloaded from their rows.
+     */
+    public Loan checkout(Book book, User user) {
+        long start = System.nanoTime();
+        ReentrantLock lock = lockFor(book.id);
+        lock.lock();
+        try {
+            HoldQueue.Hold ready = null;
+            if (!book.isAvailable) {
+                ready = holds.readyHold(book.id);
+                if (ready == null || !ready.username.equals(user.username)) {
+                    return null;
+                }
+            }
+            HoldQueue.Hold fulfilled = ready;
+            LocalDate today = LocalDate.now();
+            Loan loan = new Loan(book.id, user.username, today, today.plusDays(loanDays));
+            boolean[] lent = { true };
+            journal.transaction(() -> {
+                if (!lendCopy(book.id, fulfilled != null)) {
+                    lent[0] = false;
+                    return;
+                }
+                if (fulfilled != null) {
+                    holds.fulfill(fulfilled);
+                }
+                if (book.isAvailable) {
+                    setAvailable(book, false);
+                }
+                index(loan);
+                counters.loanOpened(loan);
+                counters.borrowed(book);
+                journal.insert(LOANS_TABLE, book.id, loan.username, Date.valueOf(loan.checkoutDate), Date.valueOf(loan.dueDate), book.id);
+            });
+            if (!lent[0]) {
+                return null;
+            }
+            sendNotice(loan.username, NotificationSystem.Kind.CHECKOUT, "\"" + book.title + "\" is due back on " + loan.dueDate + ".");
+            return loan;
+        } finally {
+            lock.unlock();
+            CHECKOUT_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Returns false if the book was not checked out. If patrons are waiting, the returned copy
+     * goes to the pickup shelf for the next hold instead of becoming available. The loan delete
+     * and the book's new state are journaled as one transaction.
+     */
+    public boolean returnBook(Book book) {
+        long start = System.nanoTime();
+        ReentrantLock lock = lockFor(book.id);
+        lock.lock();
+        try {
+            if (book.isAvailable) {
+                return false;
+            }
+            // Out but not on loan: waiting on the pickup shelf, or lent by a node whose loan row has not reached us yet.
+            Loan loan = loans.get(book.id);
+            if (loan == null) {
+                return false;
+            }
+            journal.transaction(() -> {
+                unindex(book.id);
+                counters.loanClosed(loan);
+                journal.delete(LOANS_TABLE, book.id);
+                releaseCopy(book, Holdings.Status.ON_LOAN);
+            });
+            sendNotice(loan.username, NotificationSystem.Kind.RETURN, "\"" + book.title + "\" has been returned.");
+            return true;
+        } finally {
+            lock.unlock();
+            RETURN_TIMER.stop(start);
+        }
+    }
+
+    /** Queues a hold on a book that is out; returns null if it is on the shelf or already held by this patron. */
+    public HoldQueue.Hold reserve(Book book, User user, int priority) {
+        long start = System.nanoTime();
+        ReentrantLock lock = lockFor(book.id);
+        lock.lock();
+        try {
+            if (book.isAvailable) {
+                return null;
+            }
+            Loan loan = loans.get(book.id);
+            if (loan != null && loan.username.equals(user.username)) {
+                return null;
+            }
+            for (HoldQueue.Hold hold : holds.holdsFor(book.id)) {
+                if (hold.username.equals(user.username)) {
+                    return null;
+                }
+            }
+            return holds.place(book.id, user.username, priority);
+        } finally {
+            lock.unlock();
+            RESERVE_TIMER.stop(start);
+        }
+    }
+
+    public boolean cancelHold(long holdId) {
+        HoldQueue.Hold hold = holds.get(holdId);
+        if (hold == null) {
+            return false;
+        }
+        ReentrantLock lock = lockFor(hold.bookId);
+        lock.lock();
+        try {
+            boolean wasReady = hold.status == HoldQueue.Status.READY;
+            journal.transaction(() -> {
+                holds.cancel(hold);
+                if (wasReady) {
+                    Book book = books.apply(hold.bookId);
+                    if (book != null) {
+                        releaseCopy(book, Holdings.Status.ON_HOLD_SHELF);
+                    }
+                }
+            });
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public HoldQueue.Hold readyHold(int bookId) {
+        return holds.readyHold(bookId);
+    }
+
+    public int queueLength(int bookId) {
+        return holds.waitingCount(bookId);
+    }
+
+    public Loan loanFor(int bookId) {
+        return loans.get(bookId);
+    }
+
+    public Set<Integer> booksHeldBy(String username) {
+        Set<Integer> held = loansByUser.get(username);
+        return held == null ? Collections.emptySet() : Collections.unmodifiableSet(held);
+    }
+
+    public int activeLoans() {
+        return loans.size();
+    }
+
+    /** Loans due after the first date and on or before the second, read from the due-date index. */
+    public List<Loan> loansDueBetween(LocalDate afterExclusive, LocalDate throughInclusive) {
+        List<Integer> bookIds = new ArrayList<>();
+        synchronized (loansByDueDate) {
+            for (Set<Integer> due : loansByDueDate.subMap(afterExclusive, false, throughInclusive, true).values()) {
+                bookIds.addAll(due);
+            }
+        }
+        List<Loan> result = new ArrayList<>(bookIds.size());
+        for (int bookId : bookIds) {
+            Loan loan = loans.get(bookId);
+            if (loan != null && loan.dueDate.isAfter(afterExclusive) && !loan.dueDate.isAfter(throughInclusive)) {
+                result.add(loan);
+            }
+        }
+        return result;
+    }
+
+    Book book(int bookId) {
+        return books.apply(bookId);
+    }
+
+    ReentrantLock lockFor(int bookId) {
+        int h = bookId * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private void expireHold(HoldQueue.Hold hold) {
+        ReentrantLock lock = lockFor(hold.bookId);
+        lock.lock();
+        try {
+            boolean wasReady = hold.status == HoldQueue.Status.READY;
+            journal.transaction(() -> {
+                if (holds.expireIfDue(hold, Instant.now())) {
+                    Book book = books.apply(hold.bookId);
+                    sendNotice(hold.username, NotificationSystem.Kind.HOLD_EXPIRED,
+                            "Your hold on " + (book == null ? "book " + hold.bookId : "\"" + book.title + "\"") + " has expired.");
+                    if (wasReady && book != null) {
+                        releaseCopy(book, Holdings.Status.ON_HOLD_SHELF);
+                    }
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a copy of the title in the given status off the shelf for a loan; false if the title
+     * has copies but none in it. A hold being fulfilled may also take one from the open shelf,
+     * e.g. if its copy went missing. Caller holds the stripe lock.
+     */
+    private boolean lendCopy(int bookId, boolean fulfillingHold) {
+        Holdings holdings = this.holdings;
+        if (holdings == null || holdings.copies(bookId) == 0) {
+            return true;
+        }
+        return fulfillingHold && holdings.restatusCopy(bookId, Holdings.Status.ON_HOLD_SHELF, Holdings.Status.ON_LOAN) != 0
+                || holdings.restatusCopy(bookId, Holdings.Status.AVAILABLE, Holdings.Status.ON_LOAN) != 0;
+    }
+
+    /**
+     * Hands a copy that just came back, or was left on the pickup shelf, to the next hold, or
+     * puts it back on the open shelf. Caller holds the stripe lock.
+     */
+    private void releaseCopy(Book book, Holdings.Status from) {
+        HoldQueue.Hold next = holds.promoteNext(book.id);
+        Holdings holdings = this.holdings;
+        Holdings.Status to = next == null ? Holdings.Status.AVAILABLE : Holdings.Status.ON_HOLD_SHELF;
+        if (holdings != null && from != to) {
+            holdings.restatusCopy(book.id, from, to);
+        }
+        if (next == null) {
+            setAvailable(book, true);
+        } else {
+            sendNotice(next.username, NotificationSystem.Kind.HOLD_READY,
+                    "\"" + book.title + "\" is waiting for you at the pickup desk until " + next.expiresAt + ".");
+        }
+    }
+
+    private Loan unindex(int bookId) {
+        Loan loan = loans.remove(bookId);
+        if (loan != null) {
+            Set<Integer> held = loansByUser.get(loan.username);
+            if (held != null) {
+                held.remove(bookId);
+            }
+            synchronized (loansByDueDate) {
+                Set<Integer> due = loansByDueDate.get(loan.dueDate);
+                if (due != null && due.remove(bookId) && due.isEmpty()) {
+                    loansByDueDate.remove(loan.dueDate);
+                }
+            }
+        }
+        return loan;
+    }
+
+    private void index(Loan loan) {
+        loans.put(loan.bookId, loan);
+        loansByUser.computeIfAbsent(loan.username, k -> ConcurrentHashMap.newKeySet()).add(loan.bookId);
+        synchronized (loansByDueDate) {
+            loansByDueDate.computeIfAbsent(loan.dueDate, k -> new HashSet<>()).add(loan.bookId);
+        }
+    }
+
+    private void sendNotice(String username, NotificationSystem.Kind kind, String message) {
+        NotificationSystem notifications = this.notifications;
+        if (notifications != null) {
+            notifications.send(new NotificationSystem.Notification(username, kind, message));
+        }
+    }
+
+    private void setAvailable(Book book, boolean isAvailable) {
+        // Snapshot and submit under the book's monitor so a concurrent rename cannot be overwritten by a stale row.
+        synchronized (book) {
+            if (book.isAvailable != isAvailable) {
+                counters.availabilityChanged(isAvailable);
+            }
+            book.isAvailable = isAvailable;
+            BookSearch.updateBookInDatabase(journal, book);
+        }
+    }
+
+    /**
+     * Reloads the book, through the given reload, and its loan together under the book's stripe,
+     * so no checkout or return ever sees one changed without the other. Both are left alone while
+     * either has a write waiting to be flushed: the row changed, so that write carries a stale book
+     * version and will be rejected, which reloads them again.
+     */
+    void reload(int bookId, IntConsumer reloadBook) {
+        ReentrantLock lock = lockFor(bookId);
+        lock.lock();
+        try {
+            if (journal.pendingWrite(BookSearch.BOOKS_TABLE, bookId) != null || journal.pendingWrite(LOANS_TABLE, bookId) != null) {
+                return;
+            }
+            reloadBook.accept(bookId);
+            reloadLoan(bookId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the in-memory hold in line with its row, after the journal rejected a write to it or
+     * another node placed, promoted or finished it. Like a loan, the row is read under the stripe
+     * of the hold's book; a hold this node has never seen is read once first to find the book.
+     */
+    void reloadHold(long holdId) {
+        HoldQueue.Hold existing = holds.get(holdId);
+        int bookId;
+        if (existing != null) {
+            bookId = existing.bookId;
+        } else {
+            try {
+                HoldQueue.Hold row = holds.readRow(holdId);
+                if (row == null) {
+                    return;
+                }
+                bookId = row.bookId;
+            } catch (SQLException e) {
+                Log.error("Error reloading hold " + holdId + " from the database: " + e.getMessage());
+                return;
+            }
+        }
+        ReentrantLock lock = lockFor(bookId);
+        lock.lock();
+        try {
+            holds.reload(holdId, holds.readRow(holdId));
+        } catch (SQLException e) {
+            Log.error("Error reloading hold " + holdId + " from the database: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the in-memory loan on the book in line with its row, after the journal rejected a write
+     * to it or another node changed it. The row is read under the book's stripe so no local checkout
+     * or return can slip in after it; one still waiting to be flushed wins over the row.
+     */
+    private void reloadLoan(int bookId) {
+        ReentrantLock lock = lockFor(bookId);
+        lock.lock();
+        try {
+            if (journal.pendingWrite(LOANS_TABLE, bookId) != null) {
+                return;
+            }
+            Loan row = null;
+            try (PooledConnection connection = connectionProvider.acquire()) {
+                PreparedStatement statement = connection.prepare("SELECT book_id, username, checkout_date, due_date FROM loans WHERE book_id = ?");
+                statement.setInt(1, bookId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        row = mapLoan(resultSet);
+                    }
+                }
+            } catch (SQLException e) {
+                Log.error("Error reloading the loan on book " + bookId + " from the database: " + e.getMessage());
+                return;
+            }
+            Loan existing = unindex(bookId);
+            if (existing != null) {
+                counters.loanClosed(existing);
+            }
+            if (row != null) {
+                index(row);
+                counters.loanOpened(row);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Loan mapLoan(ResultSet resultSet) throws SQLException {
+        return new Loan(resultSet.getInt("book_id"), resultSet.getString("username"),
+                resultSet.getDate("checkout_date").toLocalDate(), resultSet.getDate("due_date").toLocalDate());
+    }
+
+    private void loadLoansFromDatabase(ConnectionProvider connectionProvider) {
+        String sql = "SELECT book_id, username, checkout_date, due_date FROM loans";
+        try (PooledConnection connection = connectionProvider.acquire();
+             ResultSet resultSet = connection.prepare(sql).executeQuery()) {
+            loans.clear();
+            loansByUser.clear();
+            synchronized (loansByDueDate) {
+                loansByDueDate.clear();
+            }
+            while (resultSet.next()) {
+                Loan loan = mapLoan(resultSet);
+                index(loan);
+                counters.loanOpened(loan);
+            }
+            Log.info("Loans loaded from database successfully.");
+        } catch (SQLException e) {
+            Log.error("Error loading loans from the database: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.library;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Column-oriented catalog: one slot per book, titles packed into shared UTF-8 byte pools,
+ * authors dictionary-encoded and availability kept in bitmaps. Book objects are only
+ * materialized for lookups and search results; each call returns a new copy. Backs
+ * {@link BookSearch} in {@link LoadMode#COMPACT}.
+ */
+class CompactBookStore {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] authorIds = new int[INITIAL_CAPACITY];
+    private int[] versions = new int[INITIAL_CAPACITY];
+    private int[] titleOffsets = new int[INITIAL_CAPACITY];
+    private int[] titleLengths = new int[INITIAL_CAPACITY];
+    private int[] titleKeyOffsets = new int[INITIAL_CAPACITY];
+    private int[] titleKeyLengths = new int[INITIAL_CAPACITY];
+    private final BitSet live = new BitSet();
+    private final BitSet available = new BitSet();
+    private int slots;
+    private int liveCount;
+
+    private byte[] titles = new byte[INITIAL_CAPACITY * 16];
+    private byte[] titleKeys = new byte[INITIAL_CAPACITY * 16];
+    private int titlesUsed;
+    private int titleKeysUsed;
+    private int garbageBytes;
+
+    private final List<String> authorNames = new ArrayList<>();
+    private final List<String> authorKeys = new ArrayList<>();
+    private final Map<String, Integer> authorIdsByName = new HashMap<>();
+
+    private final IntIntMap slotById = new IntIntMap();
+
+    public synchronized void add(int id, String title, String author, boolean isAvailable) {
+        add(id, title, author, isAvailable, 0);
+    }
+
+    public synchronized void add(int id, String title, String author, boolean isAvailable, int version) {
+        if (slotById.get(id) >= 0) {
+            throw new IllegalArgumentException("Duplicate book ID " + id);
+        }
+        if (slots == ids.length) {
+            grow();
+        }
+        int slot = slots++;
+        ids[slot] = id;
+        writeTitle(slot, title);
+        authorIds[slot] = authorId(author);
+        versions[slot] = version;
+        live.set(slot);
+        available.set(slot, isAvailable);
+        slotById.put(id, slot);
+        liveCount++;
+    }
+
+    /** Adds the book or overwrites every column of the one with its id. */
+    public synchronized void put(int id, String title, String author, boolean isAvailable, int version) {
+        int slot = slotById.get(id);
+        if (slot < 0) {
+            add(id, title, author, isAvailable, version);
+            return;
+        }
+        if (!titleEquals(slot, title)) {
+            garbageBytes += titleLengths[slot] + titleKeyLengths[slot];
+            writeTitle(slot, title);
+        }
+        authorIds[slot] = authorId(author);
+        versions[slot] = version;
+        available.set(slot, isAvailable);
+        compactIfWasteful();
+    }
+
+    public synchronized boolean contains(int id) {
+        return slotById.get(id) >= 0;
+    }
+
+    public synchronized Book get(int id) {
+        int slot = slotById.get(id);
+        return slot < 0 ? null : materialize(slot);
+    }
+
+    public synchronized boolean update(int id, String title, String author) {
+        int slot = slotById.get(id);
+        if (slot < 0) {
+            return false;
+        }
+        garbageBytes += titleLengths[slot] + titleKeyLengths[slot];
+        writeTitle(slot, title);
+        authorIds[slot] = authorId(author);
+        compactIfWasteful();
+        return true;
+    }
+
+    public synchronized boolean setAvailable(int id, boolean isAvailable) {
+        int slot = slotById.get(id);
+        if (slot < 0) {
+            return false;
+        }
+        available.set(slot, isAvailable);
+        return true;
+    }
+
+    public synchronized boolean remove(int id) {
+        int slot = slotById.remove(id);
+        if (slot < 0) {
+            return false;
+        }
+        live.clear(slot);
+        available.clear(slot);
+        garbageBytes += titleLengths[slot] + titleKeyLengths[slot];
+        liveCount--;
+        compactIfWasteful();
+        return true;
+    }
+
+    /** The lowest-slot book with exactly this title, or -1; a scan over the title pool. */
+    public synchronized int idOfTitle(String title) {
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            if (equals(titles, titleOffsets[slot], titleLengths[slot], bytes)) {
+                return ids[slot];
+            }
+        }
+        return -1;
+    }
+
+    /** "title\nauthor" for every book whose title is in the set, for duplicate checks on import. */
+    public synchronized Set<String> titleAuthors(Set<String> titleSet) {
+        Set<String> result = new HashSet<>();
+        if (titleSet.isEmpty()) {
+            return result;
+        }
+        Set<Integer> lengths = new HashSet<>();
+        for (String title : titleSet) {
+            lengths.add(title.getBytes(StandardCharsets.UTF_8).length);
+        }
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            // Only decode titles of a length some wanted title has.
+            if (lengths.contains(titleLengths[slot])) {
+                String title = new String(titles, titleOffsets[slot], titleLengths[slot], StandardCharsets.UTF_8);
+                if (titleSet.contains(title)) {
+                    result.add(title + '\n' + authorNames.get(authorIds[slot]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Every book, in slot order. */
+    public synchronized List<Book> all() {
+        List<Book> result = new ArrayList<>(liveCount);
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            result.add(materialize(slot));
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    public synchronized int availableCount() {
+        return available.cardinality();
+    }
+
+    public synchronized Map<String, Integer> countByAuthor() {
+        int[] counts = new int[authorNames.size()];
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            counts[authorIds[slot]]++;
+        }
+        Map<String, Integer> result = new HashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                result.put(authorNames.get(i), counts[i]);
+            }
+        }
+        return result;
+    }
+
+    public synchronized List<Book> search(String query) {
+        String key = query.toLowerCase();
+        if (key.isEmpty()) {
+            return new ArrayList<>();
+        }
+        byte[] needle = key.getBytes(StandardCharsets.UTF_8);
+        BitSet matchingAuthors = new BitSet(authorKeys.size());
+        for (int i = 0; i < authorKeys.size(); i++) {
+            if (authorKeys.get(i).contains(key)) {
+                matchingAuthors.set(i);
+            }
+        }
+
+        List<Book> matches = new ArrayList<>();
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            if (matchingAuthors.get(authorIds[slot])
+                    || contains(titleKeys, titleKeyOffsets[slot], titleKeyLengths[slot], needle)) {
+                Book book = materialize(slot);
+                // Short keys only match at the start of a word, as in BookIndex.
+                if (key.length() >= BookIndex.MIN_SUBSTRING_QUERY || BookIndex.matches(book, key)) {
+                    matches.add(book);
+                }
+            }
+        }
+        matches.sort(BookIndex.ranking(key));
+        return matches;
+    }
+
+    private Book materialize(int slot) {
+        Book book = new Book(ids[slot],
+                new String(titles, titleOffsets[slot], titleLengths[slot], StandardCharsets.UTF_8),
+                authorNames.get(authorIds[slot]));
+        book.isAvailable = available.get(slot);
+        book.version = versions[slot];
+        return book;
+    }
+
+    private void writeTitle(int slot, String title) {
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = title.toLowerCase().getBytes(StandardCharsets.UTF_8);
+        titles = ensureCapacity(titles, titlesUsed + bytes.length);
+        titleKeys = ensureCapacity(titleKeys, titleKeysUsed + keyBytes.length);
+        System.arraycopy(bytes, 0, titles, titlesUsed, bytes.length);
+        System.arraycopy(keyBytes, 0, titleKeys, titleKeysUsed, keyBytes.length);
+        titleOffsets[slot] = titlesUsed;
+        titleLengths[slot] = bytes.length;
+        titleKeyOffsets[slot] = titleKeysUsed;
+        titleKeyLengths[slot] = keyBytes.length;
+        titlesUsed += bytes.length;
+        titleKeysUsed += keyBytes.length;
+    }
+
+    private int authorId(String author) {
+        Integer id = authorIdsByName.get(author);
+        if (id == null) {
+            id = authorNames.size();
+            authorNames.add(author);
+            authorKeys.add(author.toLowerCase());
+            authorIdsByName.put(author, id);
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        authorIds = Arrays.copyOf(authorIds, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        titleOffsets = Arrays.copyOf(titleOffsets, capacity);
+        titleLengths = Arrays.copyOf(titleLengths, capacity);
+        titleKeyOffsets = Arrays.copyOf(titleKeyOffsets, capacity);
+        titleKeyLengths = Arrays.copyOf(titleKeyLengths, capacity);
+    }
+
+    /** Rewrites the slots and byte pools once more than half of the pooled bytes are dead. */
+    private void compactIfWasteful() {
+        if (garbageBytes < (titlesUsed + titleKeysUsed) / 2) {
+            return;
+        }
+        byte[] oldTitles = titles;
+        byte[] oldTitleKeys = titleKeys;
+        titles = new byte[Math.max(titlesUsed - garbageBytes / 2, 16)];
+        titleKeys = new byte[Math.max(titleKeysUsed - garbageBytes / 2, 16)];
+        titlesUsed = 0;
+        titleKeysUsed = 0;
+        int target = 0;
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            titles = ensureCapacity(titles, titlesUsed + titleLengths[slot]);
+            titleKeys = ensureCapacity(titleKeys, titleKeysUsed + titleKeyLengths[slot]);
+            System.arraycopy(oldTitles, titleOffsets[slot], titles, titlesUsed, titleLengths[slot]);
+            System.arraycopy(oldTitleKeys, titleKeyOffsets[slot], titleKeys, titleKeysUsed, titleKeyLengths[slot]);
+            ids[target] = ids[slot];
+            authorIds[target] = authorIds[slot];
+            versions[target] = versions[slot];
+            titleOffsets[target] = titlesUsed;
+            titleLengths[target] = titleLengths[slot];
+            titleKeyOffsets[target] = titleKeysUsed;
+            titleKeyLengths[target] = titleKeyLengths[slot];
+            boolean isAvailable = available.get(slot);
+            available.clear(slot);
+            available.set(target, isAvailable);
+            titlesUsed += titleLengths[target];
+            titleKeysUsed += titleKeyLengths[target];
+            slotById.put(ids[target], target);
+            target++;
+        }
+        live.clear();
+        live.set(0, target);
+        available.clear(target, Math.max(slots, target));
+        slots = target;
+        garbageBytes = 0;
+    }
+
+    private static byte[] ensureCapacity(byte[] pool, int required) {
+        if (required <= pool.length) {
+            return pool;
+        }
+        return Arrays.copyOf(pool, Math.max(required, pool.length * 2));
+    }
+
+    private boolean titleEquals(int slot, String title) {
+        return equals(titles, titleOffsets[slot], titleLengths[slot], title.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean equals(byte[] pool, int offset, int length, byte[] bytes) {
+        return length == bytes.length && Arrays.equals(pool, offset, offset + length, bytes, 0, bytes.length);
+    }
+
+    private static boolean contains(byte[] haystack, int offset, int length, byte[] needle) {
+        if (needle.length == 0) {
+            return true;
+        }
+        int last = offset + length - needle.length;
+        outer:
+        for (int i = offset; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Open-addressing int-to-int map with linear probing; missing keys map to -1. */
+    private static class IntIntMap {
+        private static final int EMPTY = Integer.MIN_VALUE;
+        private static final int REMOVED = Integer.MIN_VALUE + 1;
+
+        private int[] keys = newKeys(1024);
+        private int[] values = new int[1024];
+        private int used;
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(int key, int value) {
+            if ((used + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int tombstone = -1;
+            int i = mix(key) & mask;
+            for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                if (keys[i] == REMOVED && tombstone < 0) {
+                    tombstone = i;
+                }
+            }
+            if (tombstone >= 0) {
+                i = tombstone;
+            } else {
+                used++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        int remove(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    keys[i] = REMOVED;
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = newKeys(capacity);
+            values = new int[capacity];
+            used = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY && oldKeys[i] != REMOVED) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int[] newKeys(int capacity) {
+            int[] keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.library;
+
+import java.sql.*;
+import java.util.concurrent.*;
+
+class ConnectionPool implements ConnectionProvider {
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final Metrics.Timer ACQUIRE_TIMER = Metrics.timer("db.acquire");
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int statementCacheSize;
+    private final long acquireTimeoutMillis;
+    private final Semaphore permits;
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String username, String password, int maxSize) {
+        this(url, username, password, maxSize, DEFAULT_STATEMENT_CACHE_SIZE, 10_000);
+    }
+
+    public ConnectionPool(String url, String username, String password, int maxSize, int statementCacheSize, long acquireTimeoutMillis) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.statementCacheSize = statementCacheSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    @Override
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a database connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection.", e);
+        } finally {
+            ACQUIRE_TIMER.stop(start);
+        }
+        try {
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (isHealthy(connection)) {
+                    connection.checkOut();
+                    return connection;
+                }
+                connection.closePhysical();
+            }
+            return new PooledConnection(DriverManager.getConnection(url, username, password), this, statementCacheSize);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Takes back a connection from PooledConnection.close(). */
+    void release(PooledConnection connection) {
+        try {
+            Connection raw = connection.connection();
+            if (closed || raw.isClosed()) {
+                connection.closePhysical();
+            } else {
+                if (!raw.getAutoCommit()) {
+                    raw.rollback();
+                    raw.setAutoCommit(true);
+                }
+                idle.offerFirst(connection);
+            }
+        } catch (SQLException e) {
+            connection.closePhysical();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.closePhysical();
+        }
+    }
+
+    private boolean isHealthy(PooledConnection connection) {
+        try {
+            Connection raw = connection.connection();
+            if (raw.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - connection.lastUsed > VALIDATE_AFTER_IDLE_MILLIS) {
+                return raw.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.library;
+
+import java.sql.SQLException;
+
+interface ConnectionProvider extends AutoCloseable {
+    PooledConnection acquire() throws SQLException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,84 @@
+package com.library;
+
+import java.time.LocalDate;
+import java.util.concurrent.*;
+
+/**
+ * Periodically sends due-soon and overdue notices. Each scan asks the circulation due-date index
+ * only for the days that entered a window since the previous scan, so every loan gets at most
+ * one notice of each kind and the cost follows the loans falling due, not the loan table.
+ * Sent notices are not persisted: after a restart, scanning resumes from the current day.
+ */
+class DueDateReminders implements AutoCloseable {
+    static final int DEFAULT_DUE_SOON_DAYS = 2;
+    static final long DEFAULT_PERIOD_MINUTES = 60;
+
+    private final CirculationEngine circulation;
+    private final NotificationSystem notifications;
+    private final int dueSoonDays;
+    // Last due dates already covered by the due-soon and overdue windows.
+    private LocalDate dueSoonThrough;
+    private LocalDate overdueThrough;
+    private ScheduledExecutorService scheduler;
+
+    public DueDateReminders(CirculationEngine circulation, NotificationSystem notifications, int dueSoonDays) {
+        this.circulation = circulation;
+        this.notifications = notifications;
+        this.dueSoonDays = dueSoonDays;
+    }
+
+    /** Sends the notices that became due as of today; returns how many were queued. */
+    public synchronized int scan(LocalDate today) {
+        int sent = 0;
+        LocalDate soonHorizon = today.plusDays(dueSoonDays);
+        LocalDate from = dueSoonThrough == null ? today.minusDays(1) : dueSoonThrough;
+        if (soonHorizon.isAfter(from)) {
+            for (CirculationEngine.Loan loan : circulation.loansDueBetween(from, soonHorizon)) {
+                notice(loan, NotificationSystem.Kind.DUE_SOON, "is due back on " + loan.dueDate + ".");
+                sent++;
+            }
+            dueSoonThrough = soonHorizon;
+        }
+        LocalDate yesterday = today.minusDays(1);
+        from = overdueThrough == null ? today.minusDays(2) : overdueThrough;
+        if (yesterday.isAfter(from)) {
+            for (CirculationEngine.Loan loan : circulation.loansDueBetween(from, yesterday)) {
+                notice(loan, NotificationSystem.Kind.OVERDUE, "was due back on " + loan.dueDate + " and is overdue.");
+                sent++;
+            }
+            overdueThrough = yesterday;
+        }
+        return sent;
+    }
+
+    public synchronized void start(long periodMinutes) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "due-date-reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                scan(LocalDate.now());
+            } catch (RuntimeException e) {
+                Log.error("Error sending due-date reminders: " + e.getMessage());
+            }
+        }, 0, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void notice(CirculationEngine.Loan loan, NotificationSystem.Kind kind, String text) {
+        Book book = circulation.book(loan.bookId);
+        String title = book == null ? "Book " + loan.bookId : "\"" + book.title + "\"";
+        notifications.send(new NotificationSystem.Notification(loan.username, kind, title + " " + text));
+    }
+}
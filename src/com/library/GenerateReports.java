@@ -0,0 +1,60 @@
+package com.library;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+class GenerateReports {
+    public void generateReports(ReportCounters counters) {
+        ReportCounters.Snapshot report = counters.snapshot();
+        System.out.println("Generating reports:");
+        System.out.println("Total books: " + report.totalBooks);
+        System.out.println("Available books: " + report.availableBooks);
+        System.out.println("Checked out books: " + report.checkedOutBooks);
+        System.out.println("Active loans: " + report.activeLoans + " (" + report.overdueLoans + " overdue)");
+        if (!report.topBorrowed.isEmpty()) {
+            System.out.println("Most borrowed titles:");
+            report.topBorrowed.forEach(entry -> System.out.println("  " + entry.getKey() + " (" + entry.getValue() + ")"));
+        }
+    }
+
+    /** Copies and available copies per branch, read from the maintained branch totals. */
+    public void generateReports(Holdings holdings) {
+        SortedMap<Integer, String> branches = holdings.branches();
+        if (branches.isEmpty()) {
+            return;
+        }
+        System.out.println("Copies by branch:");
+        branches.forEach((id, name) -> System.out.println("  " + name + ": " + holdings.availableAtBranch(id) + " of "
+                + holdings.copiesAtBranch(id) + " copies available"));
+    }
+
+    /** Catalog totals from one pass over the compact store's availability bitmap and author column. */
+    public void generateReports(CompactBookStore store) {
+        int total = store.size();
+        int availableCount = store.availableCount();
+        System.out.println("Catalog scan: " + total + " books, " + availableCount + " available, "
+                + (total - availableCount) + " checked out, " + store.countByAuthor().size() + " authors");
+    }
+
+    public void exportReports(ReportCounters counters, Path file) {
+        ReportCounters.Snapshot report = counters.snapshot(true);
+        String content = file.toString().toLowerCase().endsWith(".json") ? report.toJson() : report.toCsv();
+        try {
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            Log.info("Report exported to " + file + ".");
+        } catch (IOException e) {
+            Log.error("Error exporting report: " + e.getMessage());
+        }
+    }
+
+    public void generateReports(Collection<Book> books) {
+        System.out.println("Generating reports:");
+        System.out.println("Total books: " + books.size());
+        long availableCount = books.stream().filter(book -> book.isAvailable).count();
+        System.out.println("Available books: " + availableCount);
+        long checkedOutCount = books.size() - availableCount;
+        System.out.println("Checked out books: " + checkedOutCount);
+    }
+}
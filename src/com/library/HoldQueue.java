@@ -0,0 +1,374 @@
+package com.library;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Per-book hold queues ordered by priority then arrival, plus one global min-heap of expiry
+ * times so stale holds are found without scanning every queue. Callers that change a book's
+ * circulation state hold that book's CirculationEngine stripe lock around these calls. Holds
+ * are kept in:
+ *
+ * <pre>
+ * CREATE TABLE holds (
+ *     id BIGINT PRIMARY KEY,
+ *     book_id INT NOT NULL,
+ *     username VARCHAR(255) NOT NULL,
+ *     priority INT NOT NULL,
+ *     status VARCHAR(16) NOT NULL,
+ *     placed_at TIMESTAMP NOT NULL,
+ *     expires_at TIMESTAMP NOT NULL)
+ * CREATE INDEX holds_book_id ON holds (book_id)
+ * </pre>
+ */
+class HoldQueue implements AutoCloseable {
+    static final Duration DEFAULT_WAIT_LIMIT = Duration.ofDays(90);
+    static final Duration DEFAULT_PICKUP_WINDOW = Duration.ofDays(3);
+
+    static final WriteBehindJournal.Table HOLDS_TABLE = new WriteBehindJournal.Table("holds",
+            "INSERT INTO holds (book_id, username, priority, status, placed_at, expires_at, id) VALUES (?, ?, ?, ?, ?, ?, ?)",
+            "UPDATE holds SET book_id = ?, username = ?, priority = ?, status = ?, placed_at = ?, expires_at = ? WHERE id = ?",
+            "DELETE FROM holds WHERE id = ?", true);
+
+    enum Status { WAITING, READY, FULFILLED, EXPIRED, CANCELLED }
+
+    static class Hold {
+        final long id;
+        final int bookId;
+        final String username;
+        final int priority;
+        final Instant placedAt;
+        volatile Status status;
+        volatile Instant expiresAt;
+
+        Hold(long id, int bookId, String username, int priority, Instant placedAt, Status status, Instant expiresAt) {
+            this.id = id;
+            this.bookId = bookId;
+            this.username = username;
+            this.priority = priority;
+            this.placedAt = placedAt;
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class BookHolds {
+        final PriorityQueue<Hold> waiting = new PriorityQueue<>(
+                Comparator.comparingInt((Hold hold) -> -hold.priority).thenComparingLong(hold -> hold.id));
+        Hold ready;
+    }
+
+    private static class Expiry {
+        final Instant at;
+        final Hold hold;
+
+        Expiry(Instant at, Hold hold) {
+            this.at = at;
+            this.hold = hold;
+        }
+    }
+
+    private final Map<Integer, BookHolds> holdsByBook = new ConcurrentHashMap<>();
+    private final Map<Long, Hold> activeHolds = new ConcurrentHashMap<>();
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<>(Comparator.comparing((Expiry expiry) -> expiry.at));
+    private final AtomicLong nextId = new AtomicLong(1);
+    private volatile IdBlocks idBlocks;
+    private final WriteBehindJournal journal;
+    private ConnectionProvider connectionProvider;
+    private final Duration waitLimit;
+    private final Duration pickupWindow;
+    private ScheduledExecutorService expiryScheduler;
+
+    public HoldQueue(WriteBehindJournal journal, Duration waitLimit, Duration pickupWindow) {
+        this.journal = journal;
+        this.waitLimit = waitLimit;
+        this.pickupWindow = pickupWindow;
+    }
+
+    public HoldQueue(ConnectionProvider connectionProvider, WriteBehindJournal journal) {
+        this(journal, DEFAULT_WAIT_LIMIT, DEFAULT_PICKUP_WINDOW);
+        this.connectionProvider = connectionProvider;
+        loadHoldsFromDatabase(connectionProvider);
+    }
+
+    /** Shared id blocks for new holds when several nodes use the database; null numbers them locally. */
+    public void setIdBlocks(IdBlocks idBlocks) {
+        if (idBlocks != null) {
+            idBlocks.prefetch(idFloor());
+        }
+        this.idBlocks = idBlocks;
+    }
+
+    public Hold place(int bookId, String username, int priority) {
+        Instant now = Instant.now();
+        Hold hold = new Hold(allocateId(), bookId, username, priority, now, Status.WAITING, now.plus(waitLimit));
+        BookHolds holds = holdsByBook.computeIfAbsent(bookId, k -> new BookHolds());
+        synchronized (holds) {
+            holds.waiting.add(hold);
+        }
+        activeHolds.put(hold.id, hold);
+        scheduleExpiry(hold);
+        save(hold, WriteBehindJournal.Kind.INSERT);
+        return hold;
+    }
+
+    /** Moves the first waiting hold onto the pickup shelf; returns null if nobody is waiting. */
+    public Hold promoteNext(int bookId) {
+        BookHolds holds = holdsByBook.get(bookId);
+        if (holds == null) {
+            return null;
+        }
+        Hold next;
+        synchronized (holds) {
+            next = holds.waiting.poll();
+            if (next == null) {
+                return null;
+            }
+            next.status = Status.READY;
+            next.expiresAt = Instant.now().plus(pickupWindow);
+            holds.ready = next;
+        }
+        scheduleExpiry(next);
+        save(next, WriteBehindJournal.Kind.UPDATE);
+        return next;
+    }
+
+    public Hold readyHold(int bookId) {
+        BookHolds holds = holdsByBook.get(bookId);
+        if (holds == null) {
+            return null;
+        }
+        synchronized (holds) {
+            return holds.ready;
+        }
+    }
+
+    public void fulfill(Hold hold) {
+        finish(hold, Status.FULFILLED);
+    }
+
+    public Hold get(long holdId) {
+        return activeHolds.get(holdId);
+    }
+
+    public void cancel(Hold hold) {
+        finish(hold, Status.CANCELLED);
+    }
+
+    /** Expires the hold if it is still active and past its deadline. */
+    public boolean expireIfDue(Hold hold, Instant now) {
+        if ((hold.status != Status.WAITING && hold.status != Status.READY) || hold.expiresAt.isAfter(now)) {
+            return false;
+        }
+        finish(hold, Status.EXPIRED);
+        return true;
+    }
+
+    public int waitingCount(int bookId) {
+        BookHolds holds = holdsByBook.get(bookId);
+        if (holds == null) {
+            return 0;
+        }
+        synchronized (holds) {
+            return holds.waiting.size();
+        }
+    }
+
+    public List<Hold> holdsFor(int bookId) {
+        BookHolds holds = holdsByBook.get(bookId);
+        List<Hold> result = new ArrayList<>();
+        if (holds != null) {
+            synchronized (holds) {
+                if (holds.ready != null) {
+                    result.add(holds.ready);
+                }
+                List<Hold> waiting = new ArrayList<>(holds.waiting);
+                waiting.sort(holds.waiting.comparator());
+                result.addAll(waiting);
+            }
+        }
+        return result;
+    }
+
+    /** Pops holds whose deadline has passed; each pop is O(log n) in the number of active holds. */
+    public List<Hold> pollDue(Instant now) {
+        List<Hold> due = new ArrayList<>();
+        synchronized (expiries) {
+            while (!expiries.isEmpty() && !expiries.peek().at.isAfter(now)) {
+                Expiry expiry = expiries.poll();
+                // Entries are never removed in place; skip ones superseded by a later deadline or a final status.
+                if (expiry.at.equals(expiry.hold.expiresAt)
+                        && (expiry.hold.status == Status.WAITING || expiry.hold.status == Status.READY)) {
+                    due.add(expiry.hold);
+                }
+            }
+        }
+        return due;
+    }
+
+    public synchronized void startExpiryScheduler(long periodSeconds, Consumer<Hold> onDue) {
+        if (expiryScheduler != null) {
+            return;
+        }
+        expiryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hold-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                pollDue(Instant.now()).forEach(onDue);
+            } catch (RuntimeException e) {
+                Log.error("Error expiring holds: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (expiryScheduler != null) {
+            expiryScheduler.shutdownNow();
+        }
+    }
+
+    /** Reads the hold's row; null if there is none, i.e. the hold was finished. */
+    Hold readRow(long holdId) throws SQLException {
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            PreparedStatement statement = connection.prepare(
+                    "SELECT id, book_id, username, priority, status, placed_at, expires_at FROM holds WHERE id = ?");
+            statement.setLong(1, holdId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? mapHold(resultSet) : null;
+            }
+        }
+    }
+
+    /**
+     * Puts the in-memory hold in line with its row, read by {@link #readRow}, without journaling
+     * anything; a write to the hold still waiting to be flushed wins over the row. A hold whose
+     * row is gone was finished elsewhere and is dropped as cancelled. Caller holds the book's
+     * stripe lock.
+     */
+    void reload(long holdId, Hold row) {
+        if (journal.pendingWrite(HOLDS_TABLE, holdId) != null) {
+            return;
+        }
+        Hold existing = activeHolds.get(holdId);
+        if (existing == null) {
+            if (row != null) {
+                link(row);
+                nextId.accumulateAndGet(row.id + 1, Math::max);
+            }
+            return;
+        }
+        if (row == null) {
+            unlink(existing, Status.CANCELLED);
+            return;
+        }
+        if (existing.status == row.status && existing.expiresAt.equals(row.expiresAt)) {
+            return;
+        }
+        unlink(existing, existing.status);
+        existing.status = row.status;
+        existing.expiresAt = row.expiresAt;
+        link(existing);
+    }
+
+    private void finish(Hold hold, Status status) {
+        unlink(hold, status);
+        journal.delete(HOLDS_TABLE, hold.id);
+    }
+
+    private void link(Hold hold) {
+        BookHolds holds = holdsByBook.computeIfAbsent(hold.bookId, k -> new BookHolds());
+        synchronized (holds) {
+            if (hold.status == Status.READY) {
+                holds.ready = hold;
+            } else {
+                holds.waiting.add(hold);
+            }
+        }
+        activeHolds.put(hold.id, hold);
+        scheduleExpiry(hold);
+    }
+
+    private void unlink(Hold hold, Status status) {
+        activeHolds.remove(hold.id);
+        BookHolds holds = holdsByBook.get(hold.bookId);
+        if (holds != null) {
+            synchronized (holds) {
+                hold.status = status;
+                if (holds.ready == hold) {
+                    holds.ready = null;
+                } else {
+                    holds.waiting.remove(hold);
+                }
+                if (holds.ready == null && holds.waiting.isEmpty()) {
+                    holdsByBook.remove(hold.bookId, holds);
+                }
+            }
+        } else {
+            hold.status = status;
+        }
+    }
+
+    private long allocateId() {
+        IdBlocks idBlocks = this.idBlocks;
+        if (idBlocks == null) {
+            return nextId.getAndIncrement();
+        }
+        long id = idBlocks.next(idFloor());
+        nextId.accumulateAndGet(id + 1, Math::max);
+        return id;
+    }
+
+    private int idFloor() {
+        return (int) Math.min(nextId.get(), Integer.MAX_VALUE);
+    }
+
+    private void scheduleExpiry(Hold hold) {
+        synchronized (expiries) {
+            expiries.add(new Expiry(hold.expiresAt, hold));
+        }
+    }
+
+    private void save(Hold hold, WriteBehindJournal.Kind kind) {
+        Object[] row = { hold.bookId, hold.username, hold.priority, hold.status.name(),
+                Timestamp.from(hold.placedAt), Timestamp.from(hold.expiresAt), hold.id };
+        if (kind == WriteBehindJournal.Kind.INSERT) {
+            journal.insert(HOLDS_TABLE, hold.id, row);
+        } else {
+            journal.update(HOLDS_TABLE, hold.id, row);
+        }
+    }
+
+    private static Hold mapHold(ResultSet resultSet) throws SQLException {
+        return new Hold(resultSet.getLong("id"), resultSet.getInt("book_id"), resultSet.getString("username"),
+                resultSet.getInt("priority"), resultSet.getTimestamp("placed_at").toInstant(),
+                Status.valueOf(resultSet.getString("status")), resultSet.getTimestamp("expires_at").toInstant());
+    }
+
+    private void loadHoldsFromDatabase(ConnectionProvider connectionProvider) {
+        String sql = "SELECT id, book_id, username, priority, status, placed_at, expires_at FROM holds ORDER BY id";
+        try (PooledConnection connection = connectionProvider.acquire();
+             ResultSet resultSet = connection.prepare(sql).executeQuery()) {
+            holdsByBook.clear();
+            activeHolds.clear();
+            synchronized (expiries) {
+                expiries.clear();
+            }
+            while (resultSet.next()) {
+                Hold hold = mapHold(resultSet);
+                link(hold);
+                nextId.accumulateAndGet(hold.id + 1, Math::max);
+            }
+            Log.info("Holds loaded from database successfully.");
+        } catch (SQLException e) {
+            Log.error("Error loading holds from the database: " + e.getMessage());
+        }
+    }
+}
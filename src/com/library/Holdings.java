@@ -0,0 +1,688 @@
+package com.library;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Copy-level holdings: every physical copy of a title, the branch that owns it and its status.
+ * Copies are columns in primitive arrays indexed by copy id, 11 bytes a copy, so tens of
+ * millions of them fit in a few hundred megabytes. Every (title, branch) shelf keeps counts of
+ * its copies and available copies that each change adjusts, as do per-title and per-branch
+ * totals, so "available copies of a title at a branch" is one hash probe rather than a scan.
+ * With shared id blocks a node's copy ids jump a block at a time, leaving array slots unused.
+ *
+ * <pre>
+ * CREATE TABLE branches (
+ *     id SMALLINT PRIMARY KEY,
+ *     name VARCHAR(255) NOT NULL UNIQUE)
+ * CREATE TABLE copies (
+ *     id INT PRIMARY KEY,
+ *     book_id INT NOT NULL,
+ *     branch_id SMALLINT NOT NULL,
+ *     status VARCHAR(16) NOT NULL)
+ * CREATE INDEX copies_book_id ON copies (book_id)
+ * </pre>
+ */
+class Holdings {
+    static final WriteBehindJournal.Table BRANCHES_TABLE = new WriteBehindJournal.Table("branches",
+            "INSERT INTO branches (name, id) VALUES (?, ?)",
+            "UPDATE branches SET name = ? WHERE id = ?",
+            "DELETE FROM branches WHERE id = ?", true);
+    static final WriteBehindJournal.Table COPIES_TABLE = new WriteBehindJournal.Table("copies",
+            "INSERT INTO copies (book_id, branch_id, status, id) VALUES (?, ?, ?, ?)",
+            "UPDATE copies SET book_id = ?, branch_id = ?, status = ? WHERE id = ?",
+            "DELETE FROM copies WHERE id = ?", true);
+    static final int MAX_BRANCHES = Short.MAX_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    enum Status { AVAILABLE, ON_LOAN, ON_HOLD_SHELF, IN_TRANSIT, IN_REPAIR, MISSING }
+
+    private static final Status[] STATUSES = Status.values();
+
+    static class Copy {
+        final int id;
+        final int bookId;
+        final int branchId;
+        final Status status;
+
+        Copy(int id, int bookId, int branchId, Status status) {
+            this.id = id;
+            this.bookId = bookId;
+            this.branchId = branchId;
+            this.status = status;
+        }
+    }
+
+    private int[] bookOf = new int[INITIAL_CAPACITY];
+    private short[] branchOf = new short[INITIAL_CAPACITY];
+    private byte[] statusOf = new byte[INITIAL_CAPACITY];
+    // Next copy of the same title at the same branch; 0 ends the shelf.
+    private int[] nextOnShelf = new int[INITIAL_CAPACITY];
+    private final Shelves shelves = new Shelves();
+    // Totals over all branches, indexed by book id.
+    private int[] copiesOfTitle = new int[INITIAL_CAPACITY];
+    private int[] availableOfTitle = new int[INITIAL_CAPACITY];
+    private int[] copiesAtBranch = new int[16];
+    private int[] availableAtBranch = new int[16];
+    private final List<String> branchNames = new ArrayList<>(Collections.singletonList(null));
+    private final Map<String, Integer> branchIds = new HashMap<>();
+    private int copyCount;
+    private int nextCopyId = 1;
+    private volatile IdBlocks copyIds;
+    private volatile IdBlocks branchIdBlocks;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final WriteBehindJournal journal;
+    private ConnectionProvider connectionProvider;
+
+    /** Holdings without a backing table, e.g. for benchmarks; changes are still journaled. */
+    public Holdings(WriteBehindJournal journal) {
+        this.journal = journal;
+    }
+
+    public Holdings(ConnectionProvider connectionProvider, WriteBehindJournal journal) {
+        this(journal);
+        this.connectionProvider = connectionProvider;
+        journal.onRejected(COPIES_TABLE, key -> reload((Integer) key));
+        journal.onRejected(BRANCHES_TABLE, key -> reloadBranch((Integer) key));
+        loadFromDatabase(connectionProvider);
+    }
+
+    /**
+     * Shared id blocks for new copies and branches when several nodes use the database; null
+     * numbers them locally. Ids from other nodes' blocks leave gaps, so branch ids can skip.
+     */
+    public void setIdBlocks(IdBlocks copyIds, IdBlocks branchIds) {
+        lock.readLock().lock();
+        try {
+            if (copyIds != null) {
+                copyIds.prefetch(nextCopyId);
+            }
+            if (branchIds != null) {
+                branchIds.prefetch(branchNames.size());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        this.copyIds = copyIds;
+        this.branchIdBlocks = branchIds;
+    }
+
+    /** Returns the branch's id, adding the branch if it is new. */
+    public int addBranch(String name) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = branchIds.get(name);
+            if (existing != null) {
+                return existing;
+            }
+            IdBlocks branchIdBlocks = this.branchIdBlocks;
+            int id = defineBranch(branchIdBlocks != null ? branchIdBlocks.next(branchNames.size()) : branchNames.size(), name);
+            journal.insert(BRANCHES_TABLE, id, name, id);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** The branch's id, or -1 if there is no branch by that name. */
+    public int branchId(String name) {
+        lock.readLock().lock();
+        try {
+            return branchIds.getOrDefault(name, -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String branchName(int branchId) {
+        lock.readLock().lock();
+        try {
+            return branchId > 0 && branchId < branchNames.size() ? branchNames.get(branchId) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Branch names by id, in id order. */
+    public SortedMap<Integer, String> branches() {
+        lock.readLock().lock();
+        try {
+            SortedMap<Integer, String> branches = new TreeMap<>();
+            for (int id = 1; id < branchNames.size(); id++) {
+                if (branchNames.get(id) != null) {
+                    branches.put(id, branchNames.get(id));
+                }
+            }
+            return branches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Adds an available copy of the title at the branch and returns its id. */
+    public int addCopy(int bookId, int branchId) {
+        lock.writeLock().lock();
+        try {
+            checkBranch(branchId);
+            IdBlocks copyIds = this.copyIds;
+            int id = copyIds != null ? copyIds.next(nextCopyId) : nextCopyId++;
+            place(id, bookId, branchId, Status.AVAILABLE);
+            save(id, WriteBehindJournal.Kind.INSERT);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Copy copy(int copyId) {
+        lock.readLock().lock();
+        try {
+            return exists(copyId) ? new Copy(copyId, bookOf[copyId], branchOf[copyId], STATUSES[statusOf[copyId]]) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Every copy of the title, grouped by branch. */
+    public List<Copy> copiesOf(int bookId) {
+        lock.readLock().lock();
+        try {
+            List<Copy> copies = new ArrayList<>();
+            for (int branchId = 1; branchId < branchNames.size(); branchId++) {
+                int slot = shelves.find(Shelves.key(bookId, branchId));
+                for (int id = slot < 0 ? 0 : shelves.first[slot]; id != 0; id = nextOnShelf[id]) {
+                    copies.add(new Copy(id, bookId, branchId, STATUSES[statusOf[id]]));
+                }
+            }
+            return copies;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns false if there is no such copy. */
+    public boolean setStatus(int copyId, Status status) {
+        lock.writeLock().lock();
+        try {
+            if (!exists(copyId)) {
+                return false;
+            }
+            restatus(copyId, status);
+            save(copyId, WriteBehindJournal.Kind.UPDATE);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Moves the copy to another branch, keeping its status; returns false if there is no such copy. */
+    public boolean transfer(int copyId, int branchId) {
+        lock.writeLock().lock();
+        try {
+            if (!exists(copyId)) {
+                return false;
+            }
+            checkBranch(branchId);
+            move(copyId, branchId);
+            save(copyId, WriteBehindJournal.Kind.UPDATE);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves one copy of the title from one status to another, as circulation lends, shelves and
+     * holds it; returns the copy's id, or 0 if no copy of the title has the first status.
+     */
+    public int restatusCopy(int bookId, Status from, Status to) {
+        lock.writeLock().lock();
+        try {
+            for (int branchId = 1; branchId < branchNames.size(); branchId++) {
+                int slot = shelves.find(Shelves.key(bookId, branchId));
+                for (int id = slot < 0 ? 0 : shelves.first[slot]; id != 0; id = nextOnShelf[id]) {
+                    if (statusOf[id] == from.ordinal()) {
+                        restatus(id, to);
+                        save(id, WriteBehindJournal.Kind.UPDATE);
+                        return id;
+                    }
+                }
+            }
+            return 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Removes every copy of a title, e.g. when the title leaves the catalog; returns how many there were. */
+    public int removeTitle(int bookId) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int branchId = 1; branchId < branchNames.size(); branchId++) {
+                int slot = shelves.find(Shelves.key(bookId, branchId));
+                if (slot < 0) {
+                    continue;
+                }
+                for (int id = shelves.first[slot]; id != 0; id = nextOnShelf[id]) {
+                    bookOf[id] = 0;
+                    journal.delete(COPIES_TABLE, id);
+                    removed++;
+                }
+                copiesAtBranch[branchId] -= shelves.copies[slot];
+                availableAtBranch[branchId] -= shelves.available[slot];
+                shelves.clear(slot);
+            }
+            if (bookId < copiesOfTitle.length) {
+                copiesOfTitle[bookId] = 0;
+                availableOfTitle[bookId] = 0;
+            }
+            copyCount -= removed;
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Copies of the title at the branch, whatever their status. */
+    public int copies(int bookId, int branchId) {
+        return count(bookId, branchId, false);
+    }
+
+    /** Copies of the title on the shelf at the branch. */
+    public int available(int bookId, int branchId) {
+        return count(bookId, branchId, true);
+    }
+
+    public int copies(int bookId) {
+        lock.readLock().lock();
+        try {
+            return bookId > 0 && bookId < copiesOfTitle.length ? copiesOfTitle[bookId] : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int available(int bookId) {
+        lock.readLock().lock();
+        try {
+            return bookId > 0 && bookId < availableOfTitle.length ? availableOfTitle[bookId] : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int copiesAtBranch(int branchId) {
+        lock.readLock().lock();
+        try {
+            return branchId > 0 && branchId < branchNames.size() ? copiesAtBranch[branchId] : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int availableAtBranch(int branchId) {
+        lock.readLock().lock();
+        try {
+            return branchId > 0 && branchId < branchNames.size() ? availableAtBranch[branchId] : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return copyCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int count(int bookId, int branchId, boolean availableOnly) {
+        lock.readLock().lock();
+        try {
+            int slot = shelves.find(Shelves.key(bookId, branchId));
+            if (slot < 0) {
+                return 0;
+            }
+            return availableOnly ? shelves.available[slot] : shelves.copies[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean exists(int copyId) {
+        return copyId > 0 && copyId < bookOf.length && bookOf[copyId] != 0;
+    }
+
+    private void checkBranch(int branchId) {
+        if (branchId <= 0 || branchId >= branchNames.size() || branchNames.get(branchId) == null) {
+            throw new IllegalArgumentException("No such branch: " + branchId);
+        }
+    }
+
+    private int defineBranch(int id, String name) {
+        if (id <= 0 || id > MAX_BRANCHES) {
+            throw new IllegalArgumentException("Branch ids run from 1 to " + MAX_BRANCHES + ": " + id);
+        }
+        while (branchNames.size() <= id) {
+            branchNames.add(null);
+        }
+        String previous = branchNames.set(id, name);
+        if (previous != null && !previous.equals(name)) {
+            branchIds.remove(previous, id);
+        }
+        branchIds.put(name, id);
+        if (id >= copiesAtBranch.length) {
+            int capacity = Math.max(id + 1, copiesAtBranch.length * 2);
+            copiesAtBranch = Arrays.copyOf(copiesAtBranch, capacity);
+            availableAtBranch = Arrays.copyOf(availableAtBranch, capacity);
+        }
+        return id;
+    }
+
+    /** Records a new copy and links it onto its shelf. Caller holds the write lock. */
+    private void place(int id, int bookId, int branchId, Status status) {
+        ensureCapacity(id);
+        bookOf[id] = bookId;
+        branchOf[id] = (short) branchId;
+        statusOf[id] = (byte) status.ordinal();
+        link(id);
+        adjust(bookId, branchId, 1, status == Status.AVAILABLE ? 1 : 0);
+        copyCount++;
+        nextCopyId = Math.max(nextCopyId, id + 1);
+    }
+
+    private void restatus(int id, Status status) {
+        int wasAvailable = statusOf[id] == Status.AVAILABLE.ordinal() ? 1 : 0;
+        int isAvailable = status == Status.AVAILABLE ? 1 : 0;
+        statusOf[id] = (byte) status.ordinal();
+        if (wasAvailable != isAvailable) {
+            adjust(bookOf[id], branchOf[id], 0, isAvailable - wasAvailable);
+        }
+    }
+
+    private void move(int id, int branchId) {
+        int available = statusOf[id] == Status.AVAILABLE.ordinal() ? 1 : 0;
+        unlink(id);
+        adjust(bookOf[id], branchOf[id], -1, -available);
+        branchOf[id] = (short) branchId;
+        link(id);
+        adjust(bookOf[id], branchId, 1, available);
+    }
+
+    private void link(int id) {
+        int slot = shelves.findOrAdd(Shelves.key(bookOf[id], branchOf[id]));
+        nextOnShelf[id] = shelves.first[slot];
+        shelves.first[slot] = id;
+    }
+
+    private void unlink(int id) {
+        int slot = shelves.find(Shelves.key(bookOf[id], branchOf[id]));
+        if (shelves.first[slot] == id) {
+            shelves.first[slot] = nextOnShelf[id];
+        } else {
+            int previous = shelves.first[slot];
+            while (nextOnShelf[previous] != id) {
+                previous = nextOnShelf[previous];
+            }
+            nextOnShelf[previous] = nextOnShelf[id];
+        }
+        nextOnShelf[id] = 0;
+    }
+
+    /** Applies a change to the shelf's counts, the title's totals and the branch's totals. */
+    private void adjust(int bookId, int branchId, int copies, int available) {
+        int slot = shelves.findOrAdd(Shelves.key(bookId, branchId));
+        shelves.copies[slot] += copies;
+        shelves.available[slot] += available;
+        if (bookId >= copiesOfTitle.length) {
+            int capacity = Math.max(bookId + 1, copiesOfTitle.length + (copiesOfTitle.length >> 1));
+            copiesOfTitle = Arrays.copyOf(copiesOfTitle, capacity);
+            availableOfTitle = Arrays.copyOf(availableOfTitle, capacity);
+        }
+        copiesOfTitle[bookId] += copies;
+        availableOfTitle[bookId] += available;
+        copiesAtBranch[branchId] += copies;
+        availableAtBranch[branchId] += available;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < bookOf.length) {
+            return;
+        }
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(id + 1L, bookOf.length + (bookOf.length >> 1)));
+        bookOf = Arrays.copyOf(bookOf, capacity);
+        branchOf = Arrays.copyOf(branchOf, capacity);
+        statusOf = Arrays.copyOf(statusOf, capacity);
+        nextOnShelf = Arrays.copyOf(nextOnShelf, capacity);
+    }
+
+    private void save(int id, WriteBehindJournal.Kind kind) {
+        Object[] row = { bookOf[id], (int) branchOf[id], STATUSES[statusOf[id]].name(), id };
+        if (kind == WriteBehindJournal.Kind.INSERT) {
+            journal.insert(COPIES_TABLE, id, row);
+        } else {
+            journal.update(COPIES_TABLE, id, row);
+        }
+    }
+
+    private void loadFromDatabase(ConnectionProvider connectionProvider) {
+        try (PooledConnection connection = connectionProvider.acquire();
+             ResultSet resultSet = connection.prepare("SELECT id, name FROM branches ORDER BY id").executeQuery()) {
+            lock.writeLock().lock();
+            try {
+                while (resultSet.next()) {
+                    defineBranch(resultSet.getInt("id"), resultSet.getString("name"));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (SQLException e) {
+            Log.error("Error loading branches from the database: " + e.getMessage());
+            return;
+        }
+        StreamingLoader<int[]> loader = new StreamingLoader<>(connectionProvider, "Copies",
+                "SELECT id, book_id, branch_id, status FROM copies WHERE id > ? ORDER BY id LIMIT ?", 0,
+                StreamingLoader.DEFAULT_PAGE_SIZE, Holdings::mapCopy, row -> row[0]);
+        loader.run(this::applyLoadedPage);
+    }
+
+    /**
+     * Puts the copy in line with its row after the journal rejected a write to it, e.g. a status
+     * change grouped with a checkout that lost to another node. A write still waiting to be
+     * flushed wins over the row.
+     */
+    void reload(int copyId) {
+        int[] row = null;
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            PreparedStatement statement = connection.prepare("SELECT id, book_id, branch_id, status FROM copies WHERE id = ?");
+            statement.setInt(1, copyId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    row = mapCopy(resultSet);
+                }
+            }
+        } catch (SQLException e) {
+            Log.error("Error reloading copy " + copyId + " from the database: " + e.getMessage());
+            return;
+        }
+        if (row != null && branchName(row[2]) == null) {
+            // A copy at a branch another node just added can arrive before the branch does.
+            reloadBranch(row[2]);
+        }
+        lock.writeLock().lock();
+        try {
+            if (journal.pendingWrite(COPIES_TABLE, copyId) != null) {
+                return;
+            }
+            if (exists(copyId)) {
+                unlink(copyId);
+                adjust(bookOf[copyId], branchOf[copyId], -1, statusOf[copyId] == Status.AVAILABLE.ordinal() ? -1 : 0);
+                bookOf[copyId] = 0;
+                copyCount--;
+            }
+            if (row != null && row[2] > 0 && row[2] < branchNames.size()) {
+                place(row[0], row[1], row[2], STATUSES[row[3]]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts the branch in line with its row, e.g. after another node added a branch of the same
+     * name first and the unique name rejected this one. A branch whose row is gone keeps its id
+     * slot but no longer has a name, so no copy can be added or moved to it.
+     */
+    void reloadBranch(int branchId) {
+        String name = null;
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            PreparedStatement statement = connection.prepare("SELECT name FROM branches WHERE id = ?");
+            statement.setInt(1, branchId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    name = resultSet.getString(1);
+                }
+            }
+        } catch (SQLException e) {
+            Log.error("Error reloading branch " + branchId + " from the database: " + e.getMessage());
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (journal.pendingWrite(BRANCHES_TABLE, branchId) != null) {
+                return;
+            }
+            if (name != null) {
+                defineBranch(branchId, name);
+            } else if (branchId > 0 && branchId < branchNames.size() && branchNames.get(branchId) != null) {
+                branchIds.remove(branchNames.get(branchId), branchId);
+                branchNames.set(branchId, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Adds copies read from the copies table, as {id, book_id, branch_id, status ordinal} rows, without journaling them. */
+    void applyLoadedPage(List<int[]> page) {
+        lock.writeLock().lock();
+        try {
+            for (int[] row : page) {
+                if (row[2] > 0 && row[2] < branchNames.size() && !exists(row[0])) {
+                    place(row[0], row[1], row[2], STATUSES[row[3]]);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int[] mapCopy(ResultSet resultSet) throws SQLException {
+        return new int[] { resultSet.getInt("id"), resultSet.getInt("book_id"), resultSet.getInt("branch_id"),
+                Status.valueOf(resultSet.getString("status")).ordinal() };
+    }
+
+    /**
+     * Open-addressing map from a (title, branch) shelf to its counts and first copy, with
+     * linear probing. Shelves that empty out keep their slot until the next resize drops them.
+     */
+    private static class Shelves {
+        private static final long EMPTY = -1;
+
+        private long[] keys = newKeys(1024);
+        int[] copies = new int[1024];
+        int[] available = new int[1024];
+        int[] first = new int[1024];
+        private int used;
+
+        static long key(int bookId, int branchId) {
+            return ((long) bookId << 16) | branchId;
+        }
+
+        /** Slot of the shelf, or -1 if it has no slot. */
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Slot of the shelf, adding an empty one if needed; slots move when the table grows. */
+        int findOrAdd(long key) {
+            int slot = find(key);
+            if (slot >= 0) {
+                return slot;
+            }
+            if (used + 1 > keys.length - (keys.length >> 2)) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            used++;
+            return i;
+        }
+
+        void clear(int slot) {
+            copies[slot] = 0;
+            available[slot] = 0;
+            first[slot] = 0;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldCopies = copies;
+            int[] oldAvailable = available;
+            int[] oldFirst = first;
+            int live = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY && oldCopies[i] > 0) {
+                    live++;
+                }
+            }
+            // Doubles while live shelves fill over half the table; a table of mostly emptied shelves shrinks.
+            int capacity = Math.max(1024, Integer.highestOneBit(Math.max(live, 1)) * 4);
+            keys = newKeys(capacity);
+            copies = new int[capacity];
+            available = new int[capacity];
+            first = new int[capacity];
+            used = 0;
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == EMPTY || oldCopies[i] == 0) {
+                    continue;
+                }
+                int j = mix(oldKeys[i]) & mask;
+                while (keys[j] != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                copies[j] = oldCopies[i];
+                available[j] = oldAvailable[i];
+                first[j] = oldFirst[i];
+                used++;
+            }
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
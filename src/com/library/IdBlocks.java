@@ -0,0 +1,151 @@
+package com.library;
+
+import java.sql.*;
+import java.util.concurrent.*;
+
+/**
+ * Hands out ids from blocks reserved in a shared counter row, so nodes sharing a database never
+ * give two new rows the same id:
+ *
+ * <pre>
+ * CREATE TABLE id_blocks (
+ *     name VARCHAR(64) PRIMARY KEY,
+ *     next_id BIGINT NOT NULL)
+ * </pre>
+ *
+ * A block is claimed by advancing next_id in a transaction, which holds the row lock until the
+ * claim is read back. The next block is claimed in the background once half the current one is
+ * used, so callers handing out ids under their own locks do not wait on the database. Ids left in
+ * a block when the node stops are never used.
+ */
+final class IdBlocks {
+    static final int DEFAULT_BLOCK_SIZE = 1_000;
+    private static final ExecutorService REFILLS = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-blocks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConnectionProvider connectionProvider;
+    private final String name;
+    private final int blockSize;
+    private long next;
+    private long end;
+    private CompletableFuture<long[]> refill;
+
+    IdBlocks(ConnectionProvider connectionProvider, String name, int blockSize) {
+        this.connectionProvider = connectionProvider;
+        this.name = name;
+        this.blockSize = blockSize;
+    }
+
+    /** Whether the id_blocks table exists. */
+    static boolean available(ConnectionProvider connectionProvider) {
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            connection.prepare("SELECT next_id FROM id_blocks WHERE 1 = 0").executeQuery().close();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The next id from this node's block, moving to the block claimed in the background when it
+     * runs out. A new block starts no lower than the floor, so ids already taken before the table
+     * was in use are skipped. The database is only called here if the background claim failed.
+     */
+    synchronized int next(int floor) {
+        if (next == end) {
+            long[] block = takeRefill();
+            if (block == null || block[1] <= floor) {
+                try {
+                    block = reserve(floor);
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Cannot reserve " + name + " ids: " + e.getMessage(), e);
+                }
+            }
+            next = Math.max(block[0], floor);
+            end = block[1];
+        }
+        int id = Math.toIntExact(next++);
+        if (end - next <= blockSize / 2) {
+            prefetch(floor);
+        }
+        return id;
+    }
+
+    /** Starts claiming the next block in the background, if no claim is already under way. */
+    synchronized void prefetch(int floor) {
+        if (refill == null) {
+            refill = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return reserve(floor);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, REFILLS);
+        }
+    }
+
+    private long[] takeRefill() {
+        CompletableFuture<long[]> claim = refill;
+        refill = null;
+        if (claim == null) {
+            return null;
+        }
+        try {
+            return claim.join();
+        } catch (CompletionException e) {
+            Log.warn("Background claim of " + name + " ids failed: " + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    /** Claims a block, returning its first id and the id after its last. */
+    private long[] reserve(long floor) throws SQLException {
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            Connection raw = connection.connection();
+            raw.setAutoCommit(false);
+            try {
+                while (true) {
+                    // The update locks the row until commit, so the read after it sees this node's claim only.
+                    PreparedStatement claim = connection.prepare("UPDATE id_blocks SET next_id = GREATEST(next_id, ?) + ? WHERE name = ?");
+                    claim.setLong(1, floor);
+                    claim.setLong(2, blockSize);
+                    claim.setString(3, name);
+                    if (claim.executeUpdate() == 1) {
+                        PreparedStatement select = connection.prepare("SELECT next_id FROM id_blocks WHERE name = ?");
+                        select.setString(1, name);
+                        long claimedEnd;
+                        try (ResultSet resultSet = select.executeQuery()) {
+                            resultSet.next();
+                            claimedEnd = resultSet.getLong(1);
+                        }
+                        raw.commit();
+                        return new long[] { claimedEnd - blockSize, claimedEnd };
+                    }
+                    long start = Math.max(floor, 1);
+                    PreparedStatement create = connection.prepare("INSERT INTO id_blocks (next_id, name) VALUES (?, ?)");
+                    create.setLong(1, start + blockSize);
+                    create.setString(2, name);
+                    try {
+                        create.executeUpdate();
+                        raw.commit();
+                        return new long[] { start, start + blockSize };
+                    } catch (SQLException e) {
+                        if (!WriteBehindJournal.isConstraintViolation(e)) {
+                            throw e;
+                        }
+                        // Another node created the row first; claim from it instead.
+                        raw.rollback();
+                    }
+                }
+            } catch (SQLException e) {
+                raw.rollback();
+                throw e;
+            } finally {
+                raw.setAutoCommit(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.library;
+
+import java.util.*;
+
+/** Just enough JSON for the HTTP API: string quoting and flat objects of strings, numbers and booleans. */
+final class Json {
+    private Json() {
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    // The version is read first, so a change landing mid-read can only make it look older than the
+    // fields; an update conditional on it then fails instead of overwriting what the client never saw.
+    static String book(Book book) {
+        int version = book.version;
+        return "{\"id\":" + book.id + ",\"title\":" + quote(book.title) + ",\"author\":" + quote(book.author)
+                + ",\"available\":" + book.isAvailable + ",\"version\":" + version + "}";
+    }
+
+    /** The book with its copy counts, at one branch or across all of them. */
+    static String book(Book book, int copies, int availableCopies) {
+        int version = book.version;
+        return "{\"id\":" + book.id + ",\"title\":" + quote(book.title) + ",\"author\":" + quote(book.author)
+                + ",\"available\":" + book.isAvailable + ",\"version\":" + version + ",\"copies\":" + copies + ",\"availableCopies\":" + availableCopies + "}";
+    }
+
+    static String copy(Holdings.Copy copy, String branch) {
+        return "{\"id\":" + copy.id + ",\"bookId\":" + copy.bookId + ",\"branch\":" + quote(branch)
+                + ",\"status\":" + quote(copy.status.name()) + "}";
+    }
+
+    /** Parses a flat object; values come back as strings (null for JSON null). Nested values are rejected. */
+    static Map<String, String> parseObject(String text) {
+        Parser parser = new Parser(text);
+        Map<String, String> object = new LinkedHashMap<>();
+        parser.skipWhitespace();
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.position++;
+        } else {
+            while (true) {
+                parser.skipWhitespace();
+                String key = parser.string();
+                parser.skipWhitespace();
+                parser.expect(':');
+                parser.skipWhitespace();
+                object.put(key, parser.scalar());
+                parser.skipWhitespace();
+                if (parser.peek() == ',') {
+                    parser.position++;
+                } else {
+                    parser.expect('}');
+                    break;
+                }
+            }
+        }
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw new IllegalArgumentException("Trailing characters at " + parser.position);
+        }
+        return object;
+    }
+
+    private static class Parser {
+        final String text;
+        int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return text.charAt(position);
+        }
+
+        void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + position);
+            }
+            position++;
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        String scalar() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("Nested values are not supported at " + position);
+            }
+            int start = position;
+            while (position < text.length() && ",} \t\r\n".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (!literal.equals("true") && !literal.equals("false") && !literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+                throw new IllegalArgumentException("Invalid value '" + literal + "' at " + start);
+            }
+            return literal;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = peek();
+                position++;
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = peek();
+                position++;
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Truncated escape at " + position);
+                        }
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+    }
+}
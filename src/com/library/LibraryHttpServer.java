@@ -0,0 +1,509 @@
+package com.library;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * HTTP/JSON front end over LibraryService. Connections are accepted and parsed by the JDK's
+ * selector-based server; each request is then handled on a bounded worker pool. When every
+ * worker is busy and the queue is full, the request is answered 503 with Retry-After on the
+ * accepting thread instead of queueing without limit.
+ *
+ * <pre>
+ * POST   /users/register      {"username","password"}
+ * POST   /users/login         {"username","password"}  -> {"token"}
+ * POST   /users/logout
+ * POST   /users/password      {"password"}             (ends all of the user's sessions)
+ * GET    /books/search?q=&amp;page=&amp;size=&amp;branch=   (copy counts at the branch, or everywhere)
+ * GET    /books/{id}
+ * GET    /books/{id}/copies
+ * POST   /books/{id}/copies   {"branch","count"}        (at most 100 copies per request)
+ * PUT    /copies/{id}         {"status","branch"}       (either field may be left out)
+ * GET    /branches            copies and available copies per branch
+ * POST   /books               {"title","author"}
+ * PUT    /books/{id}          {"title","author"}
+ * DELETE /books/{id}
+ * POST   /books/{id}/checkout | /return | /reserve
+ * GET    /reports             (/reports.csv for CSV)
+ * GET    /cache               hit/miss/eviction stats in CACHED load mode
+ * GET    /metrics             operation metrics in Prometheus text format
+ * </pre>
+ *
+ * Everything except search, book and copy lookup, branches, register, login and metrics needs "Authorization: Bearer &lt;token&gt;".
+ */
+class LibraryHttpServer implements AutoCloseable {
+    static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 4096;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_COPIES_PER_REQUEST = 100;
+    static final int MAX_BODY_BYTES = 64 * 1024;
+    static final int WORKER_THREADS = Integer.getInteger("library.httpThreads", 64);
+    static final int QUEUE_CAPACITY = Integer.getInteger("library.httpQueue", 2048);
+    // Set while the accepting thread runs a request the pool turned away, so handle() only answers 503.
+    private static final ThreadLocal<Boolean> OVERLOADED = ThreadLocal.withInitial(() -> false);
+    private static final Metrics.Timer REQUEST_TIMER = Metrics.timer("http.request");
+    private static final Metrics.Counter[] RESPONSES = new Metrics.Counter[6];
+    private static final Metrics.Counter REJECTED = Metrics.counter("http.rejected");
+
+    /** Thrown by {@link #body} for a request body over MAX_BODY_BYTES; answered with 413. */
+    private static final class BodyTooLarge extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLarge() {
+            super("Request body over " + MAX_BODY_BYTES + " bytes", null, false, false);
+        }
+    }
+
+    static {
+        for (int statusClass = 1; statusClass < RESPONSES.length; statusClass++) {
+            RESPONSES[statusClass] = Metrics.counter("http.responses." + statusClass + "xx");
+        }
+    }
+
+    static {
+        // Without TCP_NODELAY the headers and body go out as separate small packets and every response waits out a delayed ACK.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final LibraryService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public LibraryHttpServer(LibraryService service, int port) throws IOException {
+        this.service = service;
+        this.executor = requestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        Log.info("Library API listening on port " + port() + ".");
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static ExecutorService requestExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "http-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        return;
+                    }
+                    REJECTED.increment();
+                    OVERLOADED.set(true);
+                    try {
+                        task.run();
+                    } finally {
+                        OVERLOADED.set(false);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (OVERLOADED.get()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, error("Server busy"));
+                return;
+            }
+            route(exchange);
+        } catch (BodyTooLarge e) {
+            respondIfUnsent(exchange, 413, error(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            respondIfUnsent(exchange, 400, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            respondIfUnsent(exchange, 500, error("Internal error"));
+            Log.error("Error handling " + exchange.getRequestURI() + ": " + e);
+        } finally {
+            exchange.close();
+            REQUEST_TIMER.stop(start);
+            int statusClass = exchange.getResponseCode() / 100;
+            if (statusClass > 0 && statusClass < RESPONSES.length) {
+                RESPONSES[statusClass].increment();
+            }
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+
+        if (path.length == 2 && path[0].equals("users") && method.equals("POST")) {
+            switch (path[1]) {
+                case "register": register(exchange); return;
+                case "login": login(exchange); return;
+                case "logout": service.logout(token(exchange)); respond(exchange, 204, null); return;
+                case "password": changePassword(exchange); return;
+                default: break;
+            }
+        } else if (path[0].equals("books")) {
+            if (path.length == 1 && method.equals("POST")) {
+                addBook(exchange);
+                return;
+            }
+            if (path.length == 2 && path[1].equals("search") && method.equals("GET")) {
+                search(exchange);
+                return;
+            }
+            if (path.length == 2 || path.length == 3) {
+                bookRoute(exchange, method, parseId(path[1]), path.length == 3 ? path[2] : null);
+                return;
+            }
+        } else if (path.length == 2 && path[0].equals("copies") && method.equals("PUT")) {
+            updateCopy(exchange, parseId(path[1]));
+            return;
+        } else if (path.length == 1 && method.equals("GET") && path[0].equals("branches")) {
+            StringBuilder json = new StringBuilder("[");
+            String separator = "";
+            for (Map.Entry<Integer, String> branch : service.branches().entrySet()) {
+                json.append(separator).append("{\"id\":").append(branch.getKey()).append(",\"name\":").append(Json.quote(branch.getValue()))
+                        .append(",\"copies\":").append(service.copiesAtBranch(branch.getKey()))
+                        .append(",\"availableCopies\":").append(service.availableAtBranch(branch.getKey())).append('}');
+                separator = ",";
+            }
+            respond(exchange, 200, json.append(']').toString());
+            return;
+        } else if (path.length == 1 && method.equals("GET") && path[0].equals("metrics")) {
+            respond(exchange, 200, "text/plain; version=0.0.4", Metrics.toPrometheus());
+            return;
+        } else if (path.length == 1 && method.equals("GET") && path[0].equals("cache")) {
+            if (user(exchange) != null) {
+                StringBuilder json = new StringBuilder("[");
+                String separator = "";
+                for (BoundedCache.Stats stats : service.cacheStats()) {
+                    json.append(separator).append(stats.toJson());
+                    separator = ",";
+                }
+                respond(exchange, 200, json.append(']').toString());
+            }
+            return;
+        } else if (path.length == 1 && method.equals("GET") && (path[0].equals("reports") || path[0].equals("reports.csv"))) {
+            if (user(exchange) != null) {
+                ReportCounters.Snapshot snapshot = service.report(true);
+                if (path[0].endsWith(".csv")) {
+                    respond(exchange, 200, "text/csv", snapshot.toCsv());
+                } else {
+                    respond(exchange, 200, snapshot.toJson());
+                }
+            }
+            return;
+        }
+        respond(exchange, 404, error("No such endpoint"));
+    }
+
+    private void register(HttpExchange exchange) throws IOException {
+        Map<String, String> body = body(exchange);
+        if (service.register(required(body, "username"), required(body, "password"))) {
+            respond(exchange, 201, "{\"registered\":true}");
+        } else {
+            respond(exchange, 409, error("Username already taken"));
+        }
+    }
+
+    private void login(HttpExchange exchange) throws IOException {
+        Map<String, String> body = body(exchange);
+        String token = service.login(required(body, "username"), required(body, "password"));
+        if (token == null) {
+            respond(exchange, 401, error("Invalid username or password"));
+        } else {
+            respond(exchange, 200, "{\"token\":" + Json.quote(token) + "}");
+        }
+    }
+
+    private void changePassword(HttpExchange exchange) throws IOException {
+        User user = user(exchange);
+        if (user == null) {
+            return;
+        }
+        if (service.changePassword(user, required(body(exchange), "password"))) {
+            respond(exchange, 204, null);
+        } else {
+            respond(exchange, 404, error("User not found"));
+        }
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange.getRequestURI());
+        int page = Integer.parseInt(query.getOrDefault("page", "1"));
+        int size = Math.min(Integer.parseInt(query.getOrDefault("size", String.valueOf(BookSearch.DEFAULT_PAGE_SIZE))), MAX_PAGE_SIZE);
+        if (page < 1 || size < 1) {
+            throw new IllegalArgumentException("page and size must be positive");
+        }
+        int branchId = 0;
+        if (query.containsKey("branch")) {
+            branchId = service.branchId(query.get("branch"));
+            if (branchId < 0) {
+                throw new IllegalArgumentException("No such branch: " + query.get("branch"));
+            }
+        }
+        StringBuilder json = new StringBuilder("{\"page\":").append(page).append(",\"results\":[");
+        String separator = "";
+        for (Book book : service.search(query.getOrDefault("q", ""), page, size)) {
+            json.append(separator).append(Json.book(book, service.copies(book.id, branchId), service.availableCopies(book.id, branchId)));
+            separator = ",";
+        }
+        respond(exchange, 200, json.append("]}").toString());
+    }
+
+    private void addBook(HttpExchange exchange) throws IOException {
+        if (user(exchange) == null) {
+            return;
+        }
+        Map<String, String> body = body(exchange);
+        respond(exchange, 201, Json.book(service.addBook(required(body, "title"), required(body, "author"))));
+    }
+
+    private void bookRoute(HttpExchange exchange, String method, int id, String action) throws IOException {
+        if (action == null && method.equals("GET")) {
+            Book book = service.book(id);
+            respond(exchange, book == null ? 404 : 200, book == null ? error("Book not found")
+                    : Json.book(book, service.copies(id, 0), service.availableCopies(id, 0)));
+            return;
+        }
+        if ("copies".equals(action) && method.equals("GET")) {
+            copies(exchange, id);
+            return;
+        }
+        User user = user(exchange);
+        if (user == null) {
+            return;
+        }
+        if (action == null && method.equals("PUT")) {
+            Map<String, String> body = body(exchange);
+            // An optional version makes the update conditional on nobody having changed the book since it was read.
+            int version = body.containsKey("version") ? parseVersion(body.get("version")) : -1;
+            try {
+                if (service.updateBook(id, required(body, "title"), required(body, "author"), version)) {
+                    respond(exchange, 200, Json.book(service.book(id)));
+                } else {
+                    respond(exchange, 404, error("Book not found"));
+                }
+            } catch (ConcurrentModificationException e) {
+                respond(exchange, 409, error("Book has changed since version " + version));
+            }
+            return;
+        }
+        if (action == null && method.equals("DELETE")) {
+            if (service.deleteBook(id)) {
+                respond(exchange, 204, null);
+            } else {
+                respond(exchange, 404, error("Book not found"));
+            }
+            return;
+        }
+        if (action == null || !method.equals("POST")) {
+            respond(exchange, 405, error("Method not allowed"));
+            return;
+        }
+        Book book = service.book(id);
+        if (book == null) {
+            respond(exchange, 404, error("Book not found"));
+            return;
+        }
+        switch (action) {
+            case "copies":
+                Map<String, String> body = body(exchange);
+                int count = Integer.parseInt(body.getOrDefault("count", "1"));
+                if (count < 1 || count > MAX_COPIES_PER_REQUEST) {
+                    throw new IllegalArgumentException("count must be between 1 and " + MAX_COPIES_PER_REQUEST);
+                }
+                StringBuilder json = new StringBuilder("[");
+                String separator = "";
+                for (Holdings.Copy copy : service.addCopies(id, required(body, "branch"), count)) {
+                    json.append(separator).append(Json.copy(copy, service.branchName(copy.branchId)));
+                    separator = ",";
+                }
+                respond(exchange, 201, json.append(']').toString());
+                break;
+            case "checkout":
+                CirculationEngine.Loan loan = service.checkout(book, user);
+                if (loan == null) {
+                    respond(exchange, 409, error("Book is not available"));
+                } else {
+                    respond(exchange, 201, "{\"bookId\":" + loan.bookId + ",\"dueDate\":" + Json.quote(loan.dueDate.toString()) + "}");
+                }
+                break;
+            case "return":
+                if (service.returnBook(book)) {
+                    respond(exchange, 200, "{\"returned\":true,\"available\":" + book.isAvailable + "}");
+                } else {
+                    respond(exchange, 409, error("Book is not checked out"));
+                }
+                break;
+            case "reserve":
+                HoldQueue.Hold hold = service.reserve(book, user);
+                if (hold == null) {
+                    respond(exchange, 409, error("Book is available or already reserved by this user"));
+                } else {
+                    respond(exchange, 201, "{\"holdId\":" + hold.id + ",\"position\":" + service.queueLength(id) + "}");
+                }
+                break;
+            default:
+                respond(exchange, 404, error("No such endpoint"));
+        }
+    }
+
+    private void copies(HttpExchange exchange, int bookId) throws IOException {
+        if (service.book(bookId) == null) {
+            respond(exchange, 404, error("Book not found"));
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"bookId\":").append(bookId)
+                .append(",\"copies\":").append(service.copies(bookId, 0))
+                .append(",\"availableCopies\":").append(service.availableCopies(bookId, 0))
+                .append(",\"items\":[");
+        String separator = "";
+        for (Holdings.Copy copy : service.copiesOf(bookId)) {
+            json.append(separator).append(Json.copy(copy, service.branchName(copy.branchId)));
+            separator = ",";
+        }
+        respond(exchange, 200, json.append("]}").toString());
+    }
+
+    private void updateCopy(HttpExchange exchange, int copyId) throws IOException {
+        if (user(exchange) == null) {
+            return;
+        }
+        Map<String, String> body = body(exchange);
+        Holdings.Status status = null;
+        if (body.get("status") != null) {
+            try {
+                status = Holdings.Status.valueOf(body.get("status").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown status: " + body.get("status"));
+            }
+        }
+        Holdings.Copy copy = service.updateCopy(copyId, status, body.get("branch"));
+        if (copy == null) {
+            respond(exchange, 404, error("Copy or branch not found"));
+        } else {
+            respond(exchange, 200, Json.copy(copy, service.branchName(copy.branchId)));
+        }
+    }
+
+    /** Returns the authenticated user, or null after sending a 401. */
+    private User user(HttpExchange exchange) throws IOException {
+        User user = service.authenticate(token(exchange));
+        if (user == null) {
+            respond(exchange, 401, error("Login required"));
+        }
+        return user;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+
+    private static int parseId(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid id: " + value);
+        }
+    }
+
+    private static int parseVersion(String value) {
+        int version;
+        try {
+            version = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            version = -1;
+        }
+        if (version < 0) {
+            throw new IllegalArgumentException("Invalid version: " + value);
+        }
+        return version;
+    }
+
+    private static Map<String, String> body(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && length.length() > 0 && Long.parseLong(length.trim()) > MAX_BODY_BYTES) {
+            throw new BodyTooLarge();
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            // Chunked bodies carry no length, so read one byte past the cap to find out.
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new BodyTooLarge();
+            }
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> body, String field) {
+        String value = body.get(field);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing field: " + field);
+        }
+        return value;
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    /**
+     * Sends an error unless a response has already started; once the headers are out, closing
+     * the exchange in handle() is all that is left, and a second sendResponseHeaders would throw.
+     */
+    private static void respondIfUnsent(HttpExchange exchange, int status, String json) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            respond(exchange, status, json);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        respond(exchange, status, "application/json", json);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.library;
+
+import java.util.*;
+
+/**
+ * The operations behind the HTTP API. Every method is safe to call from many request threads at
+ * once: the managers underneath do their own locking, and sessions live in a SessionStore.
+ */
+class LibraryService {
+    private final UserRegistrationAndLogin users;
+    private final BookSearch books;
+    private final Holdings holdings;
+    private final CirculationEngine circulation;
+    private final ReportCounters counters;
+
+    public LibraryService(UserRegistrationAndLogin users, BookSearch books, Holdings holdings, CirculationEngine circulation,
+                          ReportCounters counters) {
+        this.users = users;
+        this.books = books;
+        this.holdings = holdings;
+        this.circulation = circulation;
+        this.counters = counters;
+    }
+
+    public boolean register(String username, String password) {
+        return users.registerUser(username, password);
+    }
+
+    /** Returns a bearer token, or null if the credentials are wrong. */
+    public String login(String username, String password) {
+        return users.startSession(username, password);
+    }
+
+    public User authenticate(String token) {
+        return users.validateSession(token);
+    }
+
+    public void logout(String token) {
+        users.endSession(token);
+    }
+
+    public boolean changePassword(User user, String newPassword) {
+        return users.changePassword(user.username, newPassword);
+    }
+
+    public Book book(int id) {
+        return books.getBook(id);
+    }
+
+    public List<Book> search(String query, int page, int pageSize) {
+        return new ArrayList<>(BookSearch.page(books.find(query, BookSearch.pageEnd(page, pageSize)).books, page, pageSize));
+    }
+
+    public Book addBook(String title, String author) {
+        return books.addBook(title, author);
+    }
+
+    public boolean updateBook(int id, String title, String author) {
+        return books.updateBook(id, title, author);
+    }
+
+    /** Throws ConcurrentModificationException if the book is no longer at the expected version. */
+    public boolean updateBook(int id, String title, String author, int expectedVersion) {
+        return books.updateBook(id, title, author, expectedVersion);
+    }
+
+    public boolean deleteBook(int id) {
+        return books.deleteBook(id);
+    }
+
+    public CirculationEngine.Loan checkout(Book book, User user) {
+        return circulation.checkout(book, user);
+    }
+
+    public boolean returnBook(Book book) {
+        return circulation.returnBook(book);
+    }
+
+    public HoldQueue.Hold reserve(Book book, User user) {
+        return circulation.reserve(book, user, 0);
+    }
+
+    public int queueLength(int bookId) {
+        return circulation.queueLength(bookId);
+    }
+
+    /** Branch id by name, or -1 if there is no such branch. */
+    public int branchId(String name) {
+        return holdings.branchId(name);
+    }
+
+    public SortedMap<Integer, String> branches() {
+        return holdings.branches();
+    }
+
+    public int copies(int bookId, int branchId) {
+        return branchId > 0 ? holdings.copies(bookId, branchId) : holdings.copies(bookId);
+    }
+
+    public int availableCopies(int bookId, int branchId) {
+        return branchId > 0 ? holdings.available(bookId, branchId) : holdings.available(bookId);
+    }
+
+    public int copiesAtBranch(int branchId) {
+        return holdings.copiesAtBranch(branchId);
+    }
+
+    public int availableAtBranch(int branchId) {
+        return holdings.availableAtBranch(branchId);
+    }
+
+    public List<Holdings.Copy> copiesOf(int bookId) {
+        return holdings.copiesOf(bookId);
+    }
+
+    /** Adds available copies of the book at the branch, creating the branch if it is new. */
+    public List<Holdings.Copy> addCopies(int bookId, String branch, int count) {
+        int branchId = holdings.addBranch(branch);
+        List<Holdings.Copy> added = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            added.add(holdings.copy(holdings.addCopy(bookId, branchId)));
+        }
+        return added;
+    }
+
+    /** Moves the copy to the branch, if given, then sets its status; null if there is no such copy or branch. */
+    public Holdings.Copy updateCopy(int copyId, Holdings.Status status, String branch) {
+        if (branch != null) {
+            int branchId = holdings.branchId(branch);
+            if (branchId < 0 || !holdings.transfer(copyId, branchId)) {
+                return null;
+            }
+        }
+        if (status != null && !holdings.setStatus(copyId, status)) {
+            return null;
+        }
+        return holdings.copy(copyId);
+    }
+
+    public String branchName(int branchId) {
+        return holdings.branchName(branchId);
+    }
+
+    public ReportCounters.Snapshot report(boolean includeAuthors) {
+        return counters.snapshot(includeAuthors);
+    }
+
+    /** Stats for the caches in use; empty unless the managers run in CACHED mode. */
+    public List<BoundedCache.Stats> cacheStats() {
+        List<BoundedCache.Stats> stats = new ArrayList<>();
+        for (BoundedCache.Stats cache : Arrays.asList(users.cacheStats(), books.cacheStats())) {
+            if (cache != null) {
+                stats.add(cache);
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,17 @@
+package com.library;
+
+enum LoadMode {
+    /** Read the whole table before the constructor returns. */
+    EAGER,
+    /** Serve immediately, stream the table in pages on a background thread and page in missing rows on demand. */
+    STREAMING,
+    /** Keep only a bounded, recently used subset in memory and read misses through from indexed SQL. */
+    CACHED,
+    /**
+     * Read the whole table into a columnar {@link CompactBookStore} and keep Book objects only for
+     * a bounded, recently used subset; users stream as in STREAMING.
+     */
+    COMPACT,
+    /** Map the snapshot file and replay changes since its watermark; streams from the database if there is none. */
+    SNAPSHOT
+}
@@ -0,0 +1,146 @@
+package com.library;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous, level-filtered logger. Callers only check the level and offer an entry to a
+ * bounded queue; a daemon thread formats and prints entries in batches. When the queue is full
+ * the entry is dropped and counted rather than making the caller wait. The threshold comes from
+ * -Dlibrary.logLevel (DEBUG, INFO, WARN or ERROR; INFO by default).
+ *
+ * Lines read "2026-01-31T12:00:00.123Z INFO  [thread] message". Each entry goes to whatever
+ * System.out was when it was logged, so code that redirects System.out still captures it.
+ */
+final class Log {
+    enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int CAPACITY = 16_384;
+    private static final int BATCH = 256;
+
+    private static class Entry {
+        final long timeMillis = System.currentTimeMillis();
+        final Level level;
+        final String thread = Thread.currentThread().getName();
+        final String message;
+        final PrintStream out = System.out;
+
+        Entry(Level level, String message) {
+            this.level = level;
+            this.message = message;
+        }
+    }
+
+    private static volatile Level threshold = Level.valueOf(System.getProperty("library.logLevel", "INFO").toUpperCase(Locale.ROOT));
+    private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<>(CAPACITY);
+    private static final LongAdder ENQUEUED = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final Object WRITTEN = new Object();
+    private static volatile long written;
+
+    static {
+        Thread writer = new Thread(Log::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    static boolean enabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    /** For messages that are costly to build; the supplier only runs when DEBUG is enabled. */
+    static void debug(Supplier<String> message) {
+        if (enabled(Level.DEBUG)) {
+            log(Level.DEBUG, message.get());
+        }
+    }
+
+    static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    static void log(Level level, String message) {
+        if (!enabled(level)) {
+            return;
+        }
+        if (QUEUE.offer(new Entry(level, message))) {
+            ENQUEUED.increment();
+        } else {
+            DROPPED.increment();
+        }
+    }
+
+    /** Entries dropped because the queue was full. */
+    static long dropped() {
+        return DROPPED.sum();
+    }
+
+    /** Waits, up to a second, until everything logged so far has been printed. */
+    static void flush() {
+        long target = ENQUEUED.sum();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        synchronized (WRITTEN) {
+            while (written < target && System.nanoTime() < deadline) {
+                try {
+                    WRITTEN.wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void drain() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        StringBuilder line = new StringBuilder(128);
+        while (true) {
+            try {
+                batch.add(QUEUE.take());
+                QUEUE.drainTo(batch, BATCH - 1);
+                for (Entry entry : batch) {
+                    line.setLength(0);
+                    line.append(Instant.ofEpochMilli(entry.timeMillis)).append(' ').append(entry.level);
+                    if (entry.level.name().length() == 4) {
+                        line.append(' ');
+                    }
+                    line.append(" [").append(entry.thread).append("] ").append(entry.message);
+                    entry.out.println(line);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // A broken stream must not kill the writer.
+            } finally {
+                synchronized (WRITTEN) {
+                    written += batch.size();
+                    WRITTEN.notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+}
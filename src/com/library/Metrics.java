@@ -0,0 +1,268 @@
+package com.library;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+/**
+ * Process-wide operation metrics: counters, latency timers and gauges, registered by name.
+ * Recording is lock-free (a LongAdder or one atomic bucket increment), so hot paths keep their
+ * timers in static fields and call them unconditionally. The registry is readable as
+ * Prometheus text (GET /metrics on the HTTP API) and over JMX as com.library:type=Metrics.
+ */
+final class Metrics {
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Timer> TIMERS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private Metrics() {
+    }
+
+    static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long amount) {
+            value.add(amount);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    /** Counts an operation and records its latency in a Histogram. */
+    static final class Timer {
+        final Histogram histogram = new Histogram();
+
+        /** Records the time since start, a System.nanoTime() reading taken when the operation began. */
+        void stop(long start) {
+            histogram.record(System.nanoTime() - start);
+        }
+
+        long count() {
+            return histogram.count();
+        }
+    }
+
+    /**
+     * Log-linear latency histogram in the style of HdrHistogram: values below 64 ns get their own
+     * bucket and every power of two above that is split into 64 buckets, so any recorded value
+     * is reported to within about 1.6% while the whole histogram is a fixed array of counts.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // 2^40 ns is about 18 minutes; anything slower lands in the last bucket.
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucket(value));
+            total.increment();
+            sum.add(value);
+            long seen = max.get();
+            while (value > seen && !max.compareAndSet(seen, value)) {
+                seen = max.get();
+            }
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long sumNanos() {
+            return sum.sum();
+        }
+
+        long maxNanos() {
+            return max.get();
+        }
+
+        /** Highest value equivalent to the q-th quantile's bucket, capped at the maximum seen; 0 if empty. */
+        long quantileNanos(double q) {
+            long[] snapshot = new long[BUCKETS];
+            long recorded = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                recorded += snapshot[i];
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * recorded));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(highestEquivalent(i), maxNanos());
+                }
+            }
+            return maxNanos();
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            int shift = exponent - SUB_BUCKET_BITS;
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        static long highestEquivalent(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+
+    static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new Counter());
+    }
+
+    static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /** Registers or replaces a gauge sampled whenever metrics are read. */
+    static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /** Prometheus text exposition format; timers are summaries in seconds. */
+    static String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Counter> counter : COUNTERS.entrySet()) {
+            String name = metricName(counter.getKey()) + "_total";
+            out.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(counter.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> gauge : GAUGES.entrySet()) {
+            String name = metricName(gauge.getKey());
+            out.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(sample(gauge.getValue())).append('\n');
+        }
+        for (Map.Entry<String, Timer> timer : TIMERS.entrySet()) {
+            String name = metricName(timer.getKey()) + "_seconds";
+            Histogram histogram = timer.getValue().histogram;
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double q : QUANTILES) {
+                out.append(name).append("{quantile=\"").append(q).append("\"} ").append(seconds(histogram.quantileNanos(q))).append('\n');
+            }
+            out.append(name).append("_count ").append(histogram.count()).append('\n');
+            out.append(name).append("_sum ").append(seconds(histogram.sumNanos())).append('\n');
+        }
+        return out.toString();
+    }
+
+    /** Flattened view for JMX: counters and gauges by name, timers as name.count, name.p99Micros and so on. */
+    static Map<String, Long> values() {
+        Map<String, Long> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.get()));
+        GAUGES.forEach((name, gauge) -> values.put(name, sample(gauge)));
+        TIMERS.forEach((name, timer) -> {
+            Histogram histogram = timer.histogram;
+            values.put(name + ".count", histogram.count());
+            values.put(name + ".p50Micros", histogram.quantileNanos(0.5) / 1_000);
+            values.put(name + ".p99Micros", histogram.quantileNanos(0.99) / 1_000);
+            values.put(name + ".p999Micros", histogram.quantileNanos(0.999) / 1_000);
+            values.put(name + ".maxMicros", histogram.maxNanos() / 1_000);
+        });
+        return values;
+    }
+
+    /** Publishes the registry as the com.library:type=Metrics MBean; a second call is a no-op. */
+    static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.library:type=Metrics");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            Log.warn("Could not register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private static final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : values().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Library operation metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+
+    private static long sample(LongSupplier gauge) {
+        try {
+            return gauge.getAsLong();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String metricName(String name) {
+        return "library_" + name.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,89 @@
+package com.library;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Where notifications end up. NotificationSystem hands each sink batches from its own worker
+ * thread, so an implementation may block; throwing IOException makes the batch be retried.
+ */
+interface NotificationSink {
+    String name();
+
+    void deliver(List<NotificationSystem.Notification> batch) throws IOException;
+
+    /** Prints each notice, as sendNotification always has. */
+    class Console implements NotificationSink {
+        @Override
+        public String name() {
+            return "console";
+        }
+
+        @Override
+        public void deliver(List<NotificationSystem.Notification> batch) {
+            for (NotificationSystem.Notification notification : batch) {
+                System.out.println("Notification to " + notification.username + ": " + notification.message);
+            }
+        }
+    }
+
+    /** Appends one tab-separated line per notice: time, user, kind, message. */
+    class File implements NotificationSink {
+        private final Path path;
+
+        public File(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public String name() {
+            return "file " + path;
+        }
+
+        @Override
+        public void deliver(List<NotificationSystem.Notification> batch) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (NotificationSystem.Notification notification : batch) {
+                    writer.write(notification.createdAt + "\t" + notification.username + "\t" + notification.kind + "\t"
+                            + notification.message.replace('\n', ' ').replace('\t', ' ') + "\n");
+                }
+            }
+        }
+    }
+
+    /** Keeps delivered notices in memory for tests and benchmarks; can be told to fail the next few batches. */
+    class InMemory implements NotificationSink {
+        private final List<NotificationSystem.Notification> delivered = new ArrayList<>();
+        private int failuresLeft;
+        private long batches;
+
+        @Override
+        public String name() {
+            return "in-memory";
+        }
+
+        @Override
+        public synchronized void deliver(List<NotificationSystem.Notification> batch) throws IOException {
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IOException("simulated delivery failure");
+            }
+            delivered.addAll(batch);
+            batches++;
+        }
+
+        public synchronized void failNext(int batches) {
+            failuresLeft = batches;
+        }
+
+        public synchronized List<NotificationSystem.Notification> delivered() {
+            return new ArrayList<>(delivered);
+        }
+
+        public synchronized long batches() {
+            return batches;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.library;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Asynchronous notification delivery. Every sink has its own bounded queue and worker thread,
+ * so a slow or failing sink never holds up the others, and send() only ever offers to those
+ * queues: callers such as checkout and return never wait on delivery. Workers deliver in
+ * batches and retry a failed batch with exponential backoff before giving up on it.
+ */
+class NotificationSystem implements AutoCloseable {
+    static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    static final int DEFAULT_BATCH_SIZE = 100;
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final long DEFAULT_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
+    enum Kind { MESSAGE, CHECKOUT, RETURN, DUE_SOON, OVERDUE, HOLD_READY, HOLD_EXPIRED }
+
+    static class Notification {
+        final String username;
+        final Kind kind;
+        final String message;
+        final Instant createdAt;
+
+        Notification(String username, Kind kind, String message) {
+            this.username = username;
+            this.kind = kind;
+            this.message = message;
+            this.createdAt = Instant.now();
+        }
+
+        @Override
+        public String toString() {
+            return kind + " to " + username + ": " + message;
+        }
+    }
+
+    private class Worker implements Runnable {
+        final NotificationSink sink;
+        final BlockingQueue<Notification> queue;
+        final Thread thread;
+
+        Worker(NotificationSink sink) {
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.thread = new Thread(this, "notifications-" + sink.name());
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<Notification> batch = new ArrayList<>(batchSize);
+            try {
+                while (!closed || !queue.isEmpty()) {
+                    Notification first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    deliver(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // Closing timed out; whatever is still queued is dropped.
+                dropped.add(batch.size() + queue.size());
+                outstanding.addAndGet(-(batch.size() + queue.size()));
+            }
+        }
+
+        private void deliver(List<Notification> batch) throws InterruptedException {
+            long backoff = backoffMillis;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    sink.deliver(batch);
+                    delivered.add(batch.size());
+                    break;
+                } catch (Exception e) {
+                    if (attempt >= maxAttempts) {
+                        Log.warn("Dropping " + batch.size() + " notifications after " + attempt + " failed deliveries to "
+                                + sink.name() + ": " + e.getMessage());
+                        failed.add(batch.size());
+                        break;
+                    }
+                    retries.increment();
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            }
+            outstanding.addAndGet(-batch.size());
+        }
+    }
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final int queueCapacity;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final AtomicLong outstanding = new AtomicLong();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private volatile boolean closed;
+
+    public NotificationSystem() {
+        this(Collections.singletonList(new NotificationSink.Console()));
+    }
+
+    public NotificationSystem(List<NotificationSink> sinks) {
+        this(sinks, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+    }
+
+    public NotificationSystem(List<NotificationSink> sinks, int queueCapacity, int batchSize, int maxAttempts, long backoffMillis) {
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        for (NotificationSink sink : sinks) {
+            workers.add(new Worker(sink));
+        }
+        workers.forEach(worker -> worker.thread.start());
+    }
+
+    public void sendNotification(User user, String message) {
+        send(new Notification(user.username, Kind.MESSAGE, message));
+    }
+
+    /** Queues the notice for every sink without blocking; a sink whose queue is full drops it. */
+    public void send(Notification notification) {
+        if (closed) {
+            dropped.add(workers.size());
+            return;
+        }
+        for (Worker worker : workers) {
+            outstanding.incrementAndGet();
+            if (!worker.queue.offer(notification)) {
+                outstanding.decrementAndGet();
+                dropped.increment();
+            }
+        }
+    }
+
+    /** Waits until everything queued so far has been delivered or given up on; false on timeout. */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (outstanding.get() > 0) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    /** Notices refused because a sink's queue was full or the system was closed. */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /** Notices given up on after maxAttempts failed deliveries. */
+    public long failed() {
+        return failed.sum();
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+
+    public long pending() {
+        return outstanding.get();
+    }
+
+    /** Stops accepting notices and gives the workers a few seconds to drain their queues. */
+    @Override
+    public void close() {
+        closed = true;
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker.thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.library;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class PooledConnection implements AutoCloseable {
+    private final Connection connection;
+    private final ConnectionPool pool;
+    private final Map<String, PreparedStatement> statements;
+    // Set by the first close() of each checkout, so a second one cannot return the connection twice.
+    private final AtomicBoolean released = new AtomicBoolean();
+    long lastUsed = System.currentTimeMillis();
+
+    public PooledConnection(Connection connection, ConnectionPool pool, int statementCacheSize) {
+        this.connection = connection;
+        this.pool = pool;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Connection connection() {
+        return connection;
+    }
+
+    /** Returns a cached statement for this connection; callers must not close it. */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    int cachedStatements() {
+        return statements.size();
+    }
+
+    /** Returns the connection to its pool; closing it again before the next checkout does nothing. */
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true)) {
+            lastUsed = System.currentTimeMillis();
+            pool.release(this);
+        }
+    }
+
+    /** Called by the pool as it hands the connection out again. */
+    void checkOut() {
+        released.set(false);
+    }
+
+    void closePhysical() {
+        statements.values().forEach(PooledConnection::closeQuietly);
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Log.warn("Error closing database connection: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
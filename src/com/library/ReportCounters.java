@@ -0,0 +1,241 @@
+package com.library;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Catalog and circulation aggregates kept up to date by BookSearch and CirculationEngine as
+ * they mutate, so a report is a lock-free read of the counters instead of a catalog scan.
+ */
+class ReportCounters {
+    static final int TOP_BORROWED = 10;
+
+    private static class BorrowStat {
+        volatile String title;
+        final LongAdder count = new LongAdder();
+        // Written under the mostBorrowed monitor.
+        volatile boolean inTop;
+    }
+
+    private final LongAdder totalBooks = new LongAdder();
+    private final LongAdder availableBooks = new LongAdder();
+    private final LongAdder activeLoans = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> booksByAuthor = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, BorrowStat> borrowsByBook = new ConcurrentHashMap<>();
+    // Counts are replaced rather than mutated so the skip list can drop an entry atomically when it reaches zero.
+    private final ConcurrentNavigableMap<LocalDate, Long> loansByDueDate = new ConcurrentSkipListMap<>();
+    // The most borrowed books. Borrow counts only grow, so a book outside it can only displace the
+    // least borrowed entry, and only once its own count passes that entry's.
+    private final List<BorrowStat> mostBorrowed = new ArrayList<>(TOP_BORROWED + 1);
+    private volatile long topFloor = -1;
+
+    /** Starts the catalog counters from database aggregates when the catalog is not loaded into memory. */
+    void seedCatalog(String author, long books, long available) {
+        totalBooks.add(books);
+        availableBooks.add(available);
+        booksByAuthor.computeIfAbsent(author, k -> new LongAdder()).add(books);
+    }
+
+    void bookAdded(Book book) {
+        totalBooks.increment();
+        if (book.isAvailable) {
+            availableBooks.increment();
+        }
+        booksByAuthor.computeIfAbsent(book.author, k -> new LongAdder()).increment();
+        BorrowStat borrows = borrowsByBook.get(book.id);
+        if (borrows != null) {
+            borrows.title = book.title;
+        }
+    }
+
+    void bookRemoved(Book book) {
+        totalBooks.decrement();
+        if (book.isAvailable) {
+            availableBooks.decrement();
+        }
+        LongAdder byAuthor = booksByAuthor.get(book.author);
+        if (byAuthor != null) {
+            byAuthor.decrement();
+        }
+    }
+
+    void availabilityChanged(boolean isAvailable) {
+        if (isAvailable) {
+            availableBooks.increment();
+        } else {
+            availableBooks.decrement();
+        }
+    }
+
+    void borrowed(Book book) {
+        BorrowStat borrows = borrowsByBook.computeIfAbsent(book.id, k -> new BorrowStat());
+        borrows.title = book.title;
+        borrows.count.increment();
+        if (!borrows.inTop && borrows.count.sum() > topFloor) {
+            synchronized (mostBorrowed) {
+                if (!borrows.inTop && borrowsByBook.get(book.id) == borrows) {
+                    offer(borrows);
+                }
+            }
+        }
+    }
+
+    /** Forgets the borrow history of a deleted book; renames go through bookRemoved and bookAdded instead. */
+    void bookDeleted(int bookId) {
+        BorrowStat borrows = borrowsByBook.remove(bookId);
+        if (borrows == null) {
+            return;
+        }
+        synchronized (mostBorrowed) {
+            if (!borrows.inTop) {
+                return;
+            }
+            mostBorrowed.remove(borrows);
+            borrows.inTop = false;
+            // The runner-up is not tracked, so look for it again; deleting a top title is rare.
+            topFloor = -1;
+            for (BorrowStat stat : borrowsByBook.values()) {
+                if (!stat.inTop && stat.count.sum() > topFloor) {
+                    offer(stat);
+                }
+            }
+        }
+    }
+
+    // Caller holds the mostBorrowed monitor.
+    private void offer(BorrowStat borrows) {
+        mostBorrowed.add(borrows);
+        borrows.inTop = true;
+        if (mostBorrowed.size() > TOP_BORROWED) {
+            BorrowStat least = leastBorrowed();
+            mostBorrowed.remove(least);
+            least.inTop = false;
+        }
+        topFloor = mostBorrowed.size() < TOP_BORROWED ? -1 : leastBorrowed().count.sum();
+    }
+
+    private BorrowStat leastBorrowed() {
+        BorrowStat least = null;
+        for (BorrowStat stat : mostBorrowed) {
+            if (least == null || stat.count.sum() < least.count.sum()) {
+                least = stat;
+            }
+        }
+        return least;
+    }
+
+    void loanOpened(CirculationEngine.Loan loan) {
+        activeLoans.increment();
+        loansByDueDate.merge(loan.dueDate, 1L, Long::sum);
+    }
+
+    void loanClosed(CirculationEngine.Loan loan) {
+        activeLoans.decrement();
+        loansByDueDate.computeIfPresent(loan.dueDate, (date, count) -> count == 1 ? null : count - 1);
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /** Per-author counts cost one entry per distinct author, so they are only copied when asked for. */
+    public Snapshot snapshot(boolean includeAuthors) {
+        LocalDate today = LocalDate.now();
+        long overdue = 0;
+        // One entry per distinct due date, not per loan.
+        for (long count : loansByDueDate.headMap(today).values()) {
+            overdue += count;
+        }
+
+        Map<String, Long> byAuthor = new TreeMap<>();
+        if (includeAuthors) {
+            booksByAuthor.forEach((author, count) -> {
+                long value = count.sum();
+                if (value > 0) {
+                    byAuthor.put(author, value);
+                }
+            });
+        }
+
+        List<Map.Entry<String, Long>> topBorrowed = new ArrayList<>(TOP_BORROWED);
+        synchronized (mostBorrowed) {
+            for (BorrowStat stat : mostBorrowed) {
+                topBorrowed.add(new AbstractMap.SimpleImmutableEntry<>(stat.title, stat.count.sum()));
+            }
+        }
+        topBorrowed.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        long total = totalBooks.sum();
+        long available = availableBooks.sum();
+        return new Snapshot(Instant.now(), total, available, total - available, activeLoans.sum(), overdue, byAuthor, topBorrowed);
+    }
+
+    static class Snapshot {
+        final Instant takenAt;
+        final long totalBooks;
+        final long availableBooks;
+        final long checkedOutBooks;
+        final long activeLoans;
+        final long overdueLoans;
+        final Map<String, Long> booksByAuthor;
+        final List<Map.Entry<String, Long>> topBorrowed;
+
+        Snapshot(Instant takenAt, long totalBooks, long availableBooks, long checkedOutBooks, long activeLoans,
+                 long overdueLoans, Map<String, Long> booksByAuthor, List<Map.Entry<String, Long>> topBorrowed) {
+            this.takenAt = takenAt;
+            this.totalBooks = totalBooks;
+            this.availableBooks = availableBooks;
+            this.checkedOutBooks = checkedOutBooks;
+            this.activeLoans = activeLoans;
+            this.overdueLoans = overdueLoans;
+            this.booksByAuthor = booksByAuthor;
+            this.topBorrowed = topBorrowed;
+        }
+
+        public String toCsv() {
+            StringBuilder csv = new StringBuilder("section,name,value\n");
+            csv.append("summary,taken_at,").append(takenAt).append('\n');
+            csv.append("summary,total_books,").append(totalBooks).append('\n');
+            csv.append("summary,available_books,").append(availableBooks).append('\n');
+            csv.append("summary,checked_out_books,").append(checkedOutBooks).append('\n');
+            csv.append("summary,active_loans,").append(activeLoans).append('\n');
+            csv.append("summary,overdue_loans,").append(overdueLoans).append('\n');
+            booksByAuthor.forEach((author, count) -> csv.append("author,").append(csvField(author)).append(',').append(count).append('\n'));
+            topBorrowed.forEach(entry -> csv.append("top_borrowed,").append(csvField(entry.getKey())).append(',').append(entry.getValue()).append('\n'));
+            return csv.toString();
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{");
+            json.append("\"takenAt\":").append(Json.quote(takenAt.toString()));
+            json.append(",\"totalBooks\":").append(totalBooks);
+            json.append(",\"availableBooks\":").append(availableBooks);
+            json.append(",\"checkedOutBooks\":").append(checkedOutBooks);
+            json.append(",\"activeLoans\":").append(activeLoans);
+            json.append(",\"overdueLoans\":").append(overdueLoans);
+            json.append(",\"booksByAuthor\":{");
+            String separator = "";
+            for (Map.Entry<String, Long> entry : booksByAuthor.entrySet()) {
+                json.append(separator).append(Json.quote(entry.getKey())).append(':').append(entry.getValue());
+                separator = ",";
+            }
+            json.append("},\"topBorrowed\":[");
+            separator = "";
+            for (Map.Entry<String, Long> entry : topBorrowed) {
+                json.append(separator).append("{\"title\":").append(Json.quote(entry.getKey()))
+                        .append(",\"borrows\":").append(entry.getValue()).append('}');
+                separator = ",";
+            }
+            return json.append("]}").toString();
+        }
+
+        private static String csvField(String value) {
+            if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+                return "\"" + value.replace("\"", "\"\"") + "\"";
+            }
+            return value;
+        }
+    }
+}
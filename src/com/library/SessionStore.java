@@ -0,0 +1,143 @@
+package com.library;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Login sessions keyed by an opaque random token, so only the login itself pays for password
+ * hashing and every later request is a single concurrent-map lookup. Sessions slide forward when
+ * used and a background sweep drops the ones that have been idle longer than the TTL.
+ */
+class SessionStore implements AutoCloseable {
+    static final Duration DEFAULT_TTL = Duration.ofMinutes(30);
+    private static final int TOKEN_BYTES = 24;
+
+    private static class Session {
+        final User user;
+        final String token;
+        volatile long expiresAtNanos;
+
+        Session(User user, String token, long expiresAtNanos) {
+            this.user = user;
+            this.token = token;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> tokensByUser = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlNanos;
+    private volatile ScheduledExecutorService sweeper;
+
+    public SessionStore() {
+        this(DEFAULT_TTL);
+    }
+
+    public SessionStore(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public String create(User user) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(user, token, System.nanoTime() + ttlNanos));
+        tokensByUser.computeIfAbsent(user.username, k -> ConcurrentHashMap.newKeySet()).add(token);
+        startSweeper();
+        return token;
+    }
+
+    /** Returns the session's user, or null if the token is unknown or expired. */
+    public User validate(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        long expiresAt = session.expiresAtNanos;
+        if (now - expiresAt >= 0) {
+            remove(session);
+            return null;
+        }
+        // Only write back once half the TTL is used up, so hot tokens don't bounce a cache line between cores.
+        if (expiresAt - now < ttlNanos / 2) {
+            session.expiresAtNanos = now + ttlNanos;
+        }
+        return session.user;
+    }
+
+    public void invalidate(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session != null) {
+            remove(session);
+        }
+    }
+
+    /** Ends every session of the user, e.g. after a password change or account deletion. */
+    public void invalidateUser(String username) {
+        Set<String> tokens = tokensByUser.remove(username);
+        if (tokens != null) {
+            tokens.forEach(sessions::remove);
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    int evictExpired() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (Session session : sessions.values()) {
+            if (now - session.expiresAtNanos >= 0) {
+                remove(session);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    private void remove(Session session) {
+        if (sessions.remove(session.token, session)) {
+            Set<String> tokens = tokensByUser.get(session.user.username);
+            if (tokens != null) {
+                tokens.remove(session.token);
+                if (tokens.isEmpty()) {
+                    tokensByUser.remove(session.user.username, tokens);
+                }
+            }
+        }
+    }
+
+    private void startSweeper() {
+        if (sweeper != null) {
+            return;
+        }
+        synchronized (this) {
+            if (sweeper != null) {
+                return;
+            }
+            long period = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(ttlNanos) / 4);
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "session-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.SECONDS);
+            sweeper = executor;
+        }
+    }
+}
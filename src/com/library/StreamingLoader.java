@@ -0,0 +1,168 @@
+package com.library;
+
+import java.lang.management.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Loads a table a page at a time by keyset. A page that fails to load is retried from the same
+ * key with exponential backoff, so a brief database outage only delays the load; once a page has
+ * failed maxAttempts times in a row the load stops and reports itself failed.
+ */
+class StreamingLoader<T> {
+    static final int DEFAULT_PAGE_SIZE = 5_000;
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final long DEFAULT_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final Metrics.Timer PAGE_TIMER = Metrics.timer("db.load_page");
+
+    interface RowMapper<T> {
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    private final ConnectionProvider connectionProvider;
+    private final String name;
+    private final String pageSql;
+    private final Object firstKey;
+    private final int pageSize;
+    private final RowMapper<T> mapper;
+    private final Function<T, Object> keyOf;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile long rowsLoaded;
+    private volatile boolean failed;
+    private volatile long peakHeapBytes;
+
+    /**
+     * @param pageSql keyset query taking the last seen key and a limit, e.g.
+     *                {@code SELECT ... FROM books WHERE id > ? ORDER BY id LIMIT ?}
+     */
+    public StreamingLoader(ConnectionProvider connectionProvider, String name, String pageSql, Object firstKey,
+                           int pageSize, RowMapper<T> mapper, Function<T, Object> keyOf) {
+        this(connectionProvider, name, pageSql, firstKey, pageSize, mapper, keyOf, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+    }
+
+    public StreamingLoader(ConnectionProvider connectionProvider, String name, String pageSql, Object firstKey,
+                           int pageSize, RowMapper<T> mapper, Function<T, Object> keyOf, int maxAttempts, long backoffMillis) {
+        this.connectionProvider = connectionProvider;
+        this.name = name;
+        this.pageSql = pageSql;
+        this.firstKey = firstKey;
+        this.pageSize = pageSize;
+        this.mapper = mapper;
+        this.keyOf = keyOf;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    public void run(Consumer<List<T>> pageConsumer) {
+        long start = System.nanoTime();
+        peakHeapBytes = heapUsed();
+        Object lastKey = firstKey;
+        try {
+            while (true) {
+                List<T> page = loadPage(lastKey);
+                if (page.isEmpty()) {
+                    break;
+                }
+                pageConsumer.accept(page);
+                rowsLoaded += page.size();
+                peakHeapBytes = Math.max(peakHeapBytes, heapUsed());
+                lastKey = keyOf.apply(page.get(page.size() - 1));
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            Log.info(name + " loaded from database successfully: " + rowsLoaded + " rows in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, peak heap " + peakHeapMegabytes() + " MB.");
+        } catch (SQLException e) {
+            failed = true;
+            Log.error("Gave up loading " + name.toLowerCase() + " from the database after " + rowsLoaded + " rows and "
+                    + maxAttempts + " attempts at the next page: " + e.getMessage() + ". Lookups will query the database directly.");
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+            Log.error("Loading " + name.toLowerCase() + " was interrupted after " + rowsLoaded + " rows.");
+        } finally {
+            done.countDown();
+        }
+    }
+
+    /** The page after lastKey, retried with backoff; throws the last error once every attempt has failed. */
+    private List<T> loadPage(Object lastKey) throws SQLException, InterruptedException {
+        long backoff = backoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            List<T> page = new ArrayList<>(pageSize);
+            long pageStart = System.nanoTime();
+            try (PooledConnection connection = connectionProvider.acquire()) {
+                PreparedStatement statement = connection.prepare(pageSql);
+                statement.setFetchSize(pageSize);
+                statement.setObject(1, lastKey);
+                statement.setInt(2, pageSize);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        page.add(mapper.map(resultSet));
+                    }
+                }
+                return page;
+            } catch (SQLException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                Log.warn("Error loading " + name.toLowerCase() + " after " + rowsLoaded + " rows (attempt " + attempt + " of "
+                        + maxAttempts + "): " + e.getMessage() + "; retrying in " + backoff + " ms.");
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            } finally {
+                PAGE_TIMER.stop(pageStart);
+            }
+        }
+    }
+
+    public void start(Consumer<List<T>> pageConsumer) {
+        Thread thread = new Thread(() -> run(pageConsumer), name.toLowerCase() + "-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Whether every row was loaded; false while running and for good if the load failed part way. */
+    public boolean isComplete() {
+        return done.getCount() == 0 && !failed;
+    }
+
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /** Waits for the load to stop, whether or not it completed. */
+    public void awaitCompletion() throws InterruptedException {
+        done.await();
+    }
+
+    public long rowsLoaded() {
+        return rowsLoaded;
+    }
+
+    /** Most heap in use after any page of this load, so loaders running side by side do not reset each other. */
+    public long peakHeapMegabytes() {
+        return peakHeapBytes / (1024 * 1024);
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /** Peak heap of the whole process since it started. */
+    static long processPeakHeapMegabytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak / (1024 * 1024);
+    }
+}
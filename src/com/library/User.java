@@ -0,0 +1,23 @@
+package com.library;
+
+class User {
+    String username;
+    // A PasswordHasher hash, or plaintext for rows written before hashing until the user next logs in.
+    volatile String password;
+    // Bumped with every journaled change to the row; guarded by the UserRegistrationAndLogin monitor.
+    int version;
+
+    public User(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    User(String username, String password, int version) {
+        this(username, password);
+        this.version = version;
+    }
+
+    public boolean login(String password) {
+        return PasswordHasher.verify(password, this.password);
+    }
+}
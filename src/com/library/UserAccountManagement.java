@@ -0,0 +1,21 @@
+package com.library;
+
+class UserAccountManagement {
+    private final UserRegistrationAndLogin userManagement;
+
+    public UserAccountManagement(UserRegistrationAndLogin userManagement) {
+        this.userManagement = userManagement;
+    }
+
+    public void changePassword(User user, String newPassword) {
+        if (userManagement.changePassword(user.username, newPassword)) {
+            Log.info("Password changed successfully.");
+        } else {
+            Log.info("User not found.");
+        }
+    }
+
+    public void logoutUser(User user) {
+        Log.info("User " + user.username + " logged out.");
+    }
+}
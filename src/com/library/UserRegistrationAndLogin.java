@@ -0,0 +1,401 @@
+package com.library;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registered users and their sessions. Users are kept in a table whose version column makes
+ * password changes and deletes optimistic, like books:
+ *
+ * <pre>
+ * CREATE TABLE users (
+ *     username VARCHAR(255) PRIMARY KEY,
+ *     password VARCHAR(255) NOT NULL,
+ *     version INT NOT NULL DEFAULT 0)
+ * </pre>
+ *
+ * An older users table takes the column with {@code ALTER TABLE users ADD COLUMN version INT NOT NULL DEFAULT 0}.
+ */
+class UserRegistrationAndLogin {
+    static final WriteBehindJournal.Table USERS_TABLE = new WriteBehindJournal.Table("users",
+            "INSERT INTO users (password, version, username) VALUES (?, ?, ?)",
+            "UPDATE users SET password = ?, version = ? WHERE username = ? AND version = ?",
+            "DELETE FROM users WHERE username = ? AND version = ?", true, true);
+    static final long CACHE_BYTES = Long.getLong("library.userCacheBytes", 16L << 20);
+    private static final Metrics.Timer REGISTER_TIMER = Metrics.timer("users.register");
+    private static final Metrics.Timer LOGIN_TIMER = Metrics.timer("users.login");
+    private static final Metrics.Timer SESSION_TIMER = Metrics.timer("users.validate_session");
+    private static final Metrics.Timer PASSWORD_TIMER = Metrics.timer("users.change_password");
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer("db.query.users");
+
+    Map<String, User> users = new ConcurrentHashMap<>();
+    private final Set<String> deletedWhileLoading = new HashSet<>();
+    private final ConnectionProvider connectionProvider;
+    private final WriteBehindJournal journal;
+    private final StreamingLoader<User> loader;
+    private final SessionStore sessions = new SessionStore();
+    private final BoundedCache<String, User> cache;
+    private volatile boolean restored;
+
+    public UserRegistrationAndLogin(ConnectionProvider connectionProvider, WriteBehindJournal journal) {
+        this(connectionProvider, journal, LoadMode.EAGER);
+    }
+
+    public UserRegistrationAndLogin(ConnectionProvider connectionProvider, WriteBehindJournal journal, LoadMode loadMode) {
+        this.connectionProvider = connectionProvider;
+        this.journal = journal;
+        this.loader = new StreamingLoader<>(connectionProvider, "Users",
+                "SELECT username, password, version FROM users WHERE username > ? ORDER BY username LIMIT ?", "",
+                StreamingLoader.DEFAULT_PAGE_SIZE, UserRegistrationAndLogin::mapUser, user -> user.username);
+        this.cache = loadMode == LoadMode.CACHED
+                ? new BoundedCache<>("Users", CACHE_BYTES, user -> 64 + 2L * (user.username.length() + user.password.length()))
+                : null;
+        journal.onRejected(USERS_TABLE, key -> reload((String) key));
+        if (cache == null) {
+            loadUsersFromDatabase(loadMode);
+        }
+    }
+
+    public boolean isLoaded() {
+        return cache != null || restored || loader.isComplete();
+    }
+
+    /** Hit/miss/eviction counts in CACHED mode, null otherwise. */
+    public BoundedCache.Stats cacheStats() {
+        return cache == null ? null : cache.stats();
+    }
+
+    public User findUser(String username) {
+        if (cache != null) {
+            return findCachedUser(username);
+        }
+        User user = users.get(username);
+        if (user != null || isLoaded()) {
+            return user;
+        }
+        synchronized (this) {
+            user = users.get(username);
+            if (user == null && !isLoaded() && !deletedWhileLoading.contains(username)) {
+                user = loadUserFromDatabase(username);
+                if (user != null) {
+                    users.put(username, user);
+                }
+            }
+            return user;
+        }
+    }
+
+    // Unflushed journal rows win over the table, so an evicted user still sees its own writes.
+    private User findCachedUser(String username) {
+        User user = cache.get(username);
+        if (user != null) {
+            return user;
+        }
+        WriteBehindJournal.Mutation write = journal.pendingWrite(USERS_TABLE, username);
+        if (write != null) {
+            if (write.kind == WriteBehindJournal.Kind.DELETE) {
+                return null;
+            }
+            user = new User(username, (String) write.row[0], (Integer) write.row[1]);
+        } else {
+            user = loadUserFromDatabase(username);
+            if (user == null) {
+                return null;
+            }
+        }
+        return cache.putIfAbsent(username, user);
+    }
+
+    public boolean registerUser(String username, String password) {
+        long start = System.nanoTime();
+        try {
+            if (insertUser(username, PasswordHasher.hash(password))) {
+                Log.info("User registered successfully.");
+                return true;
+            }
+            Log.info("Username already taken.");
+            return false;
+        } finally {
+            REGISTER_TIMER.stop(start);
+        }
+    }
+
+    public User loginUser(String username, String password) {
+        User user = authenticate(username, password);
+        if (user != null) {
+        	Log.info("Login successful");
+        } else {
+            Log.info("Invalid username or password.");
+        }
+        return user;
+    }
+
+    /**
+     * Verifies the password, upgrading plaintext or cheaper hashes on success; null if it does not
+     * match. An unknown username costs the same hash as a wrong password.
+     */
+    public User authenticate(String username, String password) {
+        long start = System.nanoTime();
+        try {
+            User user = findUser(username);
+            if (user == null) {
+                PasswordHasher.verifyAbsent(password);
+                return null;
+            }
+            String stored = user.password;
+            if (!PasswordHasher.verify(password, stored)) {
+                return null;
+            }
+            if (PasswordHasher.needsRehash(stored)) {
+                String rehashed = PasswordHasher.hash(password);
+                synchronized (this) {
+                    if (user.password.equals(stored) && findUser(username) == user) {
+                        user.password = rehashed;
+                        remember(user);
+                        updateUserInDatabase(user);
+                    }
+                }
+            }
+            return user;
+        } finally {
+            LOGIN_TIMER.stop(start);
+        }
+    }
+
+    /** Logs in and opens a session; later requests present the token instead of the password. */
+    public String startSession(String username, String password) {
+        User user = authenticate(username, password);
+        return user == null ? null : sessions.create(user);
+    }
+
+    public User validateSession(String token) {
+        long start = System.nanoTime();
+        try {
+            return sessions.validate(token);
+        } finally {
+            SESSION_TIMER.stop(start);
+        }
+    }
+
+    public void endSession(String token) {
+        sessions.invalidate(token);
+    }
+
+    SessionStore sessions() {
+        return sessions;
+    }
+
+    public boolean changePassword(String username, String newPassword) {
+        long start = System.nanoTime();
+        try {
+            String hash = PasswordHasher.hash(newPassword);
+            synchronized (this) {
+                User user = findUser(username);
+                if (user == null) {
+                    return false;
+                }
+                user.password = hash;
+                remember(user);
+                updateUserInDatabase(user);
+            }
+            sessions.invalidateUser(username);
+            return true;
+        } finally {
+            PASSWORD_TIMER.stop(start);
+        }
+    }
+
+    public boolean updateUser(String username, String newPassword) {
+        if (changePassword(username, newPassword)) {
+            Log.info("User updated successfully.");
+            return true;
+        }
+        Log.info("User not found.");
+        return false;
+    }
+
+    public synchronized boolean deleteUser(String username) {
+        User user = findUser(username);
+        if (user != null) {
+            forget(username);
+            deleteUserFromDatabase(user);
+            sessions.invalidateUser(username);
+            Log.info("User deleted successfully.");
+            return true;
+        } else {
+            Log.info("User not found.");
+            return false;
+        }
+    }
+
+    public boolean addUser(String username, String password) {
+        if (insertUser(username, PasswordHasher.hash(password))) {
+            Log.info("User added successfully.");
+            return true;
+        }
+        Log.info("Username already exists.");
+        return false;
+    }
+
+    // Hashing happens before this is called so the monitor is never held for the key derivation.
+    private synchronized boolean insertUser(String username, String passwordHash) {
+        if (findUser(username) != null) {
+            return false;
+        }
+        User user = new User(username, passwordHash);
+        remember(user);
+        saveUserToDatabase(user);
+        return true;
+    }
+
+    private void remember(User user) {
+        if (cache != null) {
+            cache.put(user.username, user);
+        } else {
+            users.put(user.username, user);
+        }
+    }
+
+    private void forget(String username) {
+        if (cache != null) {
+            cache.invalidate(username);
+            return;
+        }
+        users.remove(username);
+        if (!isLoaded()) {
+            deletedWhileLoading.add(username);
+        }
+    }
+
+    
+    // Callers hold this monitor, which orders version bumps with their journal writes.
+    private void saveUserToDatabase(User user) {
+        journal.insert(USERS_TABLE, user.username, user.password, user.version, user.username);
+    }
+
+    private void updateUserInDatabase(User user) {
+        user.version++;
+        journal.update(USERS_TABLE, user.username, user.password, user.version, user.username);
+    }
+
+    private void deleteUserFromDatabase(User user) {
+        journal.delete(USERS_TABLE, user.username, user.version);
+    }
+
+    private void loadUsersFromDatabase(LoadMode loadMode) {
+        users.clear();
+        if (loadMode == LoadMode.SNAPSHOT && restoreFromSnapshot()) {
+            return;
+        }
+        if (loadMode == LoadMode.EAGER) {
+            loader.run(this::applyLoadedPage);
+        } else {
+            loader.start(this::applyLoadedPage);
+        }
+    }
+
+    private boolean restoreFromSnapshot() {
+        if (!journal.logsChanges()) {
+            Log.warn("Snapshot restore needs the catalog_changes table; loading users from the database.");
+            return false;
+        }
+        try {
+            CatalogSnapshot snapshot = CatalogSnapshot.open(CatalogSnapshot.path());
+            if (snapshot == null) {
+                return false;
+            }
+            long start = System.nanoTime();
+            snapshot.readUsers(user -> users.put(user.username, user));
+            Set<String> changed = WriteBehindJournal.changedKeysSince(connectionProvider, USERS_TABLE, snapshot.watermark());
+            for (String username : changed) {
+                User user = loadUserFromDatabase(username);
+                if (user != null) {
+                    users.put(username, user);
+                } else {
+                    users.remove(username);
+                }
+            }
+            restored = true;
+            Log.info("Users restored from snapshot: " + snapshot.userCount() + " rows, " + changed.size()
+                    + " changes replayed in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            return true;
+        } catch (IOException | SQLException e) {
+            Log.error("Error restoring users from snapshot: " + e.getMessage());
+            users.clear();
+            return false;
+        }
+    }
+
+    synchronized void applyLoadedPage(List<User> page) {
+        for (User user : page) {
+            if (!deletedWhileLoading.contains(user.username)) {
+                users.putIfAbsent(user.username, user);
+            }
+        }
+    }
+
+    /** Takes the pages applied so far as the whole table, for stores filled without a database load. */
+    void markLoaded() {
+        restored = true;
+    }
+
+    /**
+     * Puts the in-memory user in line with its row, after the journal rejected a write to it or
+     * another node changed it. Users only change under this monitor, so the row read here is
+     * current unless this node has a write to it still waiting to be flushed; such a user is left
+     * alone until that write commits or is rejected and reloads it.
+     */
+    synchronized void reload(String username) {
+        if (journal.pendingWrite(USERS_TABLE, username) != null) {
+            return;
+        }
+        User row;
+        try {
+            row = selectUser(username);
+        } catch (SQLException e) {
+            Log.error("Error reloading user " + username + " from the database: " + e.getMessage());
+            return;
+        }
+        User user = cache != null ? cache.get(username) : users.get(username);
+        if (row == null) {
+            if (user != null) {
+                forget(username);
+                sessions.invalidateUser(username);
+            }
+        } else if (user != null) {
+            user.password = row.password;
+            user.version = row.version;
+        } else if (cache == null) {
+            remember(row);
+        }
+    }
+
+    private User loadUserFromDatabase(String username) {
+        try {
+            return selectUser(username);
+        } catch (SQLException e) {
+            Log.error("Error loading user from the database: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private User selectUser(String username) throws SQLException {
+        String sql = "SELECT username, password, version FROM users WHERE username = ?";
+        long start = System.nanoTime();
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            PreparedStatement statement = connection.prepare(sql);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? mapUser(resultSet) : null;
+            }
+        } finally {
+            QUERY_TIMER.stop(start);
+        }
+    }
+
+    private static User mapUser(ResultSet resultSet) throws SQLException {
+        return new User(resultSet.getString("username"), resultSet.getString("password"), resultSet.getInt("version"));
+    }
+}
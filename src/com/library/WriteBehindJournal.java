@@ -0,0 +1,758 @@
+package com.library;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Coalescing write-behind queue for table rows. Mutations on tables created with logChanges also
+ * append (table_name, row_key, kind, node_id) to catalog_changes in the same transaction, giving
+ * snapshot restore and other nodes' {@link ChangeFeed} an ordered record of what changed:
+ *
+ * <pre>
+ * CREATE TABLE catalog_changes (
+ *     seq BIGINT AUTO_INCREMENT PRIMARY KEY,
+ *     table_name VARCHAR(64) NOT NULL,
+ *     row_key VARCHAR(255) NOT NULL,
+ *     kind VARCHAR(8) NOT NULL,
+ *     node_id VARCHAR(64))
+ * </pre>
+ *
+ * Without that table the journal still writes rows but records no changes; without node_id it
+ * records them, but a change feed cannot tell this node's changes from the others'.
+ *
+ * <p>Writes on versioned tables are optimistic: each carries the version the row had before its
+ * first unflushed change and matches nothing if the row has moved on since. Such a rejected write
+ * is dropped along with the rest of its {@link #transaction} group, and the table's reload listener
+ * puts the in-memory copy back in line with the database. So is an update or delete on any table
+ * that matches no row, as when another node sharing the database deleted it first.
+ *
+ * <p>A flush runs every delete, then every update, then every insert, so a row may take a unique
+ * value another row gave up in the same flush. Statements of one kind run in no set table order,
+ * which is why the journaled tables carry no foreign keys between them.
+ */
+class WriteBehindJournal implements AutoCloseable {
+    static final int DEFAULT_BATCH_SIZE = 500;
+    static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final String CHANGE_LOG_SQL = "INSERT INTO catalog_changes (table_name, row_key, kind) VALUES (?, ?, ?)";
+    private static final String NODE_CHANGE_LOG_SQL = "INSERT INTO catalog_changes (table_name, row_key, kind, node_id) VALUES (?, ?, ?, ?)";
+    private static final Metrics.Timer FLUSH_TIMER = Metrics.timer("db.flush");
+    private static final Metrics.Counter FLUSHED_ROWS = Metrics.counter("journal.flushed_rows");
+    private static final Metrics.Counter FLUSH_FAILURES = Metrics.counter("journal.flush_failures");
+    private static final Metrics.Counter DROPPED_WRITES = Metrics.counter("journal.dropped_writes");
+    private static final Metrics.Counter CONFLICTS = Metrics.counter("journal.conflicts");
+
+    enum Kind { INSERT, UPDATE, DELETE }
+
+    /**
+     * SQL for one table. Insert and update statements must bind the row columns in the
+     * same order with the key last, so a coalesced mutation can switch between them.
+     * A versioned table binds its version column just before the key, and its update and
+     * delete statements end in {@code AND version = ?} for the version expected in the database.
+     * An indexed column, given by its position in the row, lets {@link #pendingWritesWith} find
+     * unflushed rows by that column's value without scanning the table's writes.
+     */
+    static class Table {
+        final String name;
+        final String insertSql;
+        final String updateSql;
+        final String deleteSql;
+        final boolean logChanges;
+        final boolean versioned;
+        final int indexedColumn;
+
+        Table(String name, String insertSql, String updateSql, String deleteSql) {
+            this(name, insertSql, updateSql, deleteSql, false);
+        }
+
+        Table(String name, String insertSql, String updateSql, String deleteSql, boolean logChanges) {
+            this(name, insertSql, updateSql, deleteSql, logChanges, false);
+        }
+
+        Table(String name, String insertSql, String updateSql, String deleteSql, boolean logChanges, boolean versioned) {
+            this(name, insertSql, updateSql, deleteSql, logChanges, versioned, -1);
+        }
+
+        Table(String name, String insertSql, String updateSql, String deleteSql, boolean logChanges, boolean versioned,
+                int indexedColumn) {
+            this.name = name;
+            this.insertSql = insertSql;
+            this.updateSql = updateSql;
+            this.deleteSql = deleteSql;
+            this.logChanges = logChanges;
+            this.versioned = versioned;
+            this.indexedColumn = indexedColumn;
+        }
+
+        String sql(Kind kind) {
+            switch (kind) {
+                case INSERT: return insertSql;
+                case UPDATE: return updateSql;
+                default: return deleteSql;
+            }
+        }
+    }
+
+    static class Mutation {
+        final Table table;
+        final Object key;
+        final Kind kind;
+        final Object[] row;
+        // Version the database must still hold for an update or delete on a versioned table.
+        final long expectedVersion;
+        int attempts;
+        Group group;
+        // The unsettled write to the same row this one was made on top of; if that fails, so does this.
+        Mutation after;
+        volatile boolean failed;
+
+        Mutation(Table table, Object key, Kind kind, Object[] row, long expectedVersion) {
+            this.table = table;
+            this.key = key;
+            this.kind = kind;
+            this.row = row;
+            this.expectedVersion = expectedVersion;
+        }
+    }
+
+    /**
+     * Mutations submitted by one transaction. Coalescing a key that two groups share joins them,
+     * since neither can then be written without the other; groups are union-find sets under groupLock.
+     */
+    static final class Group {
+        private Group parent = this;
+    }
+
+    /**
+     * Keys of one table's pending and in-flight mutations in key order, each with the indexed
+     * values it was written with, and the keys under each such value. Only changed inside
+     * pending.compute for the key, so it never disagrees with the maps for long enough to matter;
+     * lookups still check each key against them.
+     */
+    private static final class TableIndex {
+        final ConcurrentNavigableMap<Object, Set<Object>> keys = new ConcurrentSkipListMap<>();
+        final ConcurrentMap<Object, Set<Object>> byValue = new ConcurrentHashMap<>();
+    }
+
+    private final ConnectionProvider connectionProvider;
+    private final int batchSize;
+    private final ConcurrentMap<String, Mutation> pending = new ConcurrentHashMap<>();
+    // Mutations drained by the running flush; readers still see them until the batch commits.
+    private final ConcurrentMap<String, Mutation> inFlight = new ConcurrentHashMap<>();
+    // Rejected or dropped mutations whose rows have not been reloaded yet.
+    private final ConcurrentMap<String, Mutation> unreloaded = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Table, TableIndex> indexes = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Transactions submit under the read lock and a flush drains under the write lock, so no group is split.
+    private final StampedLock submitLock = new StampedLock();
+    private final ThreadLocal<Group> currentGroup = new ThreadLocal<>();
+    private final Object groupLock = new Object();
+    private final Map<Table, Consumer<Object>> reloaders = new ConcurrentHashMap<>();
+    private final Map<Table, Consumer<Mutation>> writeListeners = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean closed;
+    private final String nodeId;
+    // Null if catalog_changes does not exist.
+    private final String changeLogSql;
+
+    public WriteBehindJournal(ConnectionProvider connectionProvider) {
+        this(connectionProvider, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public WriteBehindJournal(ConnectionProvider connectionProvider, int batchSize, long flushIntervalMillis) {
+        this(connectionProvider, batchSize, flushIntervalMillis, System.getProperty("library.nodeId",
+                Long.toHexString(ThreadLocalRandom.current().nextLong())));
+    }
+
+    /** The node id tags this journal's rows in catalog_changes; it must differ between nodes sharing a database. */
+    public WriteBehindJournal(ConnectionProvider connectionProvider, int batchSize, long flushIntervalMillis, String nodeId) {
+        this.connectionProvider = connectionProvider;
+        this.batchSize = batchSize;
+        this.nodeId = nodeId;
+        this.changeLogSql = probeChangeLog(connectionProvider);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void insert(Table table, Object key, Object... row) {
+        submit(new Mutation(table, key, Kind.INSERT, row, -1));
+    }
+
+    /** On a versioned table the row's version must be one past the version the database holds. */
+    public void update(Table table, Object key, Object... row) {
+        long expected = table.versioned ? ((Number) row[row.length - 2]).longValue() - 1 : -1;
+        submit(new Mutation(table, key, Kind.UPDATE, row, expected));
+    }
+
+    public void delete(Table table, Object key) {
+        if (table.versioned) {
+            throw new IllegalArgumentException("Deletes on " + table.name + " must give the row's version.");
+        }
+        submit(new Mutation(table, key, Kind.DELETE, new Object[] { key }, -1));
+    }
+
+    public void delete(Table table, Object key, long version) {
+        submit(new Mutation(table, key, Kind.DELETE, new Object[] { key }, version));
+    }
+
+    /**
+     * Runs the body with every mutation it submits in one group, which is committed in a single
+     * transaction or not at all. Nested calls join the outer group.
+     */
+    public void transaction(Runnable body) {
+        if (currentGroup.get() != null) {
+            body.run();
+            return;
+        }
+        // Nested calls return above, so the non-reentrant lock is taken once per thread.
+        long stamp = submitLock.readLock();
+        currentGroup.set(new Group());
+        try {
+            body.run();
+        } finally {
+            currentGroup.set(null);
+            submitLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Called with the key of each row whose write was rejected by a version check or a constraint,
+     * or dropped after repeated failures, so the owner can reload it from the database. Replaces
+     * any reload set for the table before.
+     */
+    public void onRejected(Table table, Consumer<Object> reload) {
+        reloaders.put(table, reload);
+    }
+
+    /**
+     * Called on the writing thread with each mutation submitted to the table, once it is
+     * queued, so a second in-memory copy of the rows can follow this node's own writes. Callers
+     * already serialize writes to one row, so the listener sees them in order. Replaces any
+     * listener set for the table before.
+     */
+    public void onWrite(Table table, Consumer<Mutation> listener) {
+        writeListeners.put(table, listener);
+    }
+
+    /** Writes rejected so far because the row had changed or a constraint failed. */
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /** Whether flushes record changes in catalog_changes; false if the table does not exist. */
+    public boolean logsChanges() {
+        return changeLogSql != null;
+    }
+
+    /** Whether recorded changes carry this journal's node id, which a change feed needs to skip them. */
+    public boolean logsNodeIds() {
+        return NODE_CHANGE_LOG_SQL.equals(changeLogSql);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /** Highest committed change sequence, 0 if none; the watermark a snapshot taken now is current to. */
+    static long latestChangeSeq(ConnectionProvider connectionProvider) throws SQLException {
+        try (PooledConnection connection = connectionProvider.acquire();
+             ResultSet resultSet = connection.prepare("SELECT COALESCE(MAX(seq), 0) FROM catalog_changes").executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    /** Keys of the table's rows changed after the sequence number, in change order, each listed once. */
+    static Set<String> changedKeysSince(ConnectionProvider connectionProvider, Table table, long seq) throws SQLException {
+        Set<String> keys = new LinkedHashSet<>();
+        try (PooledConnection connection = connectionProvider.acquire()) {
+            PreparedStatement statement = connection.prepare(
+                    "SELECT row_key FROM catalog_changes WHERE table_name = ? AND seq > ? ORDER BY seq");
+            statement.setString(1, table.name);
+            statement.setLong(2, seq);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    keys.add(resultSet.getString(1));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static String probeChangeLog(ConnectionProvider connectionProvider) {
+        if (connectionProvider == null) {
+            return null;
+        }
+        for (String columns : new String[] { "seq, node_id", "seq" }) {
+            try (PooledConnection connection = connectionProvider.acquire()) {
+                connection.prepare("SELECT " + columns + " FROM catalog_changes WHERE 1 = 0").executeQuery().close();
+                return columns.equals("seq") ? CHANGE_LOG_SQL : NODE_CHANGE_LOG_SQL;
+            } catch (SQLException e) {
+                // Try the older layout, then give up.
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The newest not-yet-committed mutation for the row, or null if the database is current.
+     * Lets a cache that missed read its own writes before falling through to SQL.
+     */
+    public Mutation pendingWrite(Table table, Object key) {
+        String pendingKey = key(table, key);
+        Mutation mutation = pending.get(pendingKey);
+        return mutation != null ? mutation : inFlight.get(pendingKey);
+    }
+
+    /** Every not-yet-committed mutation on the table, newest per key, in key order. */
+    public Collection<Mutation> pendingWrites(Table table) {
+        TableIndex index = indexes.get(table);
+        return index == null ? List.of() : pendingWrites(table, index.keys.keySet());
+    }
+
+    /** The not-yet-committed mutations on the table with fromKey <= key < toKey, newest per key, in key order. */
+    public Collection<Mutation> pendingWrites(Table table, Object fromKey, Object toKey) {
+        TableIndex index = indexes.get(table);
+        return index == null ? List.of() : pendingWrites(table, index.keys.subMap(fromKey, true, toKey, false).keySet());
+    }
+
+    /** The newest not-yet-committed inserts and updates whose row holds the value in the table's indexed column. */
+    public Collection<Mutation> pendingWritesWith(Table table, Object value) {
+        if (table.indexedColumn < 0) {
+            throw new IllegalArgumentException(table.name + " has no indexed column.");
+        }
+        TableIndex index = indexes.get(table);
+        Set<Object> keys = index == null ? null : index.byValue.get(value);
+        if (keys == null) {
+            return List.of();
+        }
+        List<Mutation> writes = new ArrayList<>();
+        for (Mutation mutation : pendingWrites(table, keys)) {
+            // The index keeps a value until the key settles, so the newest write may hold another.
+            if (value.equals(indexedValue(mutation))) {
+                writes.add(mutation);
+            }
+        }
+        return writes;
+    }
+
+    private List<Mutation> pendingWrites(Table table, Collection<Object> keys) {
+        List<Mutation> writes = new ArrayList<>();
+        for (Object key : keys) {
+            Mutation mutation = pendingWrite(table, key);
+            if (mutation != null) {
+                writes.add(mutation);
+            }
+        }
+        return writes;
+    }
+
+    private static Object indexedValue(Mutation mutation) {
+        return mutation.table.indexedColumn < 0 || mutation.kind == Kind.DELETE ? null : mutation.row[mutation.table.indexedColumn];
+    }
+
+    // Called inside pending.compute for the mutation's key, with the mutation now pending for it.
+    private void track(Mutation mutation) {
+        TableIndex index = indexes.computeIfAbsent(mutation.table, table -> new TableIndex());
+        Set<Object> values = index.keys.computeIfAbsent(mutation.key, key -> ConcurrentHashMap.newKeySet());
+        Object value = indexedValue(mutation);
+        if (value != null && values.add(value)) {
+            index.byValue.compute(value, (v, keys) -> {
+                Set<Object> result = keys != null ? keys : ConcurrentHashMap.<Object>newKeySet();
+                result.add(mutation.key);
+                return result;
+            });
+        }
+    }
+
+    // Called inside pending.compute for the key, once nothing is pending or in flight for it.
+    private void untrack(Table table, Object key) {
+        TableIndex index = indexes.get(table);
+        Set<Object> values = index == null ? null : index.keys.remove(key);
+        if (values == null) {
+            return;
+        }
+        for (Object value : values) {
+            index.byValue.computeIfPresent(value, (v, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    /** The result of a compute on pending for the key, with the key's index entries brought in line. */
+    private Mutation tracked(Table table, String pendingKey, Object key, Mutation mutation) {
+        if (mutation != null) {
+            track(mutation);
+        } else if (!inFlight.containsKey(pendingKey)) {
+            untrack(table, key);
+        }
+        return mutation;
+    }
+
+    /** Takes a written, rejected or requeued mutation out of flight. */
+    private void settle(Mutation mutation) {
+        String pendingKey = key(mutation.table, mutation.key);
+        inFlight.remove(pendingKey, mutation);
+        pending.compute(pendingKey, (key, newer) -> tracked(mutation.table, key, mutation.key, newer));
+    }
+
+    private static String key(Table table, Object key) {
+        return table.name + ":" + key;
+    }
+
+    private void submit(Mutation mutation) {
+        if (closed) {
+            throw new IllegalStateException("Write-behind journal is closed.");
+        }
+        mutation.group = currentGroup.get();
+        String pendingKey = key(mutation.table, mutation.key);
+        // Made from the in-memory row, which still reflects an in-flight or failed write until it settles or reloads.
+        Mutation unsettled = inFlight.get(pendingKey);
+        mutation.after = unsettled != null ? unsettled : unreloaded.get(pendingKey);
+        // compute() locks only the key's bin, so writers to different keys do not contend.
+        pending.compute(pendingKey, (key, older) -> tracked(mutation.table, key, mutation.key, merge(older, mutation)));
+        Consumer<Mutation> listener = writeListeners.get(mutation.table);
+        if (listener != null) {
+            listener.accept(mutation);
+        }
+        if (pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Collapses an older pending mutation with a newer one for the same key. The result expects
+     * the version the older one did, since the database has seen neither.
+     */
+    private Mutation merge(Mutation older, Mutation newer) {
+        if (older == null) {
+            return newer;
+        }
+        if (newer.kind == Kind.DELETE && older.kind == Kind.INSERT) {
+            return null;
+        }
+        // A row that was deleted and re-created still exists in the database until flushed.
+        Kind kind = newer.kind == Kind.DELETE ? Kind.DELETE : older.kind == Kind.INSERT ? Kind.INSERT : Kind.UPDATE;
+        Mutation merged = new Mutation(newer.table, newer.key, kind, newer.row, older.expectedVersion);
+        merged.attempts = Math.max(older.attempts, newer.attempts);
+        merged.group = join(older.group, newer.group);
+        merged.after = older.after != null ? older.after : newer.after;
+        return merged;
+    }
+
+    private Group join(Group a, Group b) {
+        if (a == null || b == null) {
+            return a == null ? b : a;
+        }
+        synchronized (groupLock) {
+            Group rootA = root(a);
+            Group rootB = root(b);
+            rootB.parent = rootA;
+            return rootA;
+        }
+    }
+
+    // Caller holds groupLock.
+    private static Group root(Group group) {
+        while (group.parent != group) {
+            group.parent = group.parent.parent;
+            group = group.parent;
+        }
+        return group;
+    }
+
+    /**
+     * Writes everything submitted before this call. Returns once it is committed, so callers
+     * that need read-your-writes against the database can use it as a barrier.
+     */
+    public void awaitFlush() throws SQLException {
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            Log.error("Error flushing pending writes to the database: " + e.getMessage());
+        }
+    }
+
+    private void flush() throws SQLException {
+        List<Mutation> failed = new ArrayList<>();
+        try {
+            flush(failed);
+        } finally {
+            reload(failed);
+        }
+    }
+
+    /** Flushes one batch, adding rejected and dropped mutations to the list for reloading once the lock is released. */
+    private void flush(List<Mutation> failed) throws SQLException {
+        synchronized (flushLock) {
+            flushScheduled.set(false);
+            List<Mutation> batch = new ArrayList<>();
+            long stamp = submitLock.writeLock();
+            try {
+                for (Map.Entry<String, Mutation> entry : pending.entrySet()) {
+                    // Publish to inFlight before removing so a concurrent pendingWrite never sees neither.
+                    inFlight.put(entry.getKey(), entry.getValue());
+                    if (pending.remove(entry.getKey(), entry.getValue())) {
+                        batch.add(entry.getValue());
+                    } else {
+                        inFlight.remove(entry.getKey(), entry.getValue());
+                    }
+                }
+            } finally {
+                submitLock.unlockWrite(stamp);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<Mutation> writable = new ArrayList<>(batch.size());
+            for (List<Mutation> group : groups(batch)) {
+                // Such a group was made from rows as a failed write left them, not as the database has them.
+                if (group.stream().anyMatch(mutation -> mutation.after != null && mutation.after.failed)) {
+                    reject(group, failed);
+                    group.forEach(this::settle);
+                } else {
+                    writable.addAll(group);
+                }
+            }
+            for (Mutation mutation : batch) {
+                mutation.after = null;
+            }
+            if (writable.isEmpty()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            Set<Mutation> unsettled = new LinkedHashSet<>(writable);
+            try (PooledConnection connection = connectionProvider.acquire()) {
+                Connection raw = connection.connection();
+                raw.setAutoCommit(false);
+                try {
+                    if (write(connection, writable)) {
+                        raw.commit();
+                        FLUSHED_ROWS.add(writable.size());
+                        unsettled.clear();
+                    } else {
+                        raw.rollback();
+                        // Retry each group in its own transaction so a rejected write holds back only its group.
+                        for (List<Mutation> group : groups(writable)) {
+                            if (write(connection, group)) {
+                                raw.commit();
+                                FLUSHED_ROWS.add(group.size());
+                            } else {
+                                raw.rollback();
+                                reject(group, failed);
+                            }
+                            unsettled.removeAll(group);
+                        }
+                    }
+                } catch (SQLException e) {
+                    raw.rollback();
+                    throw e;
+                } finally {
+                    raw.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                FLUSH_FAILURES.increment();
+                requeue(unsettled, failed);
+                throw e;
+            } finally {
+                FLUSH_TIMER.stop(start);
+                writable.forEach(this::settle);
+            }
+        }
+    }
+
+    /**
+     * Writes the mutations in the open transaction. Returns false if an update or delete matched no
+     * row or a constraint failed; other errors are thrown so the batch is retried.
+     */
+    private boolean write(PooledConnection connection, Collection<Mutation> mutations) throws SQLException {
+        try {
+            for (Map.Entry<String, List<Mutation>> group : groupByStatement(mutations).entrySet()) {
+                PreparedStatement statement = connection.prepare(group.getKey());
+                int[] counts;
+                try {
+                    for (Mutation mutation : group.getValue()) {
+                        for (int i = 0; i < mutation.row.length; i++) {
+                            statement.setObject(i + 1, mutation.row[i]);
+                        }
+                        if (mutation.table.versioned && mutation.kind != Kind.INSERT) {
+                            statement.setLong(mutation.row.length + 1, mutation.expectedVersion);
+                        }
+                        statement.addBatch();
+                    }
+                    counts = statement.executeBatch();
+                } finally {
+                    // The statement is cached, so never leave a half-built batch on it.
+                    statement.clearBatch();
+                }
+                for (int i = 0; i < counts.length; i++) {
+                    Mutation mutation = group.getValue().get(i);
+                    // Another node deleted the row, or for a versioned table changed it.
+                    if (counts[i] == 0 && mutation.kind != Kind.INSERT) {
+                        return false;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            if (isConstraintViolation(e)) {
+                return false;
+            }
+            throw e;
+        }
+        // Outside the catch: a clash on a change sequence is no fault of the rows, so it is retried.
+        logChanges(connection, mutations);
+        return true;
+    }
+
+    static boolean isConstraintViolation(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("23")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** The batch split into its transaction groups, each ungrouped mutation on its own, in batch order. */
+    private List<List<Mutation>> groups(List<Mutation> batch) {
+        Map<Object, List<Mutation>> groups = new LinkedHashMap<>();
+        synchronized (groupLock) {
+            for (Mutation mutation : batch) {
+                Object id = mutation.group == null ? mutation : root(mutation.group);
+                groups.computeIfAbsent(id, k -> new ArrayList<>(2)).add(mutation);
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private void reject(List<Mutation> group, List<Mutation> failed) {
+        rejected.add(group.size());
+        CONFLICTS.add(group.size());
+        for (Mutation mutation : group) {
+            Log.warn("Rejected " + mutation.kind + " on " + mutation.table.name + " for key " + mutation.key
+                    + ": the row changed in the database or a constraint failed.");
+            fail(mutation, failed);
+        }
+    }
+
+    private void fail(Mutation mutation, List<Mutation> failed) {
+        mutation.failed = true;
+        unreloaded.put(key(mutation.table, mutation.key), mutation);
+        failed.add(mutation);
+    }
+
+    private void reload(List<Mutation> failed) {
+        for (Mutation mutation : failed) {
+            Consumer<Object> reload = reloaders.get(mutation.table);
+            try {
+                if (reload != null) {
+                    reload.accept(mutation.key);
+                }
+            } catch (RuntimeException e) {
+                Log.error("Error reloading " + mutation.table.name + " row " + mutation.key + ": " + e);
+            } finally {
+                unreloaded.remove(key(mutation.table, mutation.key), mutation);
+            }
+        }
+    }
+
+    private void logChanges(PooledConnection connection, Collection<Mutation> batch) throws SQLException {
+        if (changeLogSql == null) {
+            return;
+        }
+        PreparedStatement statement = null;
+        for (Mutation mutation : batch) {
+            if (mutation.table.logChanges) {
+                if (statement == null) {
+                    statement = connection.prepare(changeLogSql);
+                }
+                statement.setString(1, mutation.table.name);
+                statement.setString(2, String.valueOf(mutation.key));
+                statement.setString(3, mutation.kind.name());
+                if (logsNodeIds()) {
+                    statement.setString(4, nodeId);
+                }
+                statement.addBatch();
+            }
+        }
+        if (statement != null) {
+            try {
+                statement.executeBatch();
+            } finally {
+                statement.clearBatch();
+            }
+        }
+    }
+
+    private static Map<String, List<Mutation>> groupByStatement(Collection<Mutation> batch) {
+        Map<String, List<Mutation>> groups = new LinkedHashMap<>();
+        for (Kind kind : new Kind[] { Kind.DELETE, Kind.UPDATE, Kind.INSERT }) {
+            for (Mutation mutation : batch) {
+                if (mutation.kind == kind) {
+                    groups.computeIfAbsent(mutation.table.sql(kind), k -> new ArrayList<>()).add(mutation);
+                }
+            }
+        }
+        return groups;
+    }
+
+    private void requeue(Collection<Mutation> unsettled, List<Mutation> dropped) {
+        for (Mutation mutation : unsettled) {
+            if (++mutation.attempts >= MAX_ATTEMPTS) {
+                Log.error("Dropping " + mutation.kind + " on " + mutation.table.name + " for key " + mutation.key + " after " + mutation.attempts + " failed attempts.");
+                DROPPED_WRITES.increment();
+                fail(mutation, dropped);
+                continue;
+            }
+            pending.compute(key(mutation.table, mutation.key),
+                    (key, newer) -> tracked(mutation.table, key, mutation.key, newer == null ? mutation : merge(mutation, newer)));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && pendingCount() > 0; attempt++) {
+            try {
+                flush();
+            } catch (SQLException e) {
+                Log.error("Error flushing pending writes on shutdown: " + e.getMessage() + " (" + pendingCount() + " writes pending)");
+            }
+        }
+    }
+}
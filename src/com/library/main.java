@@ -1,376 +1,88 @@
 package com.library;
 
+import java.io.IOException;
+import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
-import java.util.stream.Collectors;
-
-class User {
-    String username;
-    String password;
-
-    public User(String username, String password) {
-        this.username = username;
-        this.password = password;
-    }
-
-    public boolean login(String password) {
-        return this.password.equals(password);
-    }
-}
-
-class Book {
-    String title;
-    String author;
-    boolean isAvailable;
-
-    public Book(String title, String author) {
-        this.title = title;
-        this.author = author;
-        this.isAvailable = true;
-    }
-}
-
-class UserRegistrationAndLogin {
-    Map<String, User> users = new HashMap<>();
-    private Connection connection;
-
-    public UserRegistrationAndLogin(Connection connection) {
-        this.connection = connection;
-        loadUsersFromDatabase();
-    }
-
-    public void registerUser(String username, String password) {
-        if (!users.containsKey(username)) {
-            users.put(username, new User(username, password));
-            System.out.println("User registered successfully.");
-            saveUserToDatabase(username, password); 
-        } else {
-            System.out.println("Username already taken.");
-        }
-    }
-
-    public User loginUser(String username, String password) {
-        User user = users.get(username);
-        if (user != null) {
-            if (user.login(password)) {
-            	System.out.println("Login successful");
-                return user;
-            }
-        } else {
-            System.out.println("User not found.");
-        }
-        return null;
-    }
-
-    public void updateUser(String username, String newPassword) {
-        User user = users.get(username);
-        if (user != null) {
-            user.password = newPassword;
-            updateUserInDatabase(username, newPassword);
-            System.out.println("User updated successfully.");
-        } else {
-            System.out.println("User not found.");
-        }
-    }
-
-    public void deleteUser(String username) {
-        if (users.containsKey(username)) {
-            users.remove(username);
-            deleteUserFromDatabase(username);
-            System.out.println("User deleted successfully.");
-        } else {
-            System.out.println("User not found.");
-        }
-    }
-
-    public void addUser(String username, String password) {
-        if (!users.containsKey(username)) {
-            users.put(username, new User(username, password));
-            System.out.println("User added successfully.");
-            saveUserToDatabase(username, password); // Save to database
-        } else {
-            System.out.println("Username already exists.");
-        }
-    }
-
-    
-    private void saveUserToDatabase(String username, String password) {
-        String sql = "INSERT INTO users (username, password) VALUES (?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, username);
-            statement.setString(2, password);
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("User saved to database successfully.");
-            } else {
-                System.out.println("User not saved to database.");
-            }
-        } catch (SQLException e) {
-            System.out.println("Error saving user to the database: " + e.getMessage());
-        }
-    }
-
-    private void updateUserInDatabase(String username, String newPassword) {
-        String sql = "UPDATE users SET password = ? WHERE username = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, newPassword);
-            statement.setString(2, username);
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("User updated in database successfully.");
-            } else {
-                System.out.println("User not updated in database.");
-            }
-        } catch (SQLException e) {
-            System.out.println("Error updating user in the database: " + e.getMessage());
-        }
-    }
-
-    private void deleteUserFromDatabase(String username) {
-        String sql = "DELETE FROM users WHERE username = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, username);
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("User deleted from database successfully.");
-            } else {
-                System.out.println("User not deleted from database.");
-            }
-        } catch (SQLException e) {
-            System.out.println("Error deleting user from the database: " + e.getMessage());
-        }
-    }
-
-    private void loadUsersFromDatabase() {
-        String sql = "SELECT username, password FROM users";
-        try (Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(sql)) {
-            users.clear(); 
-            while (resultSet.next()) {
-                String username = resultSet.getString("username");
-                String password = resultSet.getString("password");
-                users.put(username, new User(username, password));
-            }
-            System.out.println("Users loaded from database successfully.");
-        } catch (SQLException e) {
-            System.out.println("Error loading users from the database: " + e.getMessage());
-        }
-    }
-}
-
-class BookSearch {
-    List<Book> books = new ArrayList<>();
-    private Connection connection;
-
-    public BookSearch(Connection connection) {
-        this.connection = connection;
-        loadBooksFromDatabase(); 
-    }
-
-    public void searchBooks(String query) {
-        List<Book> results = books.stream()
-                .filter(book -> book.title.toLowerCase().contains(query.toLowerCase()) || book.author.toLowerCase().contains(query.toLowerCase()))
-                .collect(Collectors.toList());
-
-        if (results.isEmpty()) {
-            System.out.println("No books found.");
-        } else {
-            System.out.println("Search results:");
-            results.forEach(book -> System.out.println(book.title + " by " + book.author + " (Available: " + book.isAvailable + ")"));
-        }
-    }
-
-    public void addBook(String title, String author) {
-        Book book = new Book(title, author);
-        books.add(book);
-        System.out.println("Book added successfully.");
-        saveBookToDatabase(book);
-    }
-
-    public void updateBook(String oldTitle, String newTitle, String newAuthor) {
-        Book book = books.stream()
-                .filter(b -> b.title.equals(oldTitle))
-                .findFirst()
-                .orElse(null);
-        
-        if (book != null) {
-            book.title = newTitle;
-            book.author = newAuthor;
-            updateBookInDatabase(oldTitle, newTitle, newAuthor);
-            System.out.println("Book updated successfully.");
-        } else {
-            System.out.println("Book not found.");
-        }
-    }
-
-    public void deleteBook(String title) {
-        Book bookToRemove = books.stream()
-                .filter(book -> book.title.equals(title))
-                .findFirst()
-                .orElse(null);
-
-        if (bookToRemove != null) {
-            books.remove(bookToRemove);
-            deleteBookFromDatabase(bookToRemove.title);
-            System.out.println("Book deleted successfully.");
-        } else {
-            System.out.println("Book not found.");
-        }
-    }
-
-    
-    private void saveBookToDatabase(Book book) {
-        String sql = "INSERT INTO books (title, author, is_available) VALUES (?, ?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, book.title);
-            statement.setString(2, book.author);
-            statement.setBoolean(3, book.isAvailable);
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("Book saved to database successfully.");
-            } else {
-                System.out.println("Book not saved to database.");
-            }
-        } catch (SQLException e) {
-            System.out.println("Error saving book to the database: " + e.getMessage());
-        }
-    }
-
-    private void updateBookInDatabase(String oldTitle, String newTitle, String newAuthor) {
-        String sql = "UPDATE books SET title = ?, author = ? WHERE title = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, newTitle);
-            statement.setString(2, newAuthor);
-            statement.setString(3, oldTitle);
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("Book updated in database successfully.");
-            } else {
-                System.out.println("Book not updated in database.");
-            }
-        } catch (SQLException e) {
-            System.out.println("Error updating book in the database: " + e.getMessage());
-        }
-    }
-
-    private void deleteBookFromDatabase(String title) {
-        String sql = "DELETE FROM books WHERE title = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, title);
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("Book deleted from database successfully.");
-            } else {
-                System.out.println("Book not deleted from database.");
-            }
-        } catch (SQLException e) {
-            System.out.println("Error deleting book from the database: " + e.getMessage());
-        }
-    }
-
-    private void loadBooksFromDatabase() {
-        String sql = "SELECT title, author, is_available FROM books";
-        try (Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(sql)) {
-            books.clear();
-            while (resultSet.next()) {
-                String title = resultSet.getString("title");
-                String author = resultSet.getString("author");
-                boolean isAvailable = resultSet.getBoolean("is_available");
-                books.add(new Book(title, author));
-                books.get(books.size() - 1).isAvailable = isAvailable; 
-            }
-            System.out.println("Books loaded from database successfully.");
-        } catch (SQLException e) {
-            System.out.println("Error loading books from the database: " + e.getMessage());
-        }
-    }
-}
-
-class BookCheckout {
-    public void checkoutBook(Book book) {
-        if (book.isAvailable) {
-            book.isAvailable = false;
-            System.out.println("Book checked out successfully.");
-        } else {
-            System.out.println("Book is not available for checkout.");
-        }
-    }
-}
-
-class BookReturn {
-    public void returnBook(Book book) {
-        if (!book.isAvailable) {
-            book.isAvailable = true;
-            System.out.println("Book returned successfully.");
-        } else {
-            System.out.println("Book was not checked out.");
-        }
-    }
-}
-
-class BookReservation {
-    public void reserveBook(Book book, User user) {
-       
-        System.out.println("Book reserved successfully for user " + user.username + ".");
-    }
-}
-
-class UserAccountManagement {
-    public void changePassword(User user, String newPassword) {
-        user.password = newPassword;
-        System.out.println("Password changed successfully.");
-    }
-
-    public void logoutUser(User user) {
-        System.out.println("User " + user.username + " logged out.");
-    }
-}
-
-class GenerateReports {
-    public void generateReports(List<Book> books) {
-        System.out.println("Generating reports:");
-        System.out.println("Total books: " + books.size());
-        long availableCount = books.stream().filter(book -> book.isAvailable).count();
-        System.out.println("Available books: " + availableCount);
-        long checkedOutCount = books.size() - availableCount;
-        System.out.println("Checked out books: " + checkedOutCount);
-    }
-}
-
-class NotificationSystem {
-    public void sendNotification(User user, String message) {
-        
-        System.out.println("Notification to " + user.username + ": " + message);
-    }
-}
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
 
 public class main {
     private static final String JDBC_URL = "jdbc:mysql://localhost:3306/library_management";
     private static final String JDBC_USERNAME = "root";
     private static final String JDBC_PASSWORD = "Sharu@.04";
+    private static final int POOL_SIZE = 8;
 
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
 
        
-        try (Connection connection = DriverManager.getConnection(JDBC_URL, JDBC_USERNAME, JDBC_PASSWORD)) {
-            System.out.println("Connected to the database!");
+        try (ConnectionPool connectionPool = new ConnectionPool(JDBC_URL, JDBC_USERNAME, JDBC_PASSWORD, POOL_SIZE);
+             WriteBehindJournal journal = new WriteBehindJournal(connectionPool)) {
+            connectionPool.acquire().close();
+            Log.info("Connected to the database!");
+            AtomicReference<Runnable> onExit = new AtomicReference<>(() -> { });
+            NotificationSystem notifier = new NotificationSystem(notificationSinks());
+            // Opened before loading: a change committed mid-load is then replayed rather than missed.
+            ChangeFeed changeFeed = changeFeed(connectionPool, journal);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (changeFeed != null) {
+                    changeFeed.close();
+                }
+                onExit.get().run();
+                notifier.close();
+                // Closing is left to the try block; an interrupted session still gets its pending writes flushed.
+                try {
+                    journal.awaitFlush();
+                } catch (SQLException e) {
+                    Log.error("Error flushing pending writes on shutdown: " + e.getMessage());
+                }
+                Log.flush();
+            }));
+
+            long startupBegin = System.nanoTime();
+            LoadMode loadMode = LoadMode.valueOf(System.getProperty("library.loadMode", "STREAMING").toUpperCase());
+            UserRegistrationAndLogin userManagement = new UserRegistrationAndLogin(connectionPool, journal, loadMode);
+            ReportCounters reportCounters = new ReportCounters();
+            BookSearch bookSearch = new BookSearch(connectionPool, journal, loadMode, reportCounters); 
+            Log.info("Ready to serve after " + (System.nanoTime() - startupBegin) / 1_000_000 + " ms (" + loadMode + " load, peak heap " + StreamingLoader.processPeakHeapMegabytes() + " MB).");
+            if (loadMode == LoadMode.SNAPSHOT) {
+                AtomicBoolean saved = new AtomicBoolean();
+                onExit.set(() -> {
+                    if (saved.compareAndSet(false, true)) {
+                        CatalogSnapshot.save(CatalogSnapshot.path(), connectionPool, journal, userManagement, bookSearch, changeFeed);
+                    }
+                });
+            }
+            Holdings holdings = new Holdings(connectionPool, journal);
+            bookSearch.setHoldings(holdings);
+            HoldQueue holds = new HoldQueue(connectionPool, journal);
+            CirculationEngine circulation = new CirculationEngine(connectionPool, journal, holds, bookSearch::getBook, reportCounters);
+            circulation.setNotifications(notifier);
+            circulation.setHoldings(holdings);
+            // A checkout or return writes the book and its loan as one, so put both back together if it is rejected.
+            journal.onRejected(BookSearch.BOOKS_TABLE, id -> circulation.reload((Integer) id, bookSearch::reload));
+            journal.onRejected(CirculationEngine.LOANS_TABLE, id -> circulation.reload((Integer) id, bookSearch::reload));
+            new DueDateReminders(circulation, notifier, DueDateReminders.DEFAULT_DUE_SOON_DAYS).start(DueDateReminders.DEFAULT_PERIOD_MINUTES);
+            registerGauges(connectionPool, journal, userManagement, bookSearch, holdings, circulation, notifier);
+            if (changeFeed != null) {
+                followOtherNodes(changeFeed, connectionPool, userManagement, bookSearch, holds, holdings, circulation);
+            }
+
+            int httpPort = httpPort(args);
+            if (httpPort >= 0) {
+                serveHttp(new LibraryService(userManagement, bookSearch, holdings, circulation, reportCounters), httpPort);
+                return;
+            }
 
-            UserRegistrationAndLogin userManagement = new UserRegistrationAndLogin(connection);
-            BookSearch bookSearch = new BookSearch(connection); 
-            BookCheckout bookCheckout = new BookCheckout();
-            BookReturn bookReturn = new BookReturn();
-            BookReservation bookReservation = new BookReservation();
-            UserAccountManagement accountManagement = new UserAccountManagement();
+            BookCheckout bookCheckout = new BookCheckout(circulation);
+            BookReturn bookReturn = new BookReturn(circulation);
+            BookReservation bookReservation = new BookReservation(circulation);
+            UserAccountManagement accountManagement = new UserAccountManagement(userManagement);
             GenerateReports reportGenerator = new GenerateReports();
-            NotificationSystem notifier = new NotificationSystem();
+            CatalogTransfer catalogTransfer = new CatalogTransfer(bookSearch, journal);
             User currentUser = null;
 
-            
-            runTests(connection, userManagement, bookSearch, bookCheckout, bookReturn, bookReservation, accountManagement, reportGenerator, notifier);
-
-          
             System.out.println("Welcome to the Library Management System!");
             System.out.print("Please register.\nEnter username: ");
             String username = scanner.nextLine();
@@ -380,6 +92,7 @@ public class main {
 
             
             while (currentUser == null) {
+                Log.flush();
                 System.out.print("\nLogin to continue.\nEnter username: ");
                 username = scanner.nextLine();
                 System.out.print("Enter password: ");
@@ -389,6 +102,7 @@ public class main {
 
            
             while (true) {
+                Log.flush();
                 System.out.println("\nChoose an operation:");
                 System.out.println("1. Add Book");
                 System.out.println("2. Update Book");
@@ -404,7 +118,10 @@ public class main {
                 System.out.println("12. Delete User");
                 System.out.println("13. Add User");
                 System.out.println("14. Logout");
-                System.out.print("Enter your choice (1-14): ");
+                System.out.println("15. Import Catalog");
+                System.out.println("16. Export Catalog");
+                System.out.println("17. Add Copies");
+                System.out.print("Enter your choice (1-17): ");
                 int choice = Integer.parseInt(scanner.nextLine());
 
                 switch (choice) {
@@ -430,34 +147,48 @@ public class main {
                         bookSearch.searchBooks(query);
                         break;
                     case 4:
-                        System.out.print("Enter the index of the book to checkout: ");
-                        int checkoutIndex = Integer.parseInt(scanner.nextLine());
-                        if (checkoutIndex >= 0 && checkoutIndex < bookSearch.books.size()) {
-                            bookCheckout.checkoutBook(bookSearch.books.get(checkoutIndex));
+                        System.out.print("Enter the ID of the book to checkout: ");
+                        Book checkoutBook = bookSearch.getBook(Integer.parseInt(scanner.nextLine()));
+                        if (checkoutBook != null) {
+                            bookCheckout.checkoutBook(checkoutBook, currentUser);
                         } else {
-                            System.out.println("Invalid book index.");
+                            System.out.println("Invalid book ID.");
                         }
                         break;
                     case 5:
-                        System.out.print("Enter the index of the book to return: ");
-                        int returnIndex = Integer.parseInt(scanner.nextLine());
-                        if (returnIndex >= 0 && returnIndex < bookSearch.books.size()) {
-                            bookReturn.returnBook(bookSearch.books.get(returnIndex));
+                        System.out.print("Enter the ID of the book to return: ");
+                        Book returnBook = bookSearch.getBook(Integer.parseInt(scanner.nextLine()));
+                        if (returnBook != null) {
+                            bookReturn.returnBook(returnBook);
                         } else {
-                            System.out.println("Invalid book index.");
+                            System.out.println("Invalid book ID.");
                         }
                         break;
                     case 6:
-                        System.out.print("Enter the index of the book to reserve: ");
-                        int reserveIndex = Integer.parseInt(scanner.nextLine());
-                        if (reserveIndex >= 0 && reserveIndex < bookSearch.books.size()) {
-                            bookReservation.reserveBook(bookSearch.books.get(reserveIndex), currentUser);
+                        System.out.print("Enter the ID of the book to reserve: ");
+                        Book reserveBook = bookSearch.getBook(Integer.parseInt(scanner.nextLine()));
+                        if (reserveBook != null) {
+                            bookReservation.reserveBook(reserveBook, currentUser);
                         } else {
-                            System.out.println("Invalid book index.");
+                            System.out.println("Invalid book ID.");
                         }
                         break;
                     case 7:
-                        reportGenerator.generateReports(bookSearch.books);
+                        reportGenerator.generateReports(reportCounters);
+                        reportGenerator.generateReports(holdings);
+                        if (bookSearch.compactStore() != null) {
+                            reportGenerator.generateReports(bookSearch.compactStore());
+                        }
+                        for (BoundedCache.Stats stats : Arrays.asList(userManagement.cacheStats(), bookSearch.cacheStats())) {
+                            if (stats != null) {
+                                System.out.println(stats);
+                            }
+                        }
+                        System.out.print("Export to file (.csv or .json, blank to skip): ");
+                        String exportFile = scanner.nextLine().trim();
+                        if (!exportFile.isEmpty()) {
+                            reportGenerator.exportReports(reportCounters, Paths.get(exportFile));
+                        }
                         break;
                     case 8:
                         System.out.print("Enter notification message: ");
@@ -495,18 +226,155 @@ public class main {
                         break;
                     case 14:
                         accountManagement.logoutUser(currentUser);
+                        onExit.get().run();
                         System.out.println("Thank you for using the Library Management System!");
                         scanner.close();
                         return;
+                    case 15:
+                        System.out.print("Enter the file to import (.csv, or .mrk for MARC): ");
+                        Path importFile = Paths.get(scanner.nextLine().trim());
+                        try {
+                            CatalogTransfer.Result imported = catalogTransfer.importFile(importFile);
+                            if (imported != null) {
+                                System.out.println(imported);
+                            }
+                        } catch (IOException e) {
+                            Log.error("Error importing catalog: " + e.getMessage());
+                        }
+                        break;
+                    case 16:
+                        System.out.print("Enter the file to export to (.csv, or .mrk for MARC): ");
+                        Path catalogFile = Paths.get(scanner.nextLine().trim());
+                        try {
+                            long exported = catalogTransfer.exportFile(catalogFile);
+                            if (exported >= 0) {
+                                System.out.println("Exported " + exported + " books to " + catalogFile + ".");
+                            }
+                        } catch (IOException e) {
+                            Log.error("Error exporting catalog: " + e.getMessage());
+                        }
+                        break;
+                    case 17:
+                        System.out.print("Enter the ID of the book: ");
+                        Book copiesBook = bookSearch.getBook(Integer.parseInt(scanner.nextLine()));
+                        if (copiesBook == null) {
+                            System.out.println("Invalid book ID.");
+                            break;
+                        }
+                        System.out.print("Enter the branch name: ");
+                        int branchId = holdings.addBranch(scanner.nextLine().trim());
+                        System.out.print("Enter the number of copies: ");
+                        int copyCount = Integer.parseInt(scanner.nextLine());
+                        for (int i = 0; i < copyCount; i++) {
+                            holdings.addCopy(copiesBook.id, branchId);
+                        }
+                        System.out.println("\"" + copiesBook.title + "\" now has " + holdings.available(copiesBook.id, branchId) + " of "
+                                + holdings.copies(copiesBook.id, branchId) + " copies available at " + holdings.branchName(branchId) + ".");
+                        break;
                     default:
-                        System.out.println("Invalid choice. Please enter a number between 1 and 14.");
+                        System.out.println("Invalid choice. Please enter a number between 1 and 17.");
                 }
             }
         } catch (SQLException e) {
-            System.out.println("Database connection failed: " + e.getMessage());
+            Log.error("Database connection failed: " + e.getMessage());
+        }
+    }
+
+    /** Console delivery, plus a file when -Dlibrary.notificationFile is set. */
+    private static List<NotificationSink> notificationSinks() {
+        List<NotificationSink> sinks = new ArrayList<>();
+        sinks.add(new NotificationSink.Console());
+        String file = System.getProperty("library.notificationFile");
+        if (file != null) {
+            sinks.add(new NotificationSink.File(Paths.get(file)));
+        }
+        return sinks;
+    }
+
+    /**
+     * A feed of the changes other nodes sharing the database make, when -Dlibrary.changeFeedMillis
+     * sets a poll interval and catalog_changes has a node_id column; null otherwise.
+     */
+    private static ChangeFeed changeFeed(ConnectionPool connectionPool, WriteBehindJournal journal) throws SQLException {
+        if (Long.getLong("library.changeFeedMillis", 0) <= 0) {
+            return null;
+        }
+        if (!journal.logsNodeIds()) {
+            Log.warn("catalog_changes has no node_id column; changes made by other nodes will not be seen.");
+            return null;
+        }
+        return new ChangeFeed(connectionPool, journal, WriteBehindJournal.latestChangeSeq(connectionPool));
+    }
+
+    private static void followOtherNodes(ChangeFeed changeFeed, ConnectionPool connectionPool, UserRegistrationAndLogin userManagement,
+                                         BookSearch bookSearch, HoldQueue holds, Holdings holdings, CirculationEngine circulation) {
+        if (IdBlocks.available(connectionPool)) {
+            bookSearch.setIdBlocks(new IdBlocks(connectionPool, "books", IdBlocks.DEFAULT_BLOCK_SIZE));
+            holds.setIdBlocks(new IdBlocks(connectionPool, "holds", IdBlocks.DEFAULT_BLOCK_SIZE));
+            // Branch ids index arrays and are few, so they are claimed one at a time to keep them dense.
+            holdings.setIdBlocks(new IdBlocks(connectionPool, "copies", IdBlocks.DEFAULT_BLOCK_SIZE),
+                    new IdBlocks(connectionPool, "branches", 1));
+        } else {
+            Log.warn("No id_blocks table; books, holds, copies and branches added on different nodes may be given the same id.");
+        }
+        changeFeed.subscribe(UserRegistrationAndLogin.USERS_TABLE, userManagement::reload);
+        changeFeed.subscribe(BookSearch.BOOKS_TABLE, id -> circulation.reload(Integer.parseInt(id), bookSearch::reload));
+        changeFeed.subscribe(CirculationEngine.LOANS_TABLE, id -> circulation.reload(Integer.parseInt(id), bookSearch::reload));
+        changeFeed.subscribe(HoldQueue.HOLDS_TABLE, id -> circulation.reloadHold(Long.parseLong(id)));
+        changeFeed.subscribe(Holdings.COPIES_TABLE, id -> holdings.reload(Integer.parseInt(id)));
+        changeFeed.subscribe(Holdings.BRANCHES_TABLE, id -> holdings.reloadBranch(Integer.parseInt(id)));
+        changeFeed.start(Long.getLong("library.changeFeedMillis", ChangeFeed.DEFAULT_POLL_MILLIS));
+        Metrics.gauge("changefeed.staleness_ms", changeFeed::stalenessMillis);
+        Metrics.gauge("changefeed.position", changeFeed::position);
+        Log.info("Following changes made by other nodes sharing the database.");
+    }
+
+    private static void registerGauges(ConnectionPool connectionPool, WriteBehindJournal journal, UserRegistrationAndLogin userManagement,
+                                       BookSearch bookSearch, Holdings holdings, CirculationEngine circulation, NotificationSystem notifier) {
+        Metrics.gauge("db.pool.idle", connectionPool::idleCount);
+        Metrics.gauge("journal.pending", journal::pendingCount);
+        Metrics.gauge("sessions.active", () -> userManagement.sessions().size());
+        Metrics.gauge("loans.active", circulation::activeLoans);
+        Metrics.gauge("books.indexed", bookSearch::indexedBooks);
+        Metrics.gauge("holdings.copies", holdings::size);
+        Metrics.gauge("notifications.pending", notifier::pending);
+        Metrics.gauge("log.dropped", Log::dropped);
+        cacheGauges("users", userManagement::cacheStats);
+        cacheGauges("books", bookSearch::cacheStats);
+        Metrics.registerMBean();
+    }
+
+    /** Cache gauges only exist in CACHED load mode, where the stats are non-null. */
+    private static void cacheGauges(String name, Supplier<BoundedCache.Stats> stats) {
+        if (stats.get() == null) {
+            return;
+        }
+        String prefix = "cache." + name + ".";
+        Metrics.gauge(prefix + "entries", () -> stats.get().entries);
+        Metrics.gauge(prefix + "weight_bytes", () -> stats.get().weight);
+        Metrics.gauge(prefix + "hits", () -> stats.get().hits);
+        Metrics.gauge(prefix + "misses", () -> stats.get().misses);
+        Metrics.gauge(prefix + "evictions", () -> stats.get().evictions);
+    }
+
+    /** "--http [port]" serves the JSON API instead of the console menu; returns -1 when absent. */
+    private static int httpPort(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--http")) {
+                return i + 1 < args.length ? Integer.parseInt(args[i + 1]) : LibraryHttpServer.DEFAULT_PORT;
+            }
         }
+        return -1;
     }
 
-    private static void runTests(Connection connection, UserRegistrationAndLogin userManagement, BookSearch bookSearch, BookCheckout bookCheckout, BookReturn bookReturn, BookReservation bookReservation, UserAccountManagement accountManagement, GenerateReports reportGenerator, NotificationSystem notifier) {
+    private static void serveHttp(LibraryService service, int port) {
+        try (LibraryHttpServer server = new LibraryHttpServer(service, port)) {
+            server.start();
+            Thread.currentThread().join();
+        } catch (IOException e) {
+            Log.error("Could not start the HTTP server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class BookIndexTest {
+    private BookIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new BookIndex();
+        index.add(new Book(1, "Garden Paths", "Ann Rivers"));
+        index.add(new Book(2, "The Silent Garden", "Bo Lake"));
+        index.add(new Book(3, "Gardening", "Cy Stone"));
+        index.add(new Book(4, "Winter", "Di Garden"));
+        index.add(new Book(5, "Garden", "Ed Moss"));
+        index.add(new Book(6, "Silent Night", "Fay Hill"));
+        index.add(new Book(7, "Secret Gardens of the Silent City", "Gus Vale"));
+    }
+
+    @Test
+    void ranksExactThenPrefixThenWordThenSubstringThenAuthor() {
+        assertEquals(List.of(5, 1, 3, 7, 2, 4), ids(index.search("garden")));
+    }
+
+    @Test
+    void everyTrigramOfTheQueryMustMatch() {
+        assertEquals(List.of(2), ids(index.search("silent garden")));
+        assertEquals(List.of(6), ids(index.search("nt nig")));
+        assertEquals(List.of(), ids(index.search("silent gardenia")));
+    }
+
+    @Test
+    void pagesAreTheFirstMatchesOfTheFullRanking() {
+        List<Integer> all = ids(index.search("garden"));
+        BookIndex.Hits top = index.search("garden", 3);
+        assertEquals(all.subList(0, 3), ids(top.books));
+        assertEquals(all.size(), top.total);
+        assertEquals(all, ids(index.search("garden", 100).books));
+    }
+
+    @Test
+    void shortQueriesMatchTheStartOfAWord() {
+        assertEquals(List.of(6, 7, 2), ids(index.search("si")));
+        assertEquals(List.of(7, 6, 2, 3), ids(index.search("s")));
+        // "ar" is inside "garden" but starts no word.
+        assertEquals(List.of(), ids(index.search("ar")));
+        assertEquals(List.of(), ids(index.search("")));
+    }
+
+    @Test
+    void renamedBooksAreFoundUnderTheNewTitleOnly() {
+        Book book = index.search("winter").get(0);
+        index.remove(book);
+        book.rename("Summer", "Di Garden");
+        index.add(book);
+
+        assertEquals(List.of(), index.search("winter"));
+        assertEquals(List.of(4), ids(index.search("summer")));
+        assertEquals(List.of(4), ids(index.search("su")));
+        assertTrue(ids(index.search("garden")).contains(4));
+    }
+
+    @Test
+    void deletedBooksLeaveEveryPostingList() {
+        Book book = index.search("silent night").get(0);
+        index.remove(book);
+
+        assertEquals(6, index.size());
+        assertEquals(List.of(), index.search("night"));
+        assertEquals(List.of(7, 2), ids(index.search("si")));
+        assertEquals(List.of(7, 2), ids(index.search("silent")));
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        List<Integer> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.id);
+        }
+        return ids;
+    }
+}
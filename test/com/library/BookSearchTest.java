@@ -0,0 +1,138 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class BookSearchTest {
+    private static final List<Integer> RESULTS = List.of(1, 2, 3, 4, 5);
+
+    @Test
+    void pagesSliceTheResults() {
+        assertEquals(List.of(1, 2), BookSearch.page(RESULTS, 1, 2));
+        assertEquals(List.of(5), BookSearch.page(RESULTS, 3, 2));
+        assertEquals(List.of(), BookSearch.page(RESULTS, 4, 2));
+        assertEquals(List.of(1, 2), BookSearch.page(RESULTS, 0, 2));
+    }
+
+    @Test
+    void pageNumbersPastIntRangeClampToTheEnd() {
+        assertEquals(List.of(), BookSearch.page(RESULTS, Integer.MAX_VALUE, 100));
+        assertEquals(List.of(), BookSearch.page(RESULTS, 21_474_837, 100));
+        assertEquals(RESULTS, BookSearch.page(RESULTS, 1, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void pageSizeMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> BookSearch.page(RESULTS, 1, 0));
+    }
+
+    @Test
+    void cachedReloadMovesCountersByTheChangeOnly() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:book-search-cached;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+             WriteBehindJournal journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            execute(pool, "CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            execute(pool, "INSERT INTO books (id, title, author, is_available) VALUES (1, 'Dune', 'Herbert', TRUE), "
+                    + "(2, 'Emma', 'Austen', TRUE), (3, 'Ulysses', 'Joyce', TRUE)");
+            ReportCounters counters = new ReportCounters();
+            BookSearch bookSearch = new BookSearch(pool, journal, LoadMode.CACHED, counters);
+            assertEquals(3, counters.snapshot().totalBooks);
+            assertNotNull(bookSearch.getBook(1));
+
+            // Another node lends book 2, which this node has not cached, then deletes book 1, which it has.
+            execute(pool, "UPDATE books SET is_available = FALSE, version = 1 WHERE id = 2");
+            bookSearch.reload(2);
+            execute(pool, "DELETE FROM books WHERE id = 1");
+            bookSearch.reload(1);
+
+            ReportCounters.Snapshot report = counters.snapshot();
+            assertEquals(2, report.totalBooks);
+            assertNull(bookSearch.getBook(1));
+            assertFalse(bookSearch.getBook(2).isAvailable);
+        }
+    }
+
+    @Test
+    void cachedLookupsSeeUnflushedWritesTheCacheNoLongerHolds() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:book-search-pending;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+             WriteBehindJournal journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            execute(pool, "CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            execute(pool, "INSERT INTO books (id, title, author, is_available) VALUES (1, 'Dune', 'Herbert', TRUE), "
+                    + "(2, 'Emma', 'Austen', TRUE)");
+            BookSearch bookSearch = new BookSearch(pool, journal, LoadMode.CACHED, new ReportCounters());
+
+            // Written as if by cached books since evicted: only the journal has these rows.
+            journal.insert(BookSearch.BOOKS_TABLE, 10, "Persuasion", "Austen", true, 0, 10);
+            journal.update(BookSearch.BOOKS_TABLE, 1, "Dune Messiah", "Herbert", true, 1, 1);
+            journal.delete(BookSearch.BOOKS_TABLE, 2, 0);
+
+            assertEquals(10, bookSearch.findByTitle("Persuasion").id);
+            assertEquals(1, bookSearch.findByTitle("Dune Messiah").id);
+            assertNull(bookSearch.findByTitle("Emma"));
+            assertEquals(List.of(10), bookSearch.find("austen").stream().map(book -> book.id).toList());
+            assertEquals(List.of(1), bookSearch.find("messiah").stream().map(book -> book.id).toList());
+            assertEquals(List.of(1, 10), bookSearch.booksInRange(1, 11).stream().map(book -> book.id).toList());
+            assertEquals(List.of(10), bookSearch.booksInRange(5, 11).stream().map(book -> book.id).toList());
+
+            List<Book> added = bookSearch.addBooksIfAbsent(List.of(new Book(0, "Persuasion", "Austen"),
+                    new Book(0, "Dune Messiah", "Herbert"), new Book(0, "Emma", "Austen")));
+            assertEquals(List.of("Emma"), added.stream().map(book -> book.title).toList());
+            journal.awaitFlush();
+            execute(pool, "DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    void compactCatalogFollowsWritesFromEveryPath() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:book-search-compact;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+             WriteBehindJournal journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            execute(pool, "CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            execute(pool, "CREATE TABLE loans (book_id INT PRIMARY KEY, username VARCHAR(255), checkout_date DATE, due_date DATE)");
+            execute(pool, "CREATE TABLE holds (id BIGINT PRIMARY KEY, book_id INT, username VARCHAR(255), priority INT, "
+                    + "status VARCHAR(16), placed_at TIMESTAMP, expires_at TIMESTAMP)");
+            execute(pool, "INSERT INTO books (id, title, author, is_available) VALUES (1, 'Dune', 'Herbert', TRUE), "
+                    + "(2, 'Emma', 'Austen', TRUE), (3, 'Persuasion', 'Austen', TRUE)");
+            ReportCounters counters = new ReportCounters();
+            BookSearch bookSearch = new BookSearch(pool, journal, LoadMode.COMPACT, counters);
+            CompactBookStore store = bookSearch.compactStore();
+            assertTrue(bookSearch.isLoaded());
+            assertEquals(3, store.size());
+            assertSame(bookSearch.getBook(2), bookSearch.getBook(2));
+            assertEquals(List.of(2, 3), bookSearch.find("austen").stream().map(book -> book.id).toList());
+            assertEquals(3, bookSearch.findByTitle("Persuasion").id);
+
+            Book emma = bookSearch.getBook(2);
+            bookSearch.updateBook(2, "Emma (annotated)", "Austen", emma.version);
+            assertEquals("Emma (annotated)", store.get(2).title);
+            try (HoldQueue holds = new HoldQueue(pool, journal)) {
+                CirculationEngine circulation = new CirculationEngine(pool, journal, holds, bookSearch::getBook, counters);
+                assertNotNull(circulation.checkout(bookSearch.getBook(1), new User("ann", "x")));
+                assertFalse(store.get(1).isAvailable);
+                assertEquals(2, store.availableCount());
+            }
+            Book added = bookSearch.addBook("Ulysses", "Joyce");
+            assertEquals(added.id, bookSearch.findByTitle("Ulysses").id);
+            assertTrue(bookSearch.deleteBook(3));
+            assertNull(store.get(3));
+            assertEquals(3, counters.snapshot().totalBooks);
+
+            // Another node renames a book this node has not handed out.
+            journal.awaitFlush();
+            execute(pool, "UPDATE books SET title = 'Ulysses (1922)', version = version + 1 WHERE id = " + added.id);
+            bookSearch.reload(added.id);
+            assertEquals("Ulysses (1922)", store.get(added.id).title);
+            assertEquals("Ulysses (1922)", bookSearch.getBook(added.id).title);
+        }
+    }
+
+    private static void execute(ConnectionPool pool, String sql) throws SQLException {
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+    // Sixteen segments of 100 bytes each, so a segment holds two 40-byte entries.
+    private static final long MAX_WEIGHT = 16 * 100;
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntriesToStayWithinTheBudget() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>("Test", MAX_WEIGHT, value -> 40);
+        cache.put(0, "kept");
+        for (int key = 1; key <= 1_000; key++) {
+            cache.put(key, "value " + key);
+            assertEquals("kept", cache.get(0));
+        }
+
+        BoundedCache.Stats stats = cache.stats();
+        assertTrue(stats.weight <= MAX_WEIGHT, stats.toString());
+        assertTrue(stats.entries <= 32, stats.toString());
+        assertEquals(40 * stats.entries, stats.weight);
+        assertEquals(1_001 - stats.entries, stats.evictions);
+        assertEquals("value 1000", cache.get(1_000));
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    void anEntryOverTheSegmentBudgetIsStillStored() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>("Test", MAX_WEIGHT, String::length);
+        String large = "x".repeat(500);
+        cache.put(1, large);
+        assertSame(large, cache.get(1));
+        assertSame(large, cache.putIfAbsent(1, "other"));
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        assertEquals(0, cache.stats().weight);
+    }
+
+    @Test
+    void statsCountHitsAndMisses() {
+        BoundedCache<String, String> cache = new BoundedCache<>("Test", MAX_WEIGHT, value -> 1);
+        assertNull(cache.get("ann"));
+        cache.putIfAbsent("ann", "hash");
+        assertEquals("hash", cache.get("ann"));
+        assertEquals("hash", cache.get("ann"));
+        assertNull(cache.get("bob"));
+
+        BoundedCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(0.5, stats.hitRate());
+        assertEquals(1, stats.entries);
+        assertEquals(0, stats.evictions);
+        assertTrue(stats.toJson().contains("\"hits\":2"));
+    }
+}
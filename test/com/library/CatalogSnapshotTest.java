@@ -0,0 +1,100 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.sql.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+class CatalogSnapshotTest {
+    @TempDir
+    Path directory;
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:catalog-snapshot;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 4);
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255), version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE catalog_changes (seq BIGINT AUTO_INCREMENT PRIMARY KEY, table_name VARCHAR(64) NOT NULL, "
+                    + "row_key VARCHAR(255) NOT NULL, kind VARCHAR(8) NOT NULL)");
+            for (int id = 1; id <= 5; id++) {
+                statement.execute("INSERT INTO books (id, title, author, is_available) VALUES (" + id + ", 'Title " + id + "', 'Author', TRUE)");
+            }
+        }
+        System.setProperty("library.snapshot", directory.resolve("library.snapshot").toString());
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        System.clearProperty("library.snapshot");
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        pool.close();
+    }
+
+    @Test
+    void restoreReplaysTheChangesAfterTheWatermark() throws SQLException {
+        try (WriteBehindJournal journal = new WriteBehindJournal(pool, 100, Long.MAX_VALUE)) {
+            UserRegistrationAndLogin users = new UserRegistrationAndLogin(pool, journal);
+            BookSearch books = new BookSearch(pool, journal);
+            assertTrue(users.registerUser("ann", "secret"));
+            assertTrue(users.registerUser("bob", "secret"));
+            CatalogSnapshot.save(CatalogSnapshot.path(), pool, journal, users, books, null);
+            assertTrue(Files.exists(CatalogSnapshot.path()));
+
+            // Written after the watermark, so only the change log can bring them back.
+            Book renamed = books.getBook(2);
+            books.updateBook(2, "Renamed", renamed.author, renamed.version);
+            assertTrue(books.deleteBook(3));
+            Book added = books.addBook("Added Later", "Author");
+            assertTrue(users.changePassword("ann", "changed"));
+            assertTrue(users.deleteUser("bob"));
+            journal.awaitFlush();
+
+            UserRegistrationAndLogin restoredUsers = new UserRegistrationAndLogin(pool, journal, LoadMode.SNAPSHOT);
+            BookSearch restoredBooks = new BookSearch(pool, journal, LoadMode.SNAPSHOT, new ReportCounters());
+            assertTrue(restoredBooks.isLoaded());
+            assertEquals(Set.of(1, 2, 4, 5, added.id), ids(restoredBooks.allBooks()));
+            assertEquals("Renamed", restoredBooks.getBook(2).title);
+            assertNull(restoredBooks.getBook(3));
+            assertEquals(Set.of(2), ids(restoredBooks.find("renamed")));
+            assertEquals(Set.of(added.id), ids(restoredBooks.find("later")));
+            assertTrue(restoredBooks.find("title 3").isEmpty());
+            assertTrue(restoredBooks.find("title 2").isEmpty());
+            // Short queries read word starts from the mapped postings as well.
+            assertEquals(Set.of(1, 4, 5), ids(restoredBooks.find("ti")));
+            assertNotNull(restoredUsers.authenticate("ann", "changed"));
+            assertNull(restoredUsers.authenticate("ann", "secret"));
+            assertNull(restoredUsers.findUser("bob"));
+        }
+    }
+
+    @Test
+    void onlyTheOwnerCanReadTheSnapshot() throws IOException {
+        Path file = CatalogSnapshot.path();
+        assumeTrue(file.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        // A leftover temp file with wide permissions must not pass them on.
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-rw-rw-")));
+        CatalogSnapshot.write(file, 0, 1, List.of(new User("ann", "hash")), List.of(new Book(1, "Title", "Author")));
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+    }
+
+    private static Set<Integer> ids(List<Book> books) {
+        Set<Integer> ids = new HashSet<>();
+        for (Book book : books) {
+            ids.add(book.id);
+        }
+        return ids;
+    }
+}
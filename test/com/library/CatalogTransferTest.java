@@ -0,0 +1,109 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class CatalogTransferTest {
+    private static final List<List<String>> TITLES = List.of(
+            List.of("Dune", "Herbert, Frank"),
+            List.of("Emma, or \"The Matchmaker\"", "Austen, Jane"),
+            List.of("Bills of $5 and Up", "Smith & Sons"),
+            List.of("Ulysses", "Joyce, James"));
+
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private final List<WriteBehindJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        journals.forEach(WriteBehindJournal::close);
+        for (ConnectionPool pool : pools) {
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("DROP ALL OBJECTS");
+            }
+            pool.close();
+        }
+    }
+
+    @Test
+    void csvExportImportsBackIntoAnEmptyCatalog() throws Exception {
+        roundTrip(CatalogTransfer.Format.CSV);
+    }
+
+    @Test
+    void marcExportImportsBackIntoAnEmptyCatalog() throws Exception {
+        roundTrip(CatalogTransfer.Format.MARC);
+    }
+
+    @Test
+    void csvImportFindsColumnsByHeaderAndRejectsUnusableRows() throws Exception {
+        CatalogTransfer transfer = new Catalog("catalog-transfer-header").transfer();
+        String csv = "author,year,title\n"
+                + "Herbert,1965,Dune\n"
+                + ",1815,Emma\n"
+                + "Joyce,1922\n"
+                + "\"Austen, Jane\",1817,\"Persuasion\"\n"
+                + "Herbert,1965,Dune\n";
+
+        CatalogTransfer.Result result = transfer.importFrom(new BufferedReader(new StringReader(csv)), CatalogTransfer.Format.CSV);
+        assertEquals(5, result.records);
+        assertEquals(2, result.added);
+        assertEquals(2, result.rejected);
+        assertEquals(1, result.duplicates);
+    }
+
+    private void roundTrip(CatalogTransfer.Format format) throws Exception {
+        String name = "catalog-transfer-" + format.name().toLowerCase(Locale.ROOT);
+        Catalog source = new Catalog(name + "-source");
+        for (List<String> titleAuthor : TITLES) {
+            source.books.addBook(titleAuthor.get(0), titleAuthor.get(1));
+        }
+        source.books.getBook(2).isAvailable = false;
+        StringWriter exported = new StringWriter();
+        assertEquals(TITLES.size(), source.transfer().exportTo(exported, format));
+        assertTrue(exported.toString().contains(format == CatalogTransfer.Format.CSV ? ",false\n" : "$achecked out\n"));
+
+        Catalog target = new Catalog(name + "-target");
+        CatalogTransfer.Result result = target.transfer().importFrom(new BufferedReader(new StringReader(exported.toString())), format);
+        assertEquals(TITLES.size(), result.records);
+        assertEquals(TITLES.size(), result.added);
+        assertEquals(0, result.rejected);
+        // Imported books get new ids in file order and start out available.
+        List<List<String>> imported = new ArrayList<>();
+        for (Book book : target.books.allBooks()) {
+            assertTrue(book.isAvailable);
+            imported.add(List.of(book.title, book.author));
+        }
+        assertEquals(TITLES, imported);
+
+        result = target.transfer().importFrom(new BufferedReader(new StringReader(exported.toString())), format);
+        assertEquals(0, result.added);
+        assertEquals(TITLES.size(), result.duplicates);
+    }
+
+    /** A BookSearch over its own in-memory database. */
+    private final class Catalog {
+        final WriteBehindJournal journal;
+        final BookSearch books;
+
+        Catalog(String name) throws SQLException {
+            ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+            pools.add(pool);
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                        + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            }
+            journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+            journals.add(journal);
+            books = new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters());
+        }
+
+        // Small chunks and a low pending-write cap so the pipeline and its flushes are exercised.
+        CatalogTransfer transfer() {
+            return new CatalogTransfer(books, journal, 2, 2, 3);
+        }
+    }
+}
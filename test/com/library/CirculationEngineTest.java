@@ -0,0 +1,102 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class CirculationEngineTest {
+    private final Map<Integer, Book> books = new HashMap<>();
+    private WriteBehindJournal journal;
+    private Holdings holdings;
+    private CirculationEngine circulation;
+    private Book book;
+    private int branch;
+
+    @BeforeEach
+    void setUp() {
+        journal = new WriteBehindJournal(null, Integer.MAX_VALUE, Long.MAX_VALUE);
+        holdings = new Holdings(journal);
+        HoldQueue holds = new HoldQueue(journal, HoldQueue.DEFAULT_WAIT_LIMIT, HoldQueue.DEFAULT_PICKUP_WINDOW);
+        circulation = new CirculationEngine(journal, holds, books::get, new ReportCounters(), CirculationEngine.DEFAULT_LOAN_DAYS);
+        circulation.setHoldings(holdings);
+        book = new Book(1, "Dune", "Herbert");
+        books.put(book.id, book);
+        branch = holdings.addBranch("Central");
+        holdings.addCopy(book.id, branch);
+        holdings.addCopy(book.id, branch);
+    }
+
+    @Test
+    void checkoutAndReturnMoveACopy() {
+        assertNotNull(circulation.checkout(book, new User("ann", "x")));
+        assertEquals(1, holdings.available(book.id));
+        assertEquals(1, count(Holdings.Status.ON_LOAN));
+
+        assertTrue(circulation.returnBook(book));
+        assertEquals(2, holdings.available(book.id));
+        assertEquals(0, count(Holdings.Status.ON_LOAN));
+    }
+
+    @Test
+    void returnedCopyWaitsOnThePickupShelfForTheNextHold() {
+        User ann = new User("ann", "x");
+        User bob = new User("bob", "x");
+        circulation.checkout(book, ann);
+        assertNotNull(circulation.reserve(book, bob, 0));
+        circulation.returnBook(book);
+        assertEquals(1, count(Holdings.Status.ON_HOLD_SHELF));
+        assertEquals(1, holdings.available(book.id));
+
+        assertNull(circulation.checkout(book, ann));
+        assertNotNull(circulation.checkout(book, bob));
+        assertEquals(0, count(Holdings.Status.ON_HOLD_SHELF));
+        assertEquals(1, count(Holdings.Status.ON_LOAN));
+    }
+
+    @Test
+    void cancelledHoldPutsTheCopyBackOnTheShelf() {
+        circulation.checkout(book, new User("ann", "x"));
+        HoldQueue.Hold hold = circulation.reserve(book, new User("bob", "x"), 0);
+        circulation.returnBook(book);
+        assertTrue(circulation.cancelHold(hold.id));
+        assertEquals(2, holdings.available(book.id));
+        assertTrue(book.isAvailable);
+    }
+
+    @Test
+    void onlyABookOnLoanCanBeReturned() {
+        User ann = new User("ann", "x");
+        assertFalse(circulation.returnBook(book));
+
+        circulation.checkout(book, ann);
+        circulation.reserve(book, new User("bob", "x"), 0);
+        assertTrue(circulation.returnBook(book));
+        // The copy now waits for bob on the pickup shelf; returning it again must not release it.
+        assertFalse(circulation.returnBook(book));
+        assertEquals(1, count(Holdings.Status.ON_HOLD_SHELF));
+
+        // Out with no loan on record, as when another node's loan row has not arrived.
+        Book unlisted = new Book(2, "Emma", "Austen");
+        books.put(unlisted.id, unlisted);
+        holdings.addCopy(unlisted.id, branch);
+        unlisted.isAvailable = false;
+        assertFalse(circulation.returnBook(unlisted));
+        assertFalse(unlisted.isAvailable);
+        assertEquals(1, holdings.available(unlisted.id));
+    }
+
+    @Test
+    void noCopyOnTheShelfMeansNoCheckout() {
+        for (Holdings.Copy copy : holdings.copiesOf(book.id)) {
+            holdings.setStatus(copy.id, Holdings.Status.IN_REPAIR);
+        }
+        assertNull(circulation.checkout(book, new User("ann", "x")));
+        assertTrue(book.isAvailable);
+        assertEquals(0, circulation.activeLoans());
+    }
+
+    private long count(Holdings.Status status) {
+        return holdings.copiesOf(book.id).stream().filter(copy -> copy.status == status).count();
+    }
+}
@@ -0,0 +1,81 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import org.junit.jupiter.api.Test;
+
+class ConnectionPoolTest {
+    private static final String URL = "jdbc:h2:mem:connection-pool;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+    @Test
+    void releasedConnectionsAreReusedWithTheirStatements() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, "sa", "", 2)) {
+            PreparedStatement first;
+            try (PooledConnection connection = pool.acquire()) {
+                first = connection.prepare("SELECT 1");
+            }
+            assertEquals(1, pool.idleCount());
+            try (PooledConnection connection = pool.acquire()) {
+                assertSame(first, connection.prepare("SELECT 1"));
+                assertEquals(1, connection.cachedStatements());
+            }
+        }
+    }
+
+    @Test
+    void closingTwiceReturnsTheConnectionOnce() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, "sa", "", 2)) {
+            PooledConnection connection = pool.acquire();
+            connection.close();
+            connection.close();
+            assertEquals(1, pool.idleCount());
+            try (PooledConnection first = pool.acquire(); PooledConnection second = pool.acquire()) {
+                assertNotSame(first, second);
+                assertNotSame(first.connection(), second.connection());
+            }
+            assertEquals(2, pool.idleCount());
+        }
+    }
+
+    @Test
+    void acquireTimesOutWhenThePoolIsExhausted() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, "sa", "", 1, ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE, 50);
+             PooledConnection held = pool.acquire()) {
+            assertNotNull(held);
+            assertThrows(SQLException.class, pool::acquire);
+        }
+    }
+
+    @Test
+    void closedConnectionsAreReplaced() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, "sa", "", 1)) {
+            Connection closed;
+            try (PooledConnection connection = pool.acquire()) {
+                closed = connection.connection();
+                closed.close();
+            }
+            try (PooledConnection connection = pool.acquire()) {
+                assertNotSame(closed, connection.connection());
+                assertFalse(connection.connection().isClosed());
+            }
+        }
+    }
+
+    @Test
+    void storesRunAgainstTheEmbeddedDatabase() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:connection-pool-users;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+             WriteBehindJournal journal = new WriteBehindJournal(pool, 100, 10)) {
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("CREATE TABLE users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255), version INT NOT NULL DEFAULT 0)");
+            }
+            UserRegistrationAndLogin users = new UserRegistrationAndLogin(pool, journal);
+            assertTrue(users.registerUser("ann", "secret"));
+            journal.awaitFlush();
+
+            UserRegistrationAndLogin restarted = new UserRegistrationAndLogin(pool, journal);
+            assertNotNull(restarted.authenticate("ann", "secret"));
+            assertNull(restarted.authenticate("ann", "wrong"));
+        }
+    }
+}
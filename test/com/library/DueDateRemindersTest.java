@@ -0,0 +1,62 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class DueDateRemindersTest {
+    private static final int LOAN_DAYS = 3;
+
+    @Test
+    void eachLoanGetsOneDueSoonAndOneOverdueNotice() throws InterruptedException {
+        Map<Integer, Book> books = new HashMap<>();
+        books.put(1, new Book(1, "Dune", "Herbert"));
+        books.put(2, new Book(2, "Emma", "Austen"));
+        WriteBehindJournal journal = new WriteBehindJournal(null, Integer.MAX_VALUE, Long.MAX_VALUE);
+        HoldQueue holds = new HoldQueue(journal, HoldQueue.DEFAULT_WAIT_LIMIT, HoldQueue.DEFAULT_PICKUP_WINDOW);
+        CirculationEngine circulation = new CirculationEngine(journal, holds, books::get, new ReportCounters(), LOAN_DAYS);
+        NotificationSink.InMemory sink = new NotificationSink.InMemory();
+        try (NotificationSystem notifications = new NotificationSystem(List.of(sink));
+             DueDateReminders reminders = new DueDateReminders(circulation, notifications, 2)) {
+            LocalDate today = LocalDate.now();
+            assertNotNull(circulation.checkout(books.get(1), new User("ann", "x")));
+            assertNotNull(circulation.checkout(books.get(2), new User("bob", "x")));
+
+            // Both loans are due in three days: inside the two-day window from tomorrow.
+            assertEquals(0, reminders.scan(today));
+            assertEquals(2, reminders.scan(today.plusDays(1)));
+            assertEquals(0, reminders.scan(today.plusDays(1)));
+            assertEquals(0, reminders.scan(today.plusDays(2)));
+            assertEquals(0, reminders.scan(today.plusDays(3)));
+            assertEquals(2, reminders.scan(today.plusDays(4)));
+            assertEquals(0, reminders.scan(today.plusDays(5)));
+
+            assertTrue(notifications.awaitIdle(5_000));
+            Map<NotificationSystem.Kind, Integer> kinds = new EnumMap<>(NotificationSystem.Kind.class);
+            for (NotificationSystem.Notification notice : sink.delivered()) {
+                kinds.merge(notice.kind, 1, Integer::sum);
+            }
+            assertEquals(Map.of(NotificationSystem.Kind.DUE_SOON, 2, NotificationSystem.Kind.OVERDUE, 2), kinds);
+        }
+    }
+
+    @Test
+    void aScanAfterAGapCoversTheSkippedDaysOnce() {
+        Map<Integer, Book> books = new HashMap<>();
+        books.put(1, new Book(1, "Dune", "Herbert"));
+        WriteBehindJournal journal = new WriteBehindJournal(null, Integer.MAX_VALUE, Long.MAX_VALUE);
+        HoldQueue holds = new HoldQueue(journal, HoldQueue.DEFAULT_WAIT_LIMIT, HoldQueue.DEFAULT_PICKUP_WINDOW);
+        CirculationEngine circulation = new CirculationEngine(journal, holds, books::get, new ReportCounters(), LOAN_DAYS);
+        try (NotificationSystem notifications = new NotificationSystem(List.of(new NotificationSink.InMemory()));
+             DueDateReminders reminders = new DueDateReminders(circulation, notifications, 2)) {
+            LocalDate today = LocalDate.now();
+            circulation.checkout(books.get(1), new User("ann", "x"));
+            assertEquals(0, reminders.scan(today));
+            // Down for a week: the due-soon and overdue windows both swept past the due date.
+            assertEquals(2, reminders.scan(today.plusDays(7)));
+            assertEquals(0, reminders.scan(today.plusDays(8)));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class HoldQueueTest {
+    private static final Duration WAIT_LIMIT = Duration.ofHours(1);
+    private static final Duration PICKUP_WINDOW = Duration.ofMinutes(1);
+
+    private ConnectionPool pool;
+    private WriteBehindJournal journal;
+    private HoldQueue holds;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:hold-queue;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 4);
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("CREATE TABLE holds (id BIGINT PRIMARY KEY, book_id INT, username VARCHAR(255), priority INT, "
+                    + "status VARCHAR(16), placed_at TIMESTAMP, expires_at TIMESTAMP)");
+        }
+        journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+        holds = new HoldQueue(journal, WAIT_LIMIT, PICKUP_WINDOW);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        holds.close();
+        journal.close();
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        pool.close();
+    }
+
+    @Test
+    void waitingHoldsAreOrderedByPriorityThenArrival() {
+        holds.place(1, "ann", 0);
+        holds.place(1, "bob", 1);
+        holds.place(1, "cy", 0);
+        holds.place(1, "dee", 1);
+        holds.place(2, "eve", 5);
+
+        assertEquals(List.of("bob", "dee", "ann", "cy"), usernames(holds.holdsFor(1)));
+        assertEquals(4, holds.waitingCount(1));
+        assertEquals(List.of("eve"), usernames(holds.holdsFor(2)));
+    }
+
+    @Test
+    void promoteNextShelvesTheFirstWaitingHold() {
+        holds.place(1, "ann", 0);
+        holds.place(1, "bob", 1);
+        Instant before = Instant.now();
+
+        HoldQueue.Hold ready = holds.promoteNext(1);
+        assertEquals("bob", ready.username);
+        assertEquals(HoldQueue.Status.READY, ready.status);
+        assertSame(ready, holds.readyHold(1));
+        assertFalse(ready.expiresAt.isBefore(before.plus(PICKUP_WINDOW)));
+        assertEquals(1, holds.waitingCount(1));
+        assertEquals(List.of("bob", "ann"), usernames(holds.holdsFor(1)));
+
+        holds.fulfill(ready);
+        assertNull(holds.readyHold(1));
+        assertNull(holds.get(ready.id));
+        assertNull(holds.promoteNext(2));
+    }
+
+    @Test
+    void pollDueSkipsSupersededAndFinishedHolds() {
+        Instant start = Instant.now();
+        HoldQueue.Hold promoted = holds.place(1, "ann", 0);
+        HoldQueue.Hold cancelled = holds.place(2, "bob", 0);
+        HoldQueue.Hold waiting = holds.place(3, "cy", 0);
+        holds.promoteNext(1);
+        holds.cancel(cancelled);
+
+        // Promotion moved the deadline up to the pickup window; the wait-limit entry is stale.
+        assertEquals(List.of(), holds.pollDue(start));
+        assertEquals(List.of(promoted), holds.pollDue(start.plus(PICKUP_WINDOW).plusSeconds(10)));
+        assertTrue(holds.expireIfDue(promoted, start.plus(PICKUP_WINDOW).plusSeconds(10)));
+        assertEquals(HoldQueue.Status.EXPIRED, promoted.status);
+
+        assertEquals(List.of(waiting), holds.pollDue(start.plus(WAIT_LIMIT).plusSeconds(10)));
+        assertFalse(holds.expireIfDue(waiting, start));
+        assertEquals(List.of(), holds.pollDue(start.plus(WAIT_LIMIT).plusSeconds(10)));
+    }
+
+    @Test
+    void aNewQueueReloadsActiveHoldsFromTheTable() throws SQLException {
+        holds.place(1, "ann", 0);
+        holds.place(1, "bob", 1);
+        HoldQueue.Hold cy = holds.place(1, "cy", 2);
+        HoldQueue.Hold gone = holds.place(2, "dee", 0);
+        holds.promoteNext(1);
+        holds.cancel(gone);
+        journal.awaitFlush();
+
+        HoldQueue reloaded = new HoldQueue(pool, journal);
+        try {
+            assertEquals(List.of("cy", "bob", "ann"), usernames(reloaded.holdsFor(1)));
+            assertEquals(cy.id, reloaded.readyHold(1).id);
+            assertEquals(HoldQueue.Status.READY, reloaded.readyHold(1).status);
+            assertEquals(List.of(), reloaded.holdsFor(2));
+            assertNull(reloaded.get(gone.id));
+            assertTrue(reloaded.place(3, "eve", 0).id > cy.id);
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    private static List<String> usernames(List<HoldQueue.Hold> holds) {
+        List<String> usernames = new ArrayList<>();
+        for (HoldQueue.Hold hold : holds) {
+            usernames.add(hold.username);
+        }
+        return usernames;
+    }
+}
@@ -0,0 +1,40 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class IdBlocksTest {
+    @Test
+    void nodesSharingTheTableNeverHandOutTheSameId() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:id-blocks;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 4)) {
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("CREATE TABLE id_blocks (name VARCHAR(64) PRIMARY KEY, next_id BIGINT NOT NULL)");
+            }
+            assertTrue(IdBlocks.available(pool));
+            IdBlocks first = new IdBlocks(pool, "books", 10);
+            IdBlocks second = new IdBlocks(pool, "books", 10);
+            first.prefetch(100);
+            Set<Integer> ids = new HashSet<>();
+            for (int i = 0; i < 95; i++) {
+                assertTrue(ids.add(first.next(100)));
+                assertTrue(ids.add(second.next(100)));
+            }
+            assertTrue(ids.stream().allMatch(id -> id >= 100));
+        }
+    }
+
+    @Test
+    void aBlockEndingBelowTheFloorIsSkipped() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:id-blocks-floor;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2)) {
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("CREATE TABLE id_blocks (name VARCHAR(64) PRIMARY KEY, next_id BIGINT NOT NULL)");
+            }
+            IdBlocks blocks = new IdBlocks(pool, "books", 10);
+            blocks.prefetch(1);
+            assertEquals(500, blocks.next(500));
+        }
+    }
+}
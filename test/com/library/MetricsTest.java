@@ -0,0 +1,63 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+    @Test
+    void snapshotsReportCountersGaugesAndTimerQuantiles() {
+        Metrics.counter("test.snapshot.requests").add(41);
+        Metrics.counter("test.snapshot.requests").increment();
+        Metrics.gauge("test.snapshot.depth", () -> 7);
+        Metrics.gauge("test.snapshot.broken", () -> {
+            throw new IllegalStateException("closed");
+        });
+        Metrics.Timer timer = Metrics.timer("test.snapshot.latency");
+        for (int micros = 1; micros <= 1_000; micros++) {
+            timer.histogram.record(micros * 1_000L);
+        }
+
+        Map<String, Long> values = Metrics.values();
+        assertEquals(42, values.get("test.snapshot.requests"));
+        assertEquals(7, values.get("test.snapshot.depth"));
+        assertEquals(-1, values.get("test.snapshot.broken"));
+        assertEquals(1_000, values.get("test.snapshot.latency.count"));
+        assertEquals(1_000, values.get("test.snapshot.latency.maxMicros"));
+        // Buckets hold a value to within about 1.6%.
+        assertEquals(500, values.get("test.snapshot.latency.p50Micros"), 500 * 0.016);
+        assertEquals(990, values.get("test.snapshot.latency.p99Micros"), 990 * 0.016);
+        assertEquals(999, values.get("test.snapshot.latency.p999Micros"), 999 * 0.016);
+
+        String text = Metrics.toPrometheus();
+        assertTrue(text.contains("# TYPE library_test_snapshot_requests_total counter\nlibrary_test_snapshot_requests_total 42\n"), text);
+        assertTrue(text.contains("library_test_snapshot_depth 7\n"), text);
+        assertTrue(text.contains("library_test_snapshot_latency_seconds_count 1000\n"), text);
+        assertTrue(text.contains("library_test_snapshot_latency_seconds_sum 0.500500000\n"), text);
+    }
+
+    @Test
+    void theMBeanServesTheSameSnapshot() throws JMException {
+        Metrics.registerMBean();
+        Metrics.registerMBean();
+        Metrics.counter("test.mbean.logins").add(3);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.library:type=Metrics");
+
+        assertEquals(3L, server.getAttribute(name, "test.mbean.logins"));
+        assertTrue(Arrays.stream(server.getMBeanInfo(name).getAttributes()).anyMatch(info -> info.getName().equals("test.mbean.logins")));
+        assertThrows(AttributeNotFoundException.class, () -> server.getAttribute(name, "test.mbean.missing"));
+    }
+
+    @Test
+    void bucketsCoverEveryValueWithinTheirPrecision() {
+        for (long value : new long[] { 0, 1, 63, 64, 65, 1_000, 123_456_789, 1L << 40 }) {
+            long upper = Metrics.Histogram.highestEquivalent(Metrics.Histogram.bucket(value));
+            assertTrue(upper >= value, "value " + value);
+            assertTrue(upper - value <= Math.max(0, value / 63), "value " + value);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class MultiNodeTest {
+    private static final int BOOKS = 10;
+
+    private ConnectionPool pool;
+    private final List<Node> nodes = new ArrayList<>();
+
+    private static final class Node {
+        final WriteBehindJournal journal;
+        final UserRegistrationAndLogin users;
+        final BookSearch books;
+        final HoldQueue holds;
+        final Holdings holdings;
+        final CirculationEngine circulation;
+        final ChangeFeed feed;
+
+        Node(ConnectionPool pool, String nodeId) throws SQLException {
+            journal = new WriteBehindJournal(pool, WriteBehindJournal.DEFAULT_BATCH_SIZE, Long.MAX_VALUE, nodeId);
+            feed = new ChangeFeed(pool, journal, WriteBehindJournal.latestChangeSeq(pool));
+            users = new UserRegistrationAndLogin(pool, journal, LoadMode.EAGER);
+            books = new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters());
+            books.setIdBlocks(new IdBlocks(pool, "books", 4));
+            holds = new HoldQueue(pool, journal);
+            holds.setIdBlocks(new IdBlocks(pool, "holds", 4));
+            holdings = new Holdings(pool, journal);
+            holdings.setIdBlocks(new IdBlocks(pool, "copies", 4), new IdBlocks(pool, "branches", 1));
+            circulation = new CirculationEngine(pool, journal, holds, books::getBook, new ReportCounters());
+            circulation.setHoldings(holdings);
+            feed.subscribe(UserRegistrationAndLogin.USERS_TABLE, users::reload);
+            journal.onRejected(BookSearch.BOOKS_TABLE, id -> circulation.reload((Integer) id, books::reload));
+            journal.onRejected(CirculationEngine.LOANS_TABLE, id -> circulation.reload((Integer) id, books::reload));
+            feed.subscribe(BookSearch.BOOKS_TABLE, id -> circulation.reload(Integer.parseInt(id), books::reload));
+            feed.subscribe(CirculationEngine.LOANS_TABLE, id -> circulation.reload(Integer.parseInt(id), books::reload));
+            feed.subscribe(HoldQueue.HOLDS_TABLE, id -> circulation.reloadHold(Long.parseLong(id)));
+            feed.subscribe(Holdings.COPIES_TABLE, id -> holdings.reload(Integer.parseInt(id)));
+            feed.subscribe(Holdings.BRANCHES_TABLE, id -> holdings.reloadBranch(Integer.parseInt(id)));
+        }
+
+        void close() {
+            feed.close();
+            holds.close();
+            journal.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:multi-node;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 8);
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255), version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE loans (book_id INT PRIMARY KEY, username VARCHAR(255), checkout_date DATE, due_date DATE)");
+            statement.execute("CREATE TABLE holds (id BIGINT PRIMARY KEY, book_id INT, username VARCHAR(255), priority INT, "
+                    + "status VARCHAR(16), placed_at TIMESTAMP, expires_at TIMESTAMP)");
+            statement.execute("CREATE TABLE branches (id SMALLINT PRIMARY KEY, name VARCHAR(255) NOT NULL UNIQUE)");
+            statement.execute("CREATE TABLE copies (id INT PRIMARY KEY, book_id INT NOT NULL, branch_id SMALLINT NOT NULL, "
+                    + "status VARCHAR(16) NOT NULL)");
+            statement.execute("CREATE TABLE catalog_changes (seq BIGINT AUTO_INCREMENT PRIMARY KEY, table_name VARCHAR(64) NOT NULL, "
+                    + "row_key VARCHAR(255) NOT NULL, kind VARCHAR(8) NOT NULL, node_id VARCHAR(64))");
+            statement.execute("CREATE TABLE id_blocks (name VARCHAR(64) PRIMARY KEY, next_id BIGINT NOT NULL)");
+            for (int id = 1; id <= BOOKS; id++) {
+                statement.execute("INSERT INTO books (id, title, author, is_available) VALUES (" + id + ", 'Title " + id + "', 'Author', TRUE)");
+            }
+            statement.execute("INSERT INTO users (username, password) VALUES ('ann', 'plain')");
+        }
+        nodes.add(new Node(pool, "node-a"));
+        nodes.add(new Node(pool, "node-b"));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        nodes.forEach(Node::close);
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        pool.close();
+    }
+
+    @Test
+    void nodesConvergeOnTheDatabase() throws SQLException {
+        Node a = nodes.get(0);
+        Node b = nodes.get(1);
+        User patron = new User("patron", "x");
+
+        Book renamed = a.books.getBook(1);
+        a.books.updateBook(1, "Renamed on A", renamed.author, renamed.version);
+        assertNotNull(a.circulation.checkout(a.books.getBook(2), patron));
+        assertNotNull(b.circulation.checkout(b.books.getBook(3), patron));
+        Set<Integer> added = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(added.add(a.books.addBook("Added on A " + i, "Author").id));
+            assertTrue(added.add(b.books.addBook("Added on B " + i, "Author").id));
+        }
+        assertTrue(b.users.changePassword("ann", "changed on B"));
+        // Both nodes rename the same book from the same version; the later flush is rejected and reloads.
+        int version = a.books.getBook(4).version;
+        a.books.updateBook(4, "Contested on A", "Author", version);
+        b.books.updateBook(4, "Contested on B", "Author", version);
+
+        settle();
+
+        assertEquals(1, a.journal.rejectedCount() + b.journal.rejectedCount());
+        Map<Integer, String> books = new HashMap<>();
+        Map<Integer, String> loans = new HashMap<>();
+        String password;
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            try (ResultSet rows = statement.executeQuery("SELECT id, title, is_available, version FROM books")) {
+                while (rows.next()) {
+                    books.put(rows.getInt(1), rows.getString(2) + "|" + rows.getBoolean(3) + "|" + rows.getInt(4));
+                }
+            }
+            try (ResultSet rows = statement.executeQuery("SELECT book_id, username FROM loans")) {
+                while (rows.next()) {
+                    loans.put(rows.getInt(1), rows.getString(2));
+                }
+            }
+            try (ResultSet rows = statement.executeQuery("SELECT password FROM users WHERE username = 'ann'")) {
+                rows.next();
+                password = rows.getString(1);
+            }
+        }
+        assertEquals(BOOKS + added.size(), books.size());
+        assertEquals(Set.of(2, 3), loans.keySet());
+        for (Node node : nodes) {
+            assertEquals(books.size(), node.books.allBooks().size());
+            for (Book book : node.books.allBooks()) {
+                assertEquals(books.get(book.id), book.title + "|" + book.isAvailable + "|" + book.version, "book " + book.id);
+                CirculationEngine.Loan loan = node.circulation.loanFor(book.id);
+                assertEquals(loans.get(book.id), loan == null ? null : loan.username, "loan of book " + book.id);
+            }
+            assertEquals(password, node.users.findUser("ann").password);
+        }
+    }
+
+    @Test
+    void aReturnOnOneNodeFreesTheBookOnTheOther() throws SQLException {
+        Node a = nodes.get(0);
+        Node b = nodes.get(1);
+        assertNotNull(a.circulation.checkout(a.books.getBook(5), new User("ann", "x")));
+        settle();
+        assertFalse(b.books.getBook(5).isAvailable);
+        assertNull(b.circulation.checkout(b.books.getBook(5), new User("bob", "x")));
+
+        assertTrue(a.circulation.returnBook(a.books.getBook(5)));
+        settle();
+        assertTrue(b.books.getBook(5).isAvailable);
+        assertNotNull(b.circulation.checkout(b.books.getBook(5), new User("bob", "x")));
+    }
+
+    @Test
+    void aHoldPlacedOnOneNodeIsHonoredOnTheOther() throws SQLException {
+        Node a = nodes.get(0);
+        Node b = nodes.get(1);
+        assertNotNull(a.circulation.checkout(a.books.getBook(7), new User("ann", "x")));
+        settle();
+        HoldQueue.Hold hold = b.circulation.reserve(b.books.getBook(7), new User("bob", "x"), 0);
+        assertNotNull(hold);
+        settle();
+        assertEquals(1, a.circulation.queueLength(7));
+
+        // The return on A hands the book to B's hold, and B sees it waiting on the pickup shelf.
+        assertTrue(a.circulation.returnBook(a.books.getBook(7)));
+        assertEquals(hold.id, a.circulation.readyHold(7).id);
+        settle();
+        assertFalse(b.books.getBook(7).isAvailable);
+        assertNull(b.circulation.loanFor(7));
+        assertEquals(HoldQueue.Status.READY, b.circulation.readyHold(7).status);
+        assertNull(b.circulation.checkout(b.books.getBook(7), new User("carol", "x")));
+        assertNotNull(b.circulation.checkout(b.books.getBook(7), new User("bob", "x")));
+        settle();
+        assertNull(a.circulation.readyHold(7));
+        assertEquals(0, a.circulation.queueLength(7));
+        assertEquals("bob", a.circulation.loanFor(7).username);
+    }
+
+    @Test
+    void aCopyAndBranchAddedOnOneNodeAppearOnTheOther() throws SQLException {
+        Node a = nodes.get(0);
+        Node b = nodes.get(1);
+        int branch = a.holdings.addBranch("East");
+        int copy = a.holdings.addCopy(8, branch);
+        settle();
+        assertEquals("East", b.holdings.branches().get(branch));
+        assertEquals(1, b.holdings.available(8, branch));
+
+        assertNotNull(b.circulation.checkout(b.books.getBook(8), new User("ann", "x")));
+        settle();
+        assertEquals(0, a.holdings.available(8, branch));
+        assertEquals(Holdings.Status.ON_LOAN, a.holdings.copy(copy).status);
+    }
+
+    @Test
+    void holdsCopiesAndBranchesAddedOnBothNodesGetDistinctIds() throws SQLException {
+        Node a = nodes.get(0);
+        Node b = nodes.get(1);
+        int branchA = a.holdings.addBranch("East");
+        int branchB = b.holdings.addBranch("West");
+        assertNotEquals(branchA, branchB);
+        Set<Long> holdIds = new HashSet<>();
+        Set<Integer> copyIds = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(holdIds.add(a.holds.place(1 + i, "ann", 0).id));
+            assertTrue(holdIds.add(b.holds.place(1 + i, "bob", 0).id));
+            assertTrue(copyIds.add(a.holdings.addCopy(1 + i, branchA)));
+            assertTrue(copyIds.add(b.holdings.addCopy(1 + i, branchB)));
+        }
+
+        settle();
+
+        assertEquals(0, a.journal.rejectedCount() + b.journal.rejectedCount());
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            assertEquals(holdIds.size(), count(statement, "holds"));
+            assertEquals(copyIds.size(), count(statement, "copies"));
+            assertEquals(2, count(statement, "branches"));
+        }
+    }
+
+    private static int count(Statement statement, String table) throws SQLException {
+        try (ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rows.next();
+            return rows.getInt(1);
+        }
+    }
+
+    private void settle() throws SQLException {
+        for (Node node : nodes) {
+            node.journal.awaitFlush();
+        }
+        for (Node node : nodes) {
+            node.feed.poll();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+class NotificationSystemTest {
+    private static final long BACKOFF_MILLIS = 20;
+
+    @Test
+    void aFailedBatchIsRetriedWithGrowingBackoff() throws InterruptedException {
+        NotificationSink.InMemory sink = new NotificationSink.InMemory();
+        sink.failNext(2);
+        try (NotificationSystem notifications = new NotificationSystem(List.of(sink), 100, 10, 5, BACKOFF_MILLIS)) {
+            long start = System.nanoTime();
+            notifications.send(notice("ann"));
+            assertTrue(notifications.awaitIdle(5_000));
+            // Waited one backoff, then twice that.
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 3 * BACKOFF_MILLIS);
+            assertEquals(1, notifications.delivered());
+            assertEquals(2, notifications.retries());
+            assertEquals(0, notifications.failed());
+            assertEquals(List.of("ann"), usernames(sink.delivered()));
+        }
+    }
+
+    @Test
+    void aBatchIsGivenUpAfterMaxAttempts() throws InterruptedException {
+        NotificationSink.InMemory sink = new NotificationSink.InMemory();
+        sink.failNext(3);
+        try (NotificationSystem notifications = new NotificationSystem(List.of(sink), 100, 10, 3, BACKOFF_MILLIS)) {
+            notifications.send(notice("ann"));
+            assertTrue(notifications.awaitIdle(5_000));
+            assertEquals(1, notifications.failed());
+            assertEquals(2, notifications.retries());
+            assertEquals(0, notifications.delivered());
+
+            notifications.send(notice("bob"));
+            assertTrue(notifications.awaitIdle(5_000));
+            assertEquals(List.of("bob"), usernames(sink.delivered()));
+            assertEquals(0, notifications.pending());
+        }
+    }
+
+    @Test
+    void aFullQueueDropsOnlyForItsOwnSink() throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NotificationSink stuck = new NotificationSink() {
+            @Override
+            public String name() {
+                return "stuck";
+            }
+
+            @Override
+            public void deliver(List<NotificationSystem.Notification> batch) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        NotificationSink.InMemory fast = new NotificationSink.InMemory();
+        try (NotificationSystem notifications = new NotificationSystem(List.of(stuck, fast), 2, 1, 1, BACKOFF_MILLIS)) {
+            notifications.send(notice("ann"));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            // The stuck sink holds ann; its queue takes two more and refuses the fourth, while the other keeps up.
+            awaitDelivered(fast, 1);
+            List<String> later = List.of("bob", "cy", "dee");
+            for (int i = 0; i < later.size(); i++) {
+                notifications.send(notice(later.get(i)));
+                awaitDelivered(fast, i + 2);
+            }
+            assertEquals(1, notifications.dropped());
+            assertFalse(notifications.awaitIdle(50));
+
+            release.countDown();
+            assertTrue(notifications.awaitIdle(5_000));
+            assertEquals(7, notifications.delivered());
+            assertEquals(List.of("ann", "bob", "cy", "dee"), usernames(fast.delivered()));
+        }
+    }
+
+    @Test
+    void closeDrainsTheQueueAndRefusesLaterNotices() {
+        NotificationSink.InMemory sink = new NotificationSink.InMemory();
+        NotificationSystem notifications = new NotificationSystem(List.of(sink), 1_000, 7, 5, BACKOFF_MILLIS);
+        sink.failNext(1);
+        for (int i = 0; i < 100; i++) {
+            notifications.send(notice("user" + i));
+        }
+        notifications.close();
+        assertEquals(100, sink.delivered().size());
+        assertEquals(0, notifications.pending());
+
+        notifications.send(notice("late"));
+        assertEquals(1, notifications.dropped());
+        assertEquals(100, sink.delivered().size());
+    }
+
+    private static void awaitDelivered(NotificationSink.InMemory sink, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sink.delivered().size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, sink.delivered().size());
+    }
+
+    private static NotificationSystem.Notification notice(String username) {
+        return new NotificationSystem.Notification(username, NotificationSystem.Kind.MESSAGE, "Hello");
+    }
+
+    private static List<String> usernames(List<NotificationSystem.Notification> notices) {
+        List<String> usernames = new ArrayList<>();
+        for (NotificationSystem.Notification notice : notices) {
+            usernames.add(notice.username);
+        }
+        return usernames;
+    }
+}
@@ -0,0 +1,156 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Test;
+
+class OptimisticLockingTest {
+    private static final int HOT_BOOKS = 4;
+    private static final int UPDATES_PER_WRITER = 200;
+
+    @Test
+    void concurrentVersionedUpdatesLoseNothing() throws Exception {
+        try (ConnectionPool pool = pool("optimistic-in-memory");
+             WriteBehindJournal journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            createTables(pool);
+            BookSearch bookSearch = new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters());
+            int writers = 4;
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            List<Future<?>> done = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                done.add(executor.submit(() -> {
+                    for (int i = 0; i < UPDATES_PER_WRITER; i++) {
+                        int id = 1 + i % HOT_BOOKS;
+                        while (true) {
+                            Book book = bookSearch.getBook(id);
+                            int version = book.version;
+                            try {
+                                bookSearch.updateBook(id, String.valueOf(Integer.parseInt(book.title) + 1), book.author, version);
+                                break;
+                            } catch (ConcurrentModificationException e) {
+                                // Another writer got there first; read the book again.
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : done) {
+                writer.get();
+            }
+            executor.shutdown();
+
+            long counted = 0;
+            for (int id = 1; id <= HOT_BOOKS; id++) {
+                counted += Integer.parseInt(bookSearch.getBook(id).title);
+            }
+            assertEquals(writers * UPDATES_PER_WRITER, counted);
+        }
+    }
+
+    @Test
+    void nodesSharingTheDatabaseLoseNoCommittedUpdates() throws Exception {
+        try (ConnectionPool pool = pool("optimistic-shared")) {
+            createTables(pool);
+            int nodeCount = 2;
+            List<WriteBehindJournal> journals = new ArrayList<>();
+            LongAdder committed = new LongAdder();
+            ExecutorService executor = Executors.newFixedThreadPool(nodeCount);
+            List<Future<?>> done = new ArrayList<>();
+            for (int n = 0; n < nodeCount; n++) {
+                WriteBehindJournal journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+                journals.add(journal);
+                BookSearch node = new BookSearch(pool, journal, LoadMode.EAGER, new ReportCounters());
+                done.add(executor.submit(() -> {
+                    for (int i = 0; i < UPDATES_PER_WRITER; i++) {
+                        int id = 1 + i % HOT_BOOKS;
+                        Book book = node.getBook(id);
+                        int version = book.version;
+                        node.updateBook(id, String.valueOf(Integer.parseInt(book.title) + 1), book.author, version);
+                        long before = journal.rejectedCount();
+                        // One writer per node, so a rejection here is this write's and has already reloaded the book.
+                        journal.awaitFlush();
+                        if (journal.rejectedCount() == before) {
+                            committed.increment();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : done) {
+                writer.get();
+            }
+            executor.shutdown();
+            journals.forEach(WriteBehindJournal::close);
+
+            long counted = 0;
+            try (PooledConnection connection = pool.acquire();
+                 ResultSet resultSet = connection.prepare("SELECT title FROM books").executeQuery()) {
+                while (resultSet.next()) {
+                    counted += Integer.parseInt(resultSet.getString(1));
+                }
+            }
+            assertTrue(committed.sum() > 0);
+            assertEquals(committed.sum(), counted);
+        }
+    }
+
+    @Test
+    void checkoutAgainstAStaleBookRowRollsBackAsOne() throws SQLException {
+        try (ConnectionPool pool = pool("optimistic-checkout");
+             WriteBehindJournal journalA = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE);
+             WriteBehindJournal journalB = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            createTables(pool);
+            BookSearch nodeA = new BookSearch(pool, journalA, LoadMode.EAGER, new ReportCounters());
+            BookSearch nodeB = new BookSearch(pool, journalB, LoadMode.EAGER, new ReportCounters());
+            try (HoldQueue holds = new HoldQueue(pool, journalA)) {
+                CirculationEngine circulation = new CirculationEngine(pool, journalA, holds, nodeA::getBook, new ReportCounters());
+                User patron = new User("patron", "x");
+
+                nodeB.updateBook(1, "Renamed elsewhere", "Author", 0);
+                journalB.awaitFlush();
+                Book book = nodeA.getBook(1);
+                assertNotNull(circulation.checkout(book, patron));
+                journalA.awaitFlush();
+                assertNull(circulation.loanFor(1));
+                assertTrue(book.isAvailable);
+                assertEquals("Renamed elsewhere", book.title);
+                assertEquals(0, loansInDatabase(pool));
+
+                assertNotNull(circulation.checkout(book, patron));
+                journalA.awaitFlush();
+                assertNotNull(circulation.loanFor(1));
+                assertEquals(1, loansInDatabase(pool));
+            }
+        }
+    }
+
+    private static ConnectionPool pool(String name) {
+        return new ConnectionPool("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 4);
+    }
+
+    private static int loansInDatabase(ConnectionPool pool) throws SQLException {
+        try (PooledConnection connection = pool.acquire();
+             ResultSet resultSet = connection.prepare("SELECT COUNT(*) FROM loans").executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static void createTables(ConnectionPool pool) throws SQLException {
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE loans (book_id INT PRIMARY KEY, username VARCHAR(255), checkout_date DATE, due_date DATE)");
+            statement.execute("CREATE TABLE holds (id BIGINT PRIMARY KEY, book_id INT, username VARCHAR(255), priority INT, "
+                    + "status VARCHAR(16), placed_at TIMESTAMP, expires_at TIMESTAMP)");
+            for (int id = 1; id <= HOT_BOOKS; id++) {
+                statement.execute("INSERT INTO books (id, title, author, is_available) VALUES (" + id + ", '0', 'Author', TRUE)");
+            }
+        }
+    }
+}
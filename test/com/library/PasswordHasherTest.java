@@ -0,0 +1,65 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import org.junit.jupiter.api.Test;
+
+class PasswordHasherTest {
+    @Test
+    void hashesVerifyOnlyTheirOwnPassword() {
+        String stored = PasswordHasher.hash("secret");
+        assertTrue(stored.startsWith("pbkdf2$" + PasswordHasher.ITERATIONS + "$"));
+        assertNotEquals(stored, PasswordHasher.hash("secret"));
+        assertTrue(PasswordHasher.verify("secret", stored));
+        assertFalse(PasswordHasher.verify("Secret", stored));
+        assertFalse(PasswordHasher.needsRehash(stored));
+    }
+
+    @Test
+    void plaintextAndCheaperHashesNeedARehash() {
+        assertTrue(PasswordHasher.verify("plain", "plain"));
+        assertTrue(PasswordHasher.needsRehash("plain"));
+        String cheap = PasswordHasher.hash("secret", PasswordHasher.ITERATIONS - 1);
+        assertTrue(PasswordHasher.verify("secret", cheap));
+        assertTrue(PasswordHasher.needsRehash(cheap));
+    }
+
+    @Test
+    void malformedHashesMatchNothing() {
+        String stored = PasswordHasher.hash("secret");
+        String[] parts = stored.split("\\$");
+        assertFalse(PasswordHasher.verify("secret", "pbkdf2$many$" + parts[2] + "$" + parts[3]));
+        assertFalse(PasswordHasher.verify("secret", "pbkdf2$0$" + parts[2] + "$" + parts[3]));
+        assertFalse(PasswordHasher.verify("secret", "pbkdf2$1000$not base64!$" + parts[3]));
+        assertFalse(PasswordHasher.verify("secret", "pbkdf2$1000$$" + parts[3]));
+        assertFalse(PasswordHasher.verify("secret", "pbkdf2$1000$" + parts[2]));
+        assertTrue(PasswordHasher.needsRehash("pbkdf2$many$" + parts[2] + "$" + parts[3]));
+    }
+
+    @Test
+    void loginUpgradesAPlaintextRow() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:password-hasher;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+             WriteBehindJournal journal = new WriteBehindJournal(pool, 100, 10)) {
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("CREATE TABLE users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255), version INT NOT NULL DEFAULT 0)");
+                statement.execute("INSERT INTO users (username, password) VALUES ('ann', 'secret')");
+            }
+            UserRegistrationAndLogin users = new UserRegistrationAndLogin(pool, journal);
+            assertNull(users.loginUser("ann", "wrong"));
+            assertNull(users.loginUser("nobody", "secret"));
+            assertNotNull(users.loginUser("ann", "secret"));
+            journal.awaitFlush();
+
+            String stored;
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT password FROM users WHERE username = 'ann'")) {
+                rows.next();
+                stored = rows.getString(1);
+            }
+            assertFalse(PasswordHasher.needsRehash(stored));
+            assertTrue(PasswordHasher.verify("secret", stored));
+            assertNotNull(new UserRegistrationAndLogin(pool, journal).authenticate("ann", "secret"));
+        }
+    }
+}
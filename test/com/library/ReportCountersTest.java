@@ -0,0 +1,76 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class ReportCountersTest {
+    @Test
+    void topBorrowedMatchesAFullCount() {
+        ReportCounters counters = new ReportCounters();
+        Random random = new Random(42);
+        Map<Integer, Long> borrows = new HashMap<>();
+        List<Book> books = new ArrayList<>();
+        for (int id = 1; id <= 200; id++) {
+            books.add(new Book(id, "Title " + id, "Author"));
+        }
+        for (int i = 0; i < 20_000; i++) {
+            // Skewed towards low ids so the leaders change as counts grow.
+            Book book = books.get((int) Math.min(books.size() - 1, Math.abs(random.nextGaussian()) * 40));
+            counters.borrowed(book);
+            borrows.merge(book.id, 1L, Long::sum);
+        }
+        assertEquals(expectedTop(borrows), counts(counters.snapshot()));
+    }
+
+    @Test
+    void deletedBookLeavesTheTopAndTheNextTakesItsPlace() {
+        ReportCounters counters = new ReportCounters();
+        Map<Integer, Long> borrows = new HashMap<>();
+        for (int id = 1; id <= ReportCounters.TOP_BORROWED + 5; id++) {
+            Book book = new Book(id, "Title " + id, "Author");
+            for (int i = 0; i < id; i++) {
+                counters.borrowed(book);
+            }
+            borrows.put(id, (long) id);
+        }
+        int most = ReportCounters.TOP_BORROWED + 5;
+        counters.bookDeleted(most);
+        borrows.remove(most);
+        ReportCounters.Snapshot report = counters.snapshot();
+        assertFalse(report.topBorrowed.stream().anyMatch(entry -> entry.getKey().equals("Title " + most)));
+        assertEquals(expectedTop(borrows), counts(report));
+    }
+
+    @Test
+    void overdueLoansCountOnlyOpenLoans() {
+        ReportCounters counters = new ReportCounters();
+        LocalDate lastWeek = LocalDate.now().minusDays(7);
+        CirculationEngine.Loan first = new CirculationEngine.Loan(1, "a", lastWeek.minusDays(14), lastWeek);
+        CirculationEngine.Loan second = new CirculationEngine.Loan(2, "b", lastWeek.minusDays(14), lastWeek);
+        counters.loanOpened(first);
+        counters.loanOpened(second);
+        counters.loanOpened(new CirculationEngine.Loan(3, "c", LocalDate.now(), LocalDate.now().plusDays(14)));
+        assertEquals(2, counters.snapshot().overdueLoans);
+        counters.loanClosed(first);
+        counters.loanClosed(second);
+        assertEquals(0, counters.snapshot().overdueLoans);
+        counters.loanOpened(first);
+        assertEquals(1, counters.snapshot().overdueLoans);
+        assertEquals(2, counters.snapshot().activeLoans);
+    }
+
+    private static List<Long> expectedTop(Map<Integer, Long> borrows) {
+        List<Long> counts = new ArrayList<>(borrows.values());
+        counts.sort(Comparator.reverseOrder());
+        return counts.subList(0, Math.min(ReportCounters.TOP_BORROWED, counts.size()));
+    }
+
+    private static List<Long> counts(ReportCounters.Snapshot report) {
+        List<Long> counts = new ArrayList<>();
+        report.topBorrowed.forEach(entry -> counts.add(entry.getValue()));
+        return counts;
+    }
+}
@@ -0,0 +1,39 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class SessionStoreTest {
+    @Test
+    void sessionsSlideWhileUsedAndExpireWhenIdle() throws InterruptedException {
+        try (SessionStore sessions = new SessionStore(Duration.ofMillis(400))) {
+            User ann = new User("ann", "x");
+            String token = sessions.create(ann);
+            // Past half the TTL, so this use pushes the expiry out to a full TTL from now.
+            Thread.sleep(250);
+            assertSame(ann, sessions.validate(token));
+            Thread.sleep(250);
+            assertSame(ann, sessions.validate(token), "the session should have slid past its first expiry");
+
+            Thread.sleep(450);
+            assertNull(sessions.validate(token));
+            assertEquals(0, sessions.size());
+        }
+    }
+
+    @Test
+    void invalidatingAUserEndsEveryOneOfItsSessions() {
+        try (SessionStore sessions = new SessionStore()) {
+            String first = sessions.create(new User("ann", "x"));
+            String second = sessions.create(new User("ann", "x"));
+            String other = sessions.create(new User("bob", "x"));
+            sessions.invalidateUser("ann");
+            assertNull(sessions.validate(first));
+            assertNull(sessions.validate(second));
+            assertNotNull(sessions.validate(other));
+            assertNull(sessions.validate("unknown"));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.*;
+
+class StreamingLoaderTest {
+    private static final String PAGE_SQL = "SELECT id FROM rows_to_load WHERE id > ? ORDER BY id LIMIT ?";
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:streaming-loader;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS rows_to_load");
+            statement.execute("CREATE TABLE rows_to_load (id INT PRIMARY KEY)");
+            statement.execute("INSERT INTO rows_to_load SELECT x FROM SYSTEM_RANGE(1, 10)");
+        }
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void loadsEveryPage() {
+        StreamingLoader<Integer> loader = new StreamingLoader<>(pool, "Rows", PAGE_SQL, 0, 4, resultSet -> resultSet.getInt(1), id -> id);
+        List<Integer> loaded = new ArrayList<>();
+        loader.run(loaded::addAll);
+        assertEquals(10, loaded.size());
+        assertTrue(loader.isComplete());
+        assertFalse(loader.hasFailed());
+        assertTrue(loader.peakHeapMegabytes() > 0);
+    }
+
+    @Test
+    void aPageThatFailsBrieflyIsRetriedFromTheSameKey() {
+        AtomicInteger acquires = new AtomicInteger();
+        ConnectionProvider dropsTwice = new ConnectionProvider() {
+            @Override
+            public PooledConnection acquire() throws SQLException {
+                int attempt = acquires.incrementAndGet();
+                if (attempt == 2 || attempt == 3) {
+                    throw new SQLException("connection lost");
+                }
+                return pool.acquire();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        StreamingLoader<Integer> loader = new StreamingLoader<>(dropsTwice, "Rows", PAGE_SQL, 0, 4,
+                resultSet -> resultSet.getInt(1), id -> id, 3, 1);
+        List<Integer> loaded = new ArrayList<>();
+        loader.run(loaded::addAll);
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), loaded);
+        assertTrue(loader.isComplete());
+        assertEquals(5, acquires.get());
+    }
+
+    @Test
+    void failedLoadIsNeverComplete() {
+        AtomicInteger acquires = new AtomicInteger();
+        ConnectionProvider failsAfterFirstPage = new ConnectionProvider() {
+            @Override
+            public PooledConnection acquire() throws SQLException {
+                if (acquires.incrementAndGet() > 1) {
+                    throw new SQLException("connection lost");
+                }
+                return pool.acquire();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        StreamingLoader<Integer> loader = new StreamingLoader<>(failsAfterFirstPage, "Rows", PAGE_SQL, 0, 4,
+                resultSet -> resultSet.getInt(1), id -> id, 3, 1);
+        List<Integer> loaded = new ArrayList<>();
+        loader.run(loaded::addAll);
+        assertEquals(List.of(1, 2, 3, 4), loaded);
+        // The first page, then three tries at the second.
+        assertEquals(4, acquires.get());
+        assertTrue(loader.hasFailed());
+        assertFalse(loader.isComplete());
+    }
+}
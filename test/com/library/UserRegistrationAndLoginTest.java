@@ -0,0 +1,44 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import org.junit.jupiter.api.Test;
+
+class UserRegistrationAndLoginTest {
+    @Test
+    void cachedLookupsPreferUnflushedWritesToTheTable() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:users-cached;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2);
+             WriteBehindJournal journal = new WriteBehindJournal(pool, Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("CREATE TABLE users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255), version INT NOT NULL DEFAULT 0)");
+                statement.execute("INSERT INTO users (username, password) VALUES ('ann', 'old'), ('bob', 'old'), ('cy', 'old')");
+            }
+            UserRegistrationAndLogin users = new UserRegistrationAndLogin(pool, journal, LoadMode.CACHED);
+
+            // Written as if by an entry since evicted: the journal holds the rows, the cache does not.
+            journal.update(UserRegistrationAndLogin.USERS_TABLE, "ann", "new", 1, "ann");
+            journal.delete(UserRegistrationAndLogin.USERS_TABLE, "bob", 0);
+            assertEquals("new", users.findUser("ann").password);
+            assertEquals(1, users.findUser("ann").version);
+            assertNull(users.findUser("bob"));
+            assertEquals("old", users.findUser("cy").password);
+
+            BoundedCache.Stats stats = users.cacheStats();
+            assertEquals(1, stats.hits);
+            assertEquals(3, stats.misses);
+            assertEquals(2, stats.entries);
+
+            journal.awaitFlush();
+            assertEquals("new", users.findUser("ann").password);
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM users WHERE password = 'new' OR username = 'bob'")) {
+                assertTrue(rows.next());
+                assertEquals(1, rows.getInt(1));
+            }
+            try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+                statement.execute("DROP ALL OBJECTS");
+            }
+        }
+    }
+}
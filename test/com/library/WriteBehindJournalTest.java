@@ -0,0 +1,202 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class WriteBehindJournalTest {
+    private static final WriteBehindJournal.Table BRANCHES = Holdings.BRANCHES_TABLE;
+    private static final WriteBehindJournal.Table BOOKS = BookSearch.BOOKS_TABLE;
+    private static final WriteBehindJournal.Table HOLDS = HoldQueue.HOLDS_TABLE;
+
+    private ConnectionPool pool;
+    private volatile boolean databaseDown;
+    private WriteBehindJournal journal;
+    private final List<Object> reloaded = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:write-behind;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 4);
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("CREATE TABLE books (id INT PRIMARY KEY, title VARCHAR(255), author VARCHAR(255), "
+                    + "is_available BOOLEAN, version INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE holds (id BIGINT PRIMARY KEY, book_id INT, username VARCHAR(255), priority INT, "
+                    + "status VARCHAR(16), placed_at TIMESTAMP, expires_at TIMESTAMP)");
+            statement.execute("CREATE TABLE branches (id SMALLINT PRIMARY KEY, name VARCHAR(255) NOT NULL UNIQUE)");
+            statement.execute("CREATE TABLE catalog_changes (seq BIGINT AUTO_INCREMENT PRIMARY KEY, table_name VARCHAR(64) NOT NULL, "
+                    + "row_key VARCHAR(255) NOT NULL, kind VARCHAR(8) NOT NULL)");
+            statement.execute("INSERT INTO books (id, title, author, is_available) VALUES (1, 'Title 1', 'Author', TRUE)");
+            statement.execute("INSERT INTO branches (id, name) VALUES (1, 'Main'), (3, 'North')");
+        }
+        // Fails every acquire while the database is down, as a lost connection would.
+        ConnectionProvider provider = new ConnectionProvider() {
+            @Override
+            public PooledConnection acquire() throws SQLException {
+                if (databaseDown) {
+                    throw new SQLException("Connection refused");
+                }
+                return pool.acquire();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        journal = new WriteBehindJournal(provider, Integer.MAX_VALUE, Long.MAX_VALUE);
+        journal.onRejected(BRANCHES, reloaded::add);
+        journal.onRejected(BOOKS, reloaded::add);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        databaseDown = false;
+        journal.close();
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        pool.close();
+    }
+
+    @Test
+    void anInsertDeletedBeforeTheFlushNeverReachesTheDatabase() throws SQLException {
+        journal.insert(BRANCHES, 5, "East", 5);
+        journal.delete(BRANCHES, 5);
+        assertNull(journal.pendingWrite(BRANCHES, 5));
+        assertEquals(0, journal.pendingCount());
+
+        journal.awaitFlush();
+        assertNull(query("SELECT name FROM branches WHERE id = 5"));
+        assertNull(query("SELECT kind FROM catalog_changes WHERE table_name = 'branches'"));
+    }
+
+    @Test
+    void aRowDeletedAndInsertedAgainIsFlushedAsAnUpdate() throws SQLException {
+        journal.delete(BRANCHES, 1);
+        journal.insert(BRANCHES, 1, "Central", 1);
+        assertEquals(WriteBehindJournal.Kind.UPDATE, journal.pendingWrite(BRANCHES, 1).kind);
+
+        // An insert would collide with the row still in the table.
+        journal.awaitFlush();
+        assertEquals("Central", query("SELECT name FROM branches WHERE id = 1"));
+        assertEquals("UPDATE", query("SELECT kind FROM catalog_changes WHERE table_name = 'branches' AND row_key = '1'"));
+        assertEquals(0, journal.rejectedCount());
+    }
+
+    @Test
+    void oneFlushDeletesThenUpdatesThenInsertsAcrossTables() throws SQLException {
+        // Submitted inserts first: each only fits once the earlier kinds have freed its branch name.
+        journal.insert(HOLDS, 1L, 11, "ann", 0, "WAITING", new Timestamp(0), null, 1L);
+        journal.insert(BRANCHES, 2, "Main", 2);
+        journal.insert(BRANCHES, 4, "North", 4);
+        journal.insert(BOOKS, 11, "Title 11", "Author", true, 0, 11);
+        journal.update(BRANCHES, 3, "South", 3);
+        journal.delete(BRANCHES, 1);
+
+        journal.awaitFlush();
+        assertEquals(0, journal.rejectedCount());
+        assertEquals(0, journal.pendingCount());
+        assertNull(query("SELECT name FROM branches WHERE id = 1"));
+        assertEquals("Main", query("SELECT name FROM branches WHERE id = 2"));
+        assertEquals("South", query("SELECT name FROM branches WHERE id = 3"));
+        assertEquals("North", query("SELECT name FROM branches WHERE id = 4"));
+        assertEquals("Title 11", query("SELECT title FROM books WHERE id = 11"));
+        assertEquals("11", query("SELECT book_id FROM holds WHERE id = 1"));
+    }
+
+    @Test
+    void aFailedFlushKeepsTheWritePendingUntilTheDatabaseIsBack() throws SQLException {
+        journal.insert(BRANCHES, 5, "East", 5);
+        databaseDown = true;
+        assertThrows(SQLException.class, journal::awaitFlush);
+        assertThrows(SQLException.class, journal::awaitFlush);
+        assertNotNull(journal.pendingWrite(BRANCHES, 5));
+
+        databaseDown = false;
+        journal.awaitFlush();
+        assertEquals("East", query("SELECT name FROM branches WHERE id = 5"));
+        assertEquals(List.of(), reloaded);
+    }
+
+    @Test
+    void aWriteThatFailsFiveTimesIsDroppedAndReloaded() throws SQLException {
+        journal.insert(BRANCHES, 5, "East", 5);
+        databaseDown = true;
+        for (int attempt = 1; attempt < 5; attempt++) {
+            assertThrows(SQLException.class, journal::awaitFlush);
+            assertNotNull(journal.pendingWrite(BRANCHES, 5), "attempt " + attempt);
+        }
+        assertThrows(SQLException.class, journal::awaitFlush);
+        assertNull(journal.pendingWrite(BRANCHES, 5));
+        assertEquals(List.of(5), reloaded);
+
+        databaseDown = false;
+        journal.awaitFlush();
+        assertNull(query("SELECT name FROM branches WHERE id = 5"));
+    }
+
+    @Test
+    void aStaleVersionRejectsItsWholeTransactionAndReloadsEachRow() throws SQLException {
+        journal.transaction(() -> {
+            // The database still holds version 0, so this expects version 1 and matches nothing.
+            journal.update(BOOKS, 1, "Renamed", "Author", true, 2, 1);
+            journal.insert(BRANCHES, 5, "East", 5);
+        });
+        journal.insert(BRANCHES, 6, "West", 6);
+
+        journal.awaitFlush();
+        assertEquals(2, journal.rejectedCount());
+        assertEquals(Set.of(1, 5), new HashSet<>(reloaded));
+        assertEquals("Title 1", query("SELECT title FROM books WHERE id = 1"));
+        assertNull(query("SELECT name FROM branches WHERE id = 5"));
+        assertEquals("West", query("SELECT name FROM branches WHERE id = 6"));
+    }
+
+    @Test
+    void anUpdateOnARowDeletedElsewhereIsRejected() throws SQLException {
+        journal.update(BRANCHES, 7, "Gone", 7);
+
+        journal.awaitFlush();
+        assertEquals(1, journal.rejectedCount());
+        assertEquals(List.of(7), reloaded);
+    }
+
+    @Test
+    void pendingWritesAreLookedUpByTableKeyRangeAndIndexedValue() throws SQLException {
+        journal.insert(BOOKS, 12, "Emma", "Austen", true, 0, 12);
+        journal.insert(BOOKS, 11, "Dune", "Herbert", true, 0, 11);
+        journal.update(BOOKS, 1, "Emma", "Austen", true, 1, 1);
+        journal.insert(BRANCHES, 5, "East", 5);
+        journal.update(BOOKS, 11, "Dune Messiah", "Herbert", true, 0, 11);
+
+        assertEquals(List.of(1, 11, 12), keys(journal.pendingWrites(BOOKS)));
+        assertEquals(List.of(11, 12), keys(journal.pendingWrites(BOOKS, 2, 13)));
+        assertEquals(Set.of(1, 12), new HashSet<>(keys(journal.pendingWritesWith(BOOKS, "Emma"))));
+        // Only the newest write to a key counts, and a delete holds no title.
+        assertEquals(List.of(), keys(journal.pendingWritesWith(BOOKS, "Dune")));
+        assertEquals(List.of(11), keys(journal.pendingWritesWith(BOOKS, "Dune Messiah")));
+        journal.delete(BOOKS, 12, 0);
+        assertEquals(List.of(1), keys(journal.pendingWritesWith(BOOKS, "Emma")));
+        assertThrows(IllegalArgumentException.class, () -> journal.pendingWritesWith(BRANCHES, "East"));
+
+        journal.awaitFlush();
+        assertEquals(List.of(), keys(journal.pendingWrites(BOOKS)));
+        assertEquals(List.of(), keys(journal.pendingWritesWith(BOOKS, "Emma")));
+    }
+
+    private static List<Object> keys(Collection<WriteBehindJournal.Mutation> writes) {
+        List<Object> keys = new ArrayList<>();
+        for (WriteBehindJournal.Mutation write : writes) {
+            keys.add(write.key);
+        }
+        return keys;
+    }
+
+    private String query(String sql) throws SQLException {
+        try (PooledConnection connection = pool.acquire(); Statement statement = connection.connection().createStatement();
+             ResultSet rows = statement.executeQuery(sql)) {
+            return rows.next() ? rows.getString(1) : null;
+        }
+    }
+}